@@ -1,16 +1,24 @@
 package com.github.hakko.musiccabinet.dao;
 
+import java.util.List;
 import java.util.Set;
 
+import org.joda.time.DateTime;
+
+import com.github.hakko.musiccabinet.domain.model.aggr.DirectoryContent;
 import com.github.hakko.musiccabinet.domain.model.library.File;
 
 public interface LibraryAdditionDao {
 
 	void clearImport();
+	int getImportedFiles();
 
 	void addSubdirectories(String directory, Set<String> subDirectories);
 	void addFiles(String directory, Set<File> files);
+	void addDirectoryModified(String directory, DateTime modified);
+	void addDirectoryContents(List<DirectoryContent> contents);
 	
+	void updateLibraryChunk();
 	void updateLibrary();
 	
 }
\ No newline at end of file
@@ -1,7 +1,9 @@
 package com.github.hakko.musiccabinet.dao;
 
+import java.util.List;
 import java.util.Set;
 
+import com.github.hakko.musiccabinet.domain.model.aggr.FileRelocation;
 import com.github.hakko.musiccabinet.domain.model.library.File;
 
 public interface LibraryDeletionDao {
@@ -10,7 +12,10 @@ public interface LibraryDeletionDao {
 
 	void deleteSubdirectories(String directory, Set<String> subDirectories);
 	void deleteFiles(String directory, Set<File> files);
+	void relocateFiles(List<FileRelocation> relocations);
 	
+	int markDeletedFiles();
+	int deleteFilesChunk(int maxFiles);
 	void updateLibrary();
 
 }
\ No newline at end of file
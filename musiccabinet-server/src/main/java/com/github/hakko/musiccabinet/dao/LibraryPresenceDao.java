@@ -1,8 +1,12 @@
 package com.github.hakko.musiccabinet.dao;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import org.joda.time.DateTime;
+
+import com.github.hakko.musiccabinet.domain.model.aggr.LibraryPresenceIndex;
 import com.github.hakko.musiccabinet.domain.model.library.File;
 
 public interface LibraryPresenceDao {
@@ -10,6 +14,9 @@ public interface LibraryPresenceDao {
 	boolean exists(String directory);
 	Set<String> getSubdirectories(String directory);
 	Set<File> getFiles(String directory);
+	Set<File> getFilesNamed(Set<String> filenames);
 	List<String> getRootDirectories();
+	Map<String, DateTime> getDirectoryModifications();
+	LibraryPresenceIndex getPresenceIndex(long maxBytes);
 	
 }
\ No newline at end of file
@@ -1,111 +1,344 @@
 package com.github.hakko.musiccabinet.dao.jdbc;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.sql.DataSource;
 
+import org.joda.time.DateTime;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.PGCopyOutputStream;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.SqlParameter;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
 import org.springframework.jdbc.object.BatchSqlUpdate;
+import org.springframework.jdbc.support.nativejdbc.NativeJdbcExtractor;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import com.github.hakko.musiccabinet.dao.LibraryAdditionDao;
+import com.github.hakko.musiccabinet.domain.model.aggr.DirectoryContent;
 import com.github.hakko.musiccabinet.domain.model.library.File;
 import com.github.hakko.musiccabinet.domain.model.library.MetaData;
 import com.github.hakko.musiccabinet.log.Logger;
 
+/*
+ * Rows for the import tables are either inserted per directory using batch
+ * updates, or, if copyEnabled, buffered across directories and streamed to
+ * the database using PostgreSQL COPY once copyBufferRows rows are collected
+ * for a table (and before add_to_library() is invoked). Rows added by
+ * addDirectoryContents() are streamed before its transaction commits, so
+ * that a committed batch is in the import tables even if the scan is
+ * interrupted right after.
+ *
+ * COPY requires access to the driver's own connection. If that fails, the
+ * buffered rows are batch inserted instead, and COPY is disabled.
+ */
 public class JdbcLibraryAdditionDao implements LibraryAdditionDao, JdbcTemplateDao {
 
 	private JdbcTemplate jdbcTemplate;
-	
+	private TransactionTemplate transactionTemplate;
+	private NativeJdbcExtractor nativeJdbcExtractor;
+
+	private boolean copyEnabled = false;
+	private int copyBufferRows = 10000;
+	private Map<ImportTable, List<Object[]>> buffers = new EnumMap<>(ImportTable.class);
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int COPY_STREAM_BUFFER_SIZE = 65536;
+
 	private static final Logger LOG = Logger.getLogger(JdbcLibraryAdditionDao.class);
 
+	private enum ImportTable {
+		DIRECTORY("library.directory_import",
+				new String[]{"parent_path", "path"},
+				new int[]{Types.VARCHAR, Types.VARCHAR}),
+		FILE("library.file_import",
+				new String[]{"path", "filename", "modified", "size"},
+				new int[]{Types.VARCHAR, Types.VARCHAR, Types.TIMESTAMP, Types.INTEGER}),
+		FILE_HEADERTAG("library.file_headertag_import",
+				new String[]{"path", "filename", "extension", "bitrate", "vbr", "duration",
+				"artist_name", "album_artist_name", "composer_name", "album_name",
+				"track_name", "track_nr", "track_nrs", "disc_nr", "disc_nrs", "year",
+				"tag_name", "lyrics", "coverart", "artistsort_name", "albumartistsort_name"},
+				new int[]{Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.SMALLINT,
+				Types.BOOLEAN, Types.SMALLINT, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR,
+				Types.VARCHAR, Types.VARCHAR, Types.SMALLINT, Types.SMALLINT, Types.SMALLINT,
+				Types.SMALLINT, Types.SMALLINT, Types.VARCHAR, Types.VARCHAR, Types.BOOLEAN,
+				Types.VARCHAR, Types.VARCHAR}),
+		DIRECTORY_MODIFIED("library.directory_modified_import",
+				new String[]{"path", "modified"},
+				new int[]{Types.VARCHAR, Types.TIMESTAMP});
+
+		private final String name;
+		private final String[] columns;
+		private final int[] types;
+
+		private ImportTable(String name, String[] columns, int[] types) {
+			this.name = name;
+			this.columns = columns;
+			this.types = types;
+		}
+
+		private String getColumnList() {
+			StringBuilder sb = new StringBuilder();
+			for (String column : columns) {
+				sb.append(sb.length() == 0 ? "" : ", ").append(column);
+			}
+			return sb.toString();
+		}
+
+		private String getInsertSql() {
+			StringBuilder params = new StringBuilder();
+			for (int i = 0; i < columns.length; i++) {
+				params.append(i == 0 ? "?" : ",?");
+			}
+			return "insert into " + name + " (" + getColumnList() + ") values (" + params + ")";
+		}
+
+		private String getCopySql() {
+			return "copy " + name + " (" + getColumnList() + ") from stdin";
+		}
+	}
+
 	@Override
 	public void clearImport() {
+		buffers.clear();
 		jdbcTemplate.execute("truncate library.directory_import");
 		jdbcTemplate.execute("truncate library.file_import");
 		jdbcTemplate.execute("truncate library.file_headertag_import");
+		jdbcTemplate.execute("truncate library.directory_modified_import");
+	}
+
+	@Override
+	public int getImportedFiles() {
+		return jdbcTemplate.queryForInt("select count(1) from library.file_import");
 	}
 
 	@Override
 	public void addSubdirectories(String directory, Set<String> subDirectories) {
+		List<Object[]> rows = new ArrayList<>();
+		addSubdirectoryRows(rows, directory, subDirectories);
+		addRows(ImportTable.DIRECTORY, rows);
+	}
 
-		String sql = "insert into library.directory_import (parent_path, path) values (?,?)";
-		BatchSqlUpdate batchUpdate = new BatchSqlUpdate(jdbcTemplate.getDataSource(), sql);
-		batchUpdate.declareParameter(new SqlParameter("parent_path", Types.VARCHAR));
-		batchUpdate.declareParameter(new SqlParameter("path", Types.VARCHAR));
-		
-		for (String subDirectory : subDirectories) {
-			batchUpdate.update(new Object[]{directory, subDirectory});
-		}
-		batchUpdate.flush();
+	@Override
+	public void addFiles(String directory, Set<File> files) {
+		List<Object[]> rows = new ArrayList<>();
+		addFileRows(rows, files);
+		addRows(ImportTable.FILE, rows);
 
+		rows = new ArrayList<>();
+		addMetadataRows(rows, files);
+		addRows(ImportTable.FILE_HEADERTAG, rows);
 	}
 
 	@Override
-	public void addFiles(String directory, Set<File> files) {
+	public void addDirectoryModified(String directory, DateTime modified) {
+		List<Object[]> rows = new ArrayList<>();
+		rows.add(new Object[]{directory, modified.toDate()});
+		addRows(ImportTable.DIRECTORY_MODIFIED, rows);
+	}
+
+	/*
+	 * Adds the content of several directories in one transaction, with
+	 * one batch per import table.
+	 */
+	@Override
+	public void addDirectoryContents(final List<DirectoryContent> contents) {
+		final List<Object[]> directoryRows = new ArrayList<>();
+		final List<Object[]> fileRows = new ArrayList<>();
+		final List<Object[]> metadataRows = new ArrayList<>();
+		final List<Object[]> modifiedRows = new ArrayList<>();
+		for (DirectoryContent content : contents) {
+			addSubdirectoryRows(directoryRows, content.getDirectory(), content.getSubDirectories());
+			addFileRows(fileRows, content.getFiles());
+			addMetadataRows(metadataRows, content.getFiles());
+			if (content.getModified() != null) {
+				modifiedRows.add(new Object[]{content.getDirectory(), content.getModified().toDate()});
+			}
+		}
+		transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+			@Override
+			protected void doInTransactionWithoutResult(TransactionStatus status) {
+				addRows(ImportTable.DIRECTORY, directoryRows);
+				addRows(ImportTable.FILE, fileRows);
+				addRows(ImportTable.FILE_HEADERTAG, metadataRows);
+				addRows(ImportTable.DIRECTORY_MODIFIED, modifiedRows);
+				flushAll();
+			}
+		});
+	}
 
-		String sql = "insert into library.file_import (path, filename, modified, size) values (?,?,?,?)";
-		BatchSqlUpdate batchUpdate = new BatchSqlUpdate(jdbcTemplate.getDataSource(), sql);
-		batchUpdate.declareParameter(new SqlParameter("path", Types.VARCHAR));
-		batchUpdate.declareParameter(new SqlParameter("filename", Types.VARCHAR));
-		batchUpdate.declareParameter(new SqlParameter("modified", Types.TIMESTAMP));
-		batchUpdate.declareParameter(new SqlParameter("size", Types.INTEGER));
+	private void addSubdirectoryRows(List<Object[]> rows, String directory, Set<String> subDirectories) {
+		for (String subDirectory : subDirectories) {
+			rows.add(new Object[]{directory, subDirectory});
+		}
+	}
 
+	private void addFileRows(List<Object[]> rows, Set<File> files) {
 		for (File file : files) {
-			batchUpdate.update(new Object[]{file.getDirectory(), file.getFilename(), 
-					file.getModified().toDate(), file.getSize()});
+			rows.add(new Object[]{file.getDirectory(), file.getFilename(),
+					new Date(file.getModifiedMillis()), file.getSize()});
 		}
-		batchUpdate.flush();
+	}
 
-		addMetadata(files);
-	}
-	
-	private void addMetadata(Set<File> files) {
-		String sql = "insert into library.file_headertag_import (path, filename, extension,"
-				+ "bitrate, vbr, duration, artist_name, album_artist_name, composer_name,"
-				+ "album_name, track_name, track_nr, track_nrs, disc_nr, disc_nrs, year,"
-				+ "tag_name, lyrics, coverart, artistsort_name, albumartistsort_name) values"
-				+ "(?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
-		BatchSqlUpdate batch = new BatchSqlUpdate(jdbcTemplate.getDataSource(), sql);
-		batch.declareParameter(new SqlParameter("path", Types.VARCHAR));
-		batch.declareParameter(new SqlParameter("filename", Types.VARCHAR));
-		batch.declareParameter(new SqlParameter("extension", Types.VARCHAR));
-		batch.declareParameter(new SqlParameter("bitrate", Types.SMALLINT));
-		batch.declareParameter(new SqlParameter("vbr", Types.BOOLEAN));
-		batch.declareParameter(new SqlParameter("duration", Types.SMALLINT));
-		batch.declareParameter(new SqlParameter("artist_name", Types.VARCHAR));
-		batch.declareParameter(new SqlParameter("album_artist_name", Types.VARCHAR));
-		batch.declareParameter(new SqlParameter("composer_name", Types.VARCHAR));
-		batch.declareParameter(new SqlParameter("album_name", Types.VARCHAR));
-		batch.declareParameter(new SqlParameter("track_name", Types.VARCHAR));
-		batch.declareParameter(new SqlParameter("track_nr", Types.SMALLINT));
-		batch.declareParameter(new SqlParameter("track_nrs", Types.SMALLINT));
-		batch.declareParameter(new SqlParameter("disc_nr", Types.SMALLINT));
-		batch.declareParameter(new SqlParameter("disc_nrs", Types.SMALLINT));
-		batch.declareParameter(new SqlParameter("year", Types.SMALLINT));
-		batch.declareParameter(new SqlParameter("tag_name", Types.VARCHAR));
-		batch.declareParameter(new SqlParameter("lyrics", Types.VARCHAR));
-		batch.declareParameter(new SqlParameter("coverart", Types.BOOLEAN));
-		batch.declareParameter(new SqlParameter("artistsort_name", Types.VARCHAR));
-		batch.declareParameter(new SqlParameter("albumartistsort_name", Types.VARCHAR));
+	private void addMetadataRows(List<Object[]> rows, Set<File> files) {
 		for (File file : files) {
 			MetaData md = file.getMetadata();
 			if (md != null) {
-				batch.update(new Object[]{file.getDirectory(), file.getFilename(),
+				rows.add(new Object[]{file.getDirectory(), file.getFilename(),
 						md.getMediaType().getFilesuffix(), md.getBitrate(), md.isVbr(),
-						md.getDuration(), md.getArtist(), md.getAlbumArtist(), 
-						md.getComposer(), md.getAlbum(), md.getTitle(), md.getTrackNr(), 
+						md.getDuration(), md.getArtist(), md.getAlbumArtist(),
+						md.getComposer(), md.getAlbum(), md.getTitle(), md.getTrackNr(),
 						md.getTrackNrs(), md.getDiscNr(), md.getDiscNrs(), md.getYear(),
-						md.getGenre(), md.getLyrics(), md.isCoverArtEmbedded(), 
+						md.getGenre(), md.getLyrics(), md.isCoverArtEmbedded(),
 						md.getArtistSort(), md.getAlbumArtistSort()});
 			}
 		}
-		batch.flush();
+	}
+
+	private void addRows(ImportTable table, List<Object[]> rows) {
+		if (!copyEnabled) {
+			batchInsert(table, rows);
+			return;
+		}
+		if (!buffers.containsKey(table)) {
+			buffers.put(table, new ArrayList<Object[]>());
+		}
+		List<Object[]> buffer = buffers.get(table);
+		buffer.addAll(rows);
+		if (buffer.size() >= copyBufferRows) {
+			flush(table);
+		}
+	}
+
+	private void flushAll() {
+		for (ImportTable table : ImportTable.values()) {
+			flush(table);
+		}
+	}
+
+	private void flush(ImportTable table) {
+		List<Object[]> buffer = buffers.remove(table);
+		if (buffer == null || buffer.isEmpty()) {
+			return;
+		}
+		if (!copyEnabled || !copy(table, buffer)) {
+			batchInsert(table, buffer);
+		}
+	}
+
+	private void batchInsert(ImportTable table, List<Object[]> rows) {
+		if (rows.isEmpty()) {
+			return;
+		}
+		BatchSqlUpdate batchUpdate = new BatchSqlUpdate(jdbcTemplate.getDataSource(), table.getInsertSql());
+		for (int i = 0; i < table.columns.length; i++) {
+			batchUpdate.declareParameter(new SqlParameter(table.columns[i], table.types[i]));
+		}
+		for (Object[] row : rows) {
+			batchUpdate.update(row);
+		}
+		batchUpdate.flush();
+	}
+
+	/*
+	 * Streams rows to the database in COPY text format. Returns false if
+	 * the connection doesn't support COPY, without having written anything.
+	 */
+	private boolean copy(final ImportTable table, final List<Object[]> rows) {
+		long ms = -System.currentTimeMillis();
+		boolean copied = jdbcTemplate.execute(new ConnectionCallback<Boolean>() {
+			@Override
+			public Boolean doInConnection(Connection con) throws SQLException {
+				Connection nativeCon = nativeJdbcExtractor == null ?
+						con : nativeJdbcExtractor.getNativeConnection(con);
+				if (!(nativeCon instanceof PGConnection)) {
+					LOG.warn("COPY not supported by " + nativeCon.getClass() + ", using batch inserts.");
+					copyEnabled = false;
+					return false;
+				}
+				try (OutputStream out = new PGCopyOutputStream((PGConnection) nativeCon,
+						table.getCopySql(), COPY_STREAM_BUFFER_SIZE)) {
+					StringBuilder line = new StringBuilder();
+					for (Object[] row : rows) {
+						line.setLength(0);
+						appendCopyRow(line, row);
+						out.write(line.toString().getBytes(UTF8));
+					}
+				} catch (IOException e) {
+					throw new DataAccessResourceFailureException("COPY to " + table.name + " failed!", e);
+				}
+				return true;
+			}
+		});
+		ms += System.currentTimeMillis();
+		if (copied) {
+			LOG.debug("COPY of " + rows.size() + " rows to " + table.name + ": " + ms + " ms");
+		}
+		return copied;
+	}
+
+	protected static void appendCopyRow(StringBuilder sb, Object[] row) {
+		for (int i = 0; i < row.length; i++) {
+			if (i > 0) {
+				sb.append('\t');
+			}
+			Object value = row[i];
+			if (value == null) {
+				sb.append("\\N");
+			} else if (value instanceof Date) {
+				sb.append(new Timestamp(((Date) value).getTime()).toString());
+			} else if (value instanceof Boolean) {
+				sb.append((Boolean) value ? 't' : 'f');
+			} else {
+				String s = value.toString();
+				for (int j = 0; j < s.length(); j++) {
+					char c = s.charAt(j);
+					switch (c) {
+					case '\\': sb.append("\\\\"); break;
+					case '\t': sb.append("\\t"); break;
+					case '\n': sb.append("\\n"); break;
+					case '\r': sb.append("\\r"); break;
+					default: sb.append(c);
+					}
+				}
+			}
+		}
+		sb.append('\n');
+	}
+
+	/*
+	 * Merges what's been added so far into the library, in a transaction
+	 * of its own, without updating library-wide aggregates.
+	 */
+	@Override
+	public void updateLibraryChunk() {
+		flushAll();
+		long ms = -System.currentTimeMillis();
+		jdbcTemplate.execute("select library.add_to_library_chunk()");
+		ms += System.currentTimeMillis();
+		LOG.debug("add_to_library_chunk(): " + ms + " ms");
 	}
 
 	@Override
 	public void updateLibrary() {
+		flushAll();
 		long ms = -System.currentTimeMillis();
 		jdbcTemplate.execute("select library.add_to_library()");
 		ms += System.currentTimeMillis();
@@ -118,9 +351,23 @@ public class JdbcLibraryAdditionDao implements LibraryAdditionDao, JdbcTemplateD
 	}
 
 	// Spring setters
-	
+
 	public void setDataSource(DataSource dataSource) {
 		this.jdbcTemplate = new JdbcTemplate(dataSource);
+		this.transactionTemplate = new TransactionTemplate(
+				new DataSourceTransactionManager(dataSource));
+	}
+
+	public void setNativeJdbcExtractor(NativeJdbcExtractor nativeJdbcExtractor) {
+		this.nativeJdbcExtractor = nativeJdbcExtractor;
+	}
+
+	public void setCopyEnabled(boolean copyEnabled) {
+		this.copyEnabled = copyEnabled;
+	}
+
+	public void setCopyBufferRows(int copyBufferRows) {
+		this.copyBufferRows = copyBufferRows;
 	}
 
-}
\ No newline at end of file
+}
@@ -1,6 +1,7 @@
 package com.github.hakko.musiccabinet.dao.jdbc;
 
 import java.sql.Types;
+import java.util.List;
 import java.util.Set;
 
 import javax.sql.DataSource;
@@ -10,6 +11,7 @@ import org.springframework.jdbc.core.SqlParameter;
 import org.springframework.jdbc.object.BatchSqlUpdate;
 
 import com.github.hakko.musiccabinet.dao.LibraryDeletionDao;
+import com.github.hakko.musiccabinet.domain.model.aggr.FileRelocation;
 import com.github.hakko.musiccabinet.domain.model.library.File;
 import com.github.hakko.musiccabinet.log.Logger;
 
@@ -23,6 +25,7 @@ public class JdbcLibraryDeletionDao implements LibraryDeletionDao, JdbcTemplateD
 	public void clearImport() {
 		jdbcTemplate.execute("truncate library.directory_delete");
 		jdbcTemplate.execute("truncate library.file_delete");
+		jdbcTemplate.execute("truncate library.file_relocate");
 	}
 
 	@Override
@@ -39,17 +42,68 @@ public class JdbcLibraryDeletionDao implements LibraryDeletionDao, JdbcTemplateD
 
 	@Override
 	public void deleteFiles(String directory, Set<File> files) {
-		String sql = "insert into library.file_delete (path, filename) values (?,?)";
+		String sql = "insert into library.file_delete (path, filename, modified, size) values (?,?,?,?)";
 		BatchSqlUpdate batchUpdate = new BatchSqlUpdate(jdbcTemplate.getDataSource(), sql);
 		batchUpdate.declareParameter(new SqlParameter("path", Types.VARCHAR));
 		batchUpdate.declareParameter(new SqlParameter("filename", Types.VARCHAR));
+		batchUpdate.declareParameter(new SqlParameter("modified", Types.TIMESTAMP));
+		batchUpdate.declareParameter(new SqlParameter("size", Types.INTEGER));
 		
 		for (File file : files) {
-			batchUpdate.update(new Object[]{file.getDirectory(), file.getFilename()});
+			batchUpdate.update(new Object[]{file.getDirectory(), file.getFilename(),
+					file.getModified() == null ? null : file.getModified().toDate(), file.getSize()});
 		}
 		batchUpdate.flush();
 	}
 
+	/*
+	 * Relocated files are moved to their new directory by mark_deleted_files(),
+	 * before anything is deleted, keeping their ids (and thereby tracks).
+	 */
+	@Override
+	public void relocateFiles(List<FileRelocation> relocations) {
+		String sql = "insert into library.file_relocate (from_path, path, filename, modified, size) values (?,?,?,?,?)";
+		BatchSqlUpdate batchUpdate = new BatchSqlUpdate(jdbcTemplate.getDataSource(), sql);
+		batchUpdate.declareParameter(new SqlParameter("from_path", Types.VARCHAR));
+		batchUpdate.declareParameter(new SqlParameter("path", Types.VARCHAR));
+		batchUpdate.declareParameter(new SqlParameter("filename", Types.VARCHAR));
+		batchUpdate.declareParameter(new SqlParameter("modified", Types.TIMESTAMP));
+		batchUpdate.declareParameter(new SqlParameter("size", Types.INTEGER));
+		
+		for (FileRelocation relocation : relocations) {
+			File file = relocation.getTo();
+			batchUpdate.update(new Object[]{relocation.getFrom().getDirectory(), file.getDirectory(),
+					file.getFilename(), file.getModified().toDate(), file.getSize()});
+		}
+		batchUpdate.flush();
+	}
+
+	/*
+	 * Marks files in deleted directories and deleted files, and returns the
+	 * number of files to delete.
+	 */
+	@Override
+	public int markDeletedFiles() {
+		long ms = -System.currentTimeMillis();
+		int files = jdbcTemplate.queryForInt("select library.mark_deleted_files()");
+		ms += System.currentTimeMillis();
+		LOG.debug("mark_deleted_files(): " + files + " files, " + ms + " ms");
+		return files;
+	}
+
+	/*
+	 * Deletes at most maxFiles marked files, in a transaction of its own.
+	 * Returns the number of deleted files, 0 when there's nothing left.
+	 */
+	@Override
+	public int deleteFilesChunk(int maxFiles) {
+		long ms = -System.currentTimeMillis();
+		int files = jdbcTemplate.queryForInt("select library.delete_files_chunk(?)", maxFiles);
+		ms += System.currentTimeMillis();
+		LOG.debug("delete_files_chunk(): " + files + " files, " + ms + " ms");
+		return files;
+	}
+
 	@Override
 	public void updateLibrary() {
 		long ms = -System.currentTimeMillis();
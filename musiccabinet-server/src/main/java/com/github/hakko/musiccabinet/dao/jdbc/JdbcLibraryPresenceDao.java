@@ -1,9 +1,13 @@
 package com.github.hakko.musiccabinet.dao.jdbc;
 
+import static com.github.hakko.musiccabinet.dao.util.PostgreSQLUtil.getParameters;
+
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.sql.DataSource;
@@ -13,12 +17,16 @@ import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowCallbackHandler;
 
 import com.github.hakko.musiccabinet.dao.LibraryPresenceDao;
+import com.github.hakko.musiccabinet.domain.model.aggr.LibraryPresenceIndex;
 import com.github.hakko.musiccabinet.domain.model.library.File;
+import com.github.hakko.musiccabinet.log.Logger;
 
 public class JdbcLibraryPresenceDao implements LibraryPresenceDao, JdbcTemplateDao {
 
 	private JdbcTemplate jdbcTemplate;
 
+	private static final Logger LOG = Logger.getLogger(JdbcLibraryPresenceDao.class);
+
 	@Override
 	public boolean exists(String directory) {
 		String sql = "select exists(select 1 from library.directory where path = ?)";
@@ -47,7 +55,7 @@ public class JdbcLibraryPresenceDao implements LibraryPresenceDao, JdbcTemplateD
 			public void processRow(ResultSet rs) throws SQLException {
 				String directory = rs.getString(1);
 				String filename = rs.getString(2);
-				DateTime modified = new DateTime(rs.getTimestamp(3).getTime());
+				long modified = rs.getTimestamp(3).getTime();
 				int size = rs.getInt(4);
 				files.add(new File(directory, filename, modified, size));
 			}
@@ -56,6 +64,31 @@ public class JdbcLibraryPresenceDao implements LibraryPresenceDao, JdbcTemplateD
 		return files;
 	}
 	
+	/*
+	 * Finds files anywhere in the library, by name (used to detect moved files).
+	 */
+	@Override
+	public Set<File> getFilesNamed(Set<String> filenames) {
+		final Set<File> files = new HashSet<>();
+		if (filenames.isEmpty()) {
+			return files;
+		}
+
+		String sql = "select d.path, f.filename, f.modified, f.size from library.file f"
+				+ " inner join library.directory d on f.directory_id = d.id"
+				+ " where f.filename in (" + getParameters(filenames.size()) + ")";
+		
+		jdbcTemplate.query(sql, filenames.toArray(), new RowCallbackHandler() {
+			@Override
+			public void processRow(ResultSet rs) throws SQLException {
+				files.add(new File(rs.getString(1), rs.getString(2),
+						rs.getTimestamp(3).getTime(), rs.getInt(4)));
+			}
+		});
+		
+		return files;
+	}
+	
 	@Override
 	public List<String> getRootDirectories() {
 		String sql = "select path from library.directory where parent_id is null";
@@ -63,6 +96,54 @@ public class JdbcLibraryPresenceDao implements LibraryPresenceDao, JdbcTemplateD
 		return jdbcTemplate.queryForList(sql, String.class);
 	}
 
+	@Override
+	public Map<String, DateTime> getDirectoryModifications() {
+		String sql = "select path, modified from library.directory where modified is not null";
+		
+		final Map<String, DateTime> modifications = new HashMap<>();
+		jdbcTemplate.query(sql, new RowCallbackHandler() {
+			@Override
+			public void processRow(ResultSet rs) throws SQLException {
+				modifications.put(rs.getString(1), new DateTime(rs.getTimestamp(2).getTime()));
+			}
+		});
+		
+		return modifications;
+	}
+
+	/*
+	 * Reads all directories and files into memory, in two sequential reads.
+	 * Returns null if the library is estimated to need more than maxBytes.
+	 */
+	@Override
+	public LibraryPresenceIndex getPresenceIndex(long maxBytes) {
+		int directories = jdbcTemplate.queryForInt("select count(1) from library.directory");
+		int files = jdbcTemplate.queryForInt("select count(1) from library.file");
+		if (LibraryPresenceIndex.estimateBytes(directories, files) > maxBytes) {
+			LOG.info("Library of " + files + " files exceeds presence index budget.");
+			return null;
+		}
+		
+		final LibraryPresenceIndex index = new LibraryPresenceIndex(directories, files);
+		jdbcTemplate.query("select id, path, coalesce(parent_id, 0) from library.directory order by id",
+				new RowCallbackHandler() {
+			@Override
+			public void processRow(ResultSet rs) throws SQLException {
+				index.addDirectory(rs.getInt(1), rs.getString(2), rs.getInt(3));
+			}
+		});
+		jdbcTemplate.query("select directory_id, filename, modified, size from library.file order by directory_id",
+				new RowCallbackHandler() {
+			@Override
+			public void processRow(ResultSet rs) throws SQLException {
+				index.addFile(rs.getInt(1), rs.getString(2), rs.getTimestamp(3).getTime(), rs.getInt(4));
+			}
+		});
+		index.complete();
+		
+		return index;
+	}
+
 	@Override
 	public JdbcTemplate getJdbcTemplate() {
 		return jdbcTemplate;
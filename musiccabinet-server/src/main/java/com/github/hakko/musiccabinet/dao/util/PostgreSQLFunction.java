@@ -51,8 +51,14 @@ public enum PostgreSQLFunction {
 	UPDATE_TRACKPLAYCOUNT("library", "update_trackplaycount", 
 		"sql/library/update-trackplaycount.sql"),
 		
+	ADD_TO_LIBRARY_CHUNK("library", "add_to_library_chunk",
+		"sql/library/add-to-library-chunk.sql"),
 	ADD_TO_LIBRARY("library", "add_to_library",
 		"sql/library/add-to-library.sql"),
+	MARK_DELETED_FILES("library", "mark_deleted_files",
+		"sql/library/mark-deleted-files.sql"),
+	DELETE_FILES_CHUNK("library", "delete_files_chunk",
+		"sql/library/delete-files-chunk.sql"),
 	DELETE_FROM_LIBRARY("library", "delete_from_library",
 		"sql/library/delete-from-library.sql"),
 	UPDATE_STATISTICS("library", "update_statistics",
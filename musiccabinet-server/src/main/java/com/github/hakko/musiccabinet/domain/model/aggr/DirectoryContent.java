@@ -3,6 +3,8 @@ package com.github.hakko.musiccabinet.domain.model.aggr;
 import java.util.HashSet;
 import java.util.Set;
 
+import org.joda.time.DateTime;
+
 import com.github.hakko.musiccabinet.domain.model.library.File;
 
 /*
@@ -14,6 +16,12 @@ public class DirectoryContent {
 	private String directory;
 	private Set<String> subDirectories = new HashSet<>();
 	private Set<File> files = new HashSet<>();
+	
+	// last modification time of directory itself, if known
+	private DateTime modified;
+	
+	// true if modification time equals what was stored at last scan
+	private boolean unchanged;
 
 	public DirectoryContent(String directory) {
 		this.directory = directory;
@@ -36,6 +44,22 @@ public class DirectoryContent {
 	public Set<File> getFiles() {
 		return files;
 	}
+
+	public DateTime getModified() {
+		return modified;
+	}
+
+	public void setModified(DateTime modified) {
+		this.modified = modified;
+	}
+
+	public boolean isUnchanged() {
+		return unchanged;
+	}
+
+	public void setUnchanged(boolean unchanged) {
+		this.unchanged = unchanged;
+	}
 	
 	public String toString() {
 		return "dir: " + directory + ", subdirs: " + subDirectories;
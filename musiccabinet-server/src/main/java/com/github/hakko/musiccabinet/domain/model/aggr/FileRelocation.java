@@ -0,0 +1,33 @@
+package com.github.hakko.musiccabinet.domain.model.aggr;
+
+import com.github.hakko.musiccabinet.domain.model.library.File;
+
+/*
+ * A library file that has been moved, and is found identical (same name,
+ * modification time and size) in a new directory. Used for message passing
+ * by Spring Integration.
+ */
+public class FileRelocation {
+
+	private File from;
+	private File to;
+
+	public FileRelocation(File from, File to) {
+		this.from = from;
+		this.to = to;
+	}
+
+	public File getFrom() {
+		return from;
+	}
+
+	public File getTo() {
+		return to;
+	}
+
+	@Override
+	public String toString() {
+		return from.getDirectory() + " -> " + to.getDirectory() + ": " + to.getFilename();
+	}
+
+}
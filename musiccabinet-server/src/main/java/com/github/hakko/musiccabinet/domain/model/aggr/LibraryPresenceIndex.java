@@ -0,0 +1,244 @@
+package com.github.hakko.musiccabinet.domain.model.aggr;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+
+import com.github.hakko.musiccabinet.domain.model.library.File;
+
+/*
+ * Read-only snapshot of library.directory and library.file, used to find added
+ * and deleted resources during a scan without querying the database per directory.
+ *
+ * Directories must be added ordered by id, and files ordered by directory id.
+ * Files are kept in flat primitive arrays, where each directory refers to a
+ * range, and sub directories are looked up the same way once complete() is called.
+ * File and DirectoryContent objects are only created for the directory asked for.
+ * Files can also be looked up by name, using an ordering that is sorted on
+ * first use, to find moved files.
+ */
+public class LibraryPresenceIndex {
+
+	// rough heap usage, including the path/filename strings, and the position
+	// per file in filenameOrder.
+	public static final int BYTES_PER_DIRECTORY = 160;
+	public static final int BYTES_PER_FILE = 104;
+
+	private int directories;
+	private int[] directoryIds;
+	private String[] paths;
+	private int[] parents;
+	private int[] firstFile;
+	private Map<String, Integer> positions;
+
+	private int files;
+	private String[] filenames;
+	private long[] modified;
+	private int[] sizes;
+
+	private int[] firstChild;
+	private int[] children;
+
+	private int[] filenameOrder;
+
+	public LibraryPresenceIndex(int expectedDirectories, int expectedFiles) {
+		int dirs = Math.max(1, expectedDirectories), fs = Math.max(1, expectedFiles);
+		directoryIds = new int[dirs];
+		paths = new String[dirs];
+		parents = new int[dirs];
+		firstFile = new int[dirs + 1];
+		positions = new HashMap<>(dirs * 4 / 3 + 1);
+		filenames = new String[fs];
+		modified = new long[fs];
+		sizes = new int[fs];
+	}
+
+	public static long estimateBytes(int directories, int files) {
+		return (long) directories * BYTES_PER_DIRECTORY + (long) files * BYTES_PER_FILE;
+	}
+
+	/*
+	 * parentId is 0 for root directories.
+	 */
+	public void addDirectory(int id, String path, int parentId) {
+		if (directories == directoryIds.length) {
+			int length = directories * 2;
+			directoryIds = Arrays.copyOf(directoryIds, length);
+			paths = Arrays.copyOf(paths, length);
+			parents = Arrays.copyOf(parents, length);
+			firstFile = Arrays.copyOf(firstFile, length + 1);
+		}
+		directoryIds[directories] = id;
+		paths[directories] = path;
+		parents[directories] = parentId;
+		positions.put(path, directories);
+		directories++;
+	}
+
+	public void addFile(int directoryId, String filename, long modifiedMillis, int size) {
+		if (files == filenames.length) {
+			int length = files * 2;
+			filenames = Arrays.copyOf(filenames, length);
+			modified = Arrays.copyOf(modified, length);
+			sizes = Arrays.copyOf(sizes, length);
+		}
+		filenames[files] = filename;
+		modified[files] = modifiedMillis;
+		sizes[files] = size;
+		files++;
+		// files are ordered by directory, so this only marks where a directory ends.
+		int position = Arrays.binarySearch(directoryIds, 0, directories, directoryId);
+		if (position >= 0) {
+			firstFile[position + 1] = files;
+		}
+	}
+
+	/*
+	 * Finishes the index, after all directories and files have been added.
+	 */
+	public void complete() {
+		// directories without files end where the previous directory ends.
+		for (int i = 1; i <= directories; i++) {
+			firstFile[i] = Math.max(firstFile[i], firstFile[i - 1]);
+		}
+
+		firstChild = new int[directories + 1];
+		int[] parentPositions = new int[directories];
+		for (int i = 0; i < directories; i++) {
+			parentPositions[i] = parents[i] == 0 ? -1 :
+				Arrays.binarySearch(directoryIds, 0, directories, parents[i]);
+			if (parentPositions[i] >= 0) {
+				firstChild[parentPositions[i] + 1]++;
+			}
+		}
+		for (int i = 1; i <= directories; i++) {
+			firstChild[i] += firstChild[i - 1];
+		}
+		children = new int[firstChild[directories]];
+		int[] next = Arrays.copyOf(firstChild, directories);
+		for (int i = 0; i < directories; i++) {
+			if (parentPositions[i] >= 0) {
+				children[next[parentPositions[i]]++] = i;
+			}
+		}
+		parents = null;
+	}
+
+	public boolean exists(String directory) {
+		return directory != null && positions.containsKey(directory);
+	}
+
+	public Set<String> getSubdirectories(String directory) {
+		Set<String> subDirectories = new HashSet<>();
+		Integer position = directory == null ? null : positions.get(directory);
+		if (position != null) {
+			for (int i = firstChild[position]; i < firstChild[position + 1]; i++) {
+				subDirectories.add(paths[children[i]]);
+			}
+		}
+		return subDirectories;
+	}
+
+	public Set<File> getFiles(String directory) {
+		Set<File> directoryFiles = new HashSet<>();
+		Integer position = directory == null ? null : positions.get(directory);
+		if (position != null) {
+			for (int i = firstFile[position]; i < firstFile[position + 1]; i++) {
+				directoryFiles.add(new File(directory, filenames[i], modified[i], sizes[i]));
+			}
+		}
+		return directoryFiles;
+	}
+
+	/*
+	 * Returns all files named as any of the given filenames, wherever they are.
+	 */
+	public Set<File> getFilesNamed(Set<String> names) {
+		if (filenameOrder == null) {
+			sortFilenames();
+		}
+		Set<File> namedFiles = new HashSet<>();
+		for (String name : names) {
+			int low = 0, high = files;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (filenames[filenameOrder[mid]].compareTo(name) < 0) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			for (int i = low; i < files && filenames[filenameOrder[i]].equals(name); i++) {
+				int file = filenameOrder[i];
+				namedFiles.add(new File(paths[getDirectoryPosition(file)], filenames[file],
+						modified[file], sizes[file]));
+			}
+		}
+		return namedFiles;
+	}
+
+	/*
+	 * Sorts file positions on filename. Heap sort works in place, so no memory
+	 * beyond filenameOrder itself is needed.
+	 */
+	private void sortFilenames() {
+		int[] order = new int[files];
+		for (int i = 0; i < files; i++) {
+			order[i] = i;
+		}
+		for (int i = files / 2 - 1; i >= 0; i--) {
+			siftDown(order, i, files);
+		}
+		for (int end = files - 1; end > 0; end--) {
+			int largest = order[0];
+			order[0] = order[end];
+			order[end] = largest;
+			siftDown(order, 0, end);
+		}
+		filenameOrder = order;
+	}
+
+	private void siftDown(int[] order, int root, int end) {
+		int file = order[root];
+		for (int child; (child = 2 * root + 1) < end; root = child) {
+			if (child + 1 < end && filenames[order[child + 1]].compareTo(filenames[order[child]]) > 0) {
+				child++;
+			}
+			if (filenames[order[child]].compareTo(filenames[file]) <= 0) {
+				break;
+			}
+			order[root] = order[child];
+		}
+		order[root] = file;
+	}
+
+	/*
+	 * Finds the directory whose range of files includes file, i.e the last
+	 * directory to start at or before it (directories without files start
+	 * where the next directory with files does).
+	 */
+	private int getDirectoryPosition(int file) {
+		int low = 0, high = directories - 1;
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (firstFile[mid] <= file) {
+				low = mid;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return low;
+	}
+
+	public int getNumberOfDirectories() {
+		return directories;
+	}
+
+	public int getNumberOfFiles() {
+		return files;
+	}
+
+}
@@ -3,27 +3,47 @@ package com.github.hakko.musiccabinet.domain.model.library;
 import java.nio.file.Path;
 import java.nio.file.attribute.BasicFileAttributes;
 
-import org.apache.commons.lang.builder.EqualsBuilder;
-import org.apache.commons.lang.builder.HashCodeBuilder;
 import org.joda.time.DateTime;
 
+/*
+ * A file found during library scanning, or stored in the library.
+ *
+ * A scan can hold millions of these at once, so they are kept compact: the
+ * modification time is stored as epoch millis rather than as a DateTime, and
+ * files found in the same directory share one directory String. Meta data is
+ * only attached by the meta data stage, for files that are new to the library.
+ */
 public class File {
 
 	private String directory;
 	private String filename;
-	private DateTime modified;
+	private long modified;
 	private int size;
 	private MetaData metaData;
+
+	// modified value for a file with unknown modification time
+	private static final long UNKNOWN = Long.MIN_VALUE;
 	
 	public File(Path path, BasicFileAttributes attr) {
-		this(path.getParent().toString(), path.getFileName().toString(),
-		new DateTime(attr.lastModifiedTime().toMillis()), (int) attr.size());
+		this(path.getParent().toString(), path, attr);
+	}
+	
+	/*
+	 * Creates a file found in given directory, sharing its String.
+	 */
+	public File(String directory, Path path, BasicFileAttributes attr) {
+		this(directory, path.getFileName().toString(),
+				attr.lastModifiedTime().toMillis(), (int) attr.size());
 	}
 	
 	public File(String directory, String filename, DateTime modified, int size) {
+		this(directory, filename, modified == null ? UNKNOWN : modified.getMillis(), size);
+	}
+
+	public File(String directory, String filename, long modifiedMillis, int size) {
 		this.directory = directory;
 		this.filename = filename;
-		this.modified = modified;
+		this.modified = modifiedMillis;
 		this.size = size;
 	}
 
@@ -44,11 +64,15 @@ public class File {
 	}
 
 	public DateTime getModified() {
-		return modified;
+		return modified == UNKNOWN ? null : new DateTime(modified);
 	}
 
 	public void setModified(DateTime modified) {
-		this.modified = modified;
+		this.modified = modified == null ? UNKNOWN : modified.getMillis();
+	}
+
+	public long getModifiedMillis() {
+		return modified;
 	}
 
 	public int getSize() {
@@ -71,14 +95,16 @@ public class File {
 		return metaData;
 	}
 	
+	/*
+	 * Computed without allocations, as files are hashed a lot during presence
+	 * comparisons.
+	 */
 	@Override
 	public int hashCode() {
-		return new HashCodeBuilder()
-		.append(directory)
-		.append(filename)
-		.append(modified)
-		.append(size)
-		.toHashCode();
+		int hash = directory == null ? 0 : directory.hashCode();
+		hash = 31 * hash + (filename == null ? 0 : filename.hashCode());
+		hash = 31 * hash + (int) (modified ^ (modified >>> 32));
+		return 31 * hash + size;
 	}
 
 	@Override
@@ -88,12 +114,9 @@ public class File {
 		if (o.getClass() != getClass()) return false;
 
 		File f = (File) o;
-		return new EqualsBuilder()
-		.append(directory, f.directory)
-		.append(filename, f.filename)
-		.append(modified, f.modified)
-		.append(size, f.size)
-		.isEquals();
+		return modified == f.modified && size == f.size
+				&& (filename == null ? f.filename == null : filename.equals(f.filename))
+				&& (directory == null ? f.directory == null : directory.equals(f.directory));
 	}
 	
 	@Override
@@ -0,0 +1,77 @@
+package com.github.hakko.musiccabinet.io;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.jaudiotagger.tag.FieldKey;
+
+/*
+ * Tag fields and audio properties of a music file, as needed for library
+ * meta data. Tag field values are kept as found in the file, and normalized
+ * by AudioTagService.
+ */
+public class HeaderTag {
+
+	private Map<FieldKey, String> fields = new EnumMap<>(FieldKey.class);
+	private boolean artwork;
+	private boolean vbr;
+	private int bitrate;
+	private int duration;
+
+	// bytes read from the file to find the above
+	private long bytesRead;
+
+	/*
+	 * Only the first value of a field is kept, like Tag.getFirst() does.
+	 */
+	public void setField(FieldKey fieldKey, String value) {
+		if (value != null && !fields.containsKey(fieldKey)) {
+			fields.put(fieldKey, value);
+		}
+	}
+
+	public String getFirst(FieldKey fieldKey) {
+		return fields.get(fieldKey);
+	}
+
+	public boolean hasArtwork() {
+		return artwork;
+	}
+
+	public void setArtwork(boolean artwork) {
+		this.artwork = artwork;
+	}
+
+	public boolean isVbr() {
+		return vbr;
+	}
+
+	public void setVbr(boolean vbr) {
+		this.vbr = vbr;
+	}
+
+	public int getBitrate() {
+		return bitrate;
+	}
+
+	public void setBitrate(int bitrate) {
+		this.bitrate = bitrate;
+	}
+
+	public int getDuration() {
+		return duration;
+	}
+
+	public void setDuration(int duration) {
+		this.duration = duration;
+	}
+
+	public long getBytesRead() {
+		return bytesRead;
+	}
+
+	public void addBytesRead(long bytes) {
+		this.bytesRead += bytes;
+	}
+
+}
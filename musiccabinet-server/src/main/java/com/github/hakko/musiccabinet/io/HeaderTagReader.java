@@ -0,0 +1,422 @@
+package com.github.hakko.musiccabinet.io;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_16;
+import static java.nio.charset.StandardCharsets.UTF_16BE;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.READ;
+import static org.jaudiotagger.tag.FieldKey.ALBUM;
+import static org.jaudiotagger.tag.FieldKey.ALBUM_ARTIST;
+import static org.jaudiotagger.tag.FieldKey.ALBUM_ARTIST_SORT;
+import static org.jaudiotagger.tag.FieldKey.ARTIST;
+import static org.jaudiotagger.tag.FieldKey.ARTIST_SORT;
+import static org.jaudiotagger.tag.FieldKey.COMPOSER;
+import static org.jaudiotagger.tag.FieldKey.DISC_NO;
+import static org.jaudiotagger.tag.FieldKey.DISC_TOTAL;
+import static org.jaudiotagger.tag.FieldKey.GENRE;
+import static org.jaudiotagger.tag.FieldKey.LYRICS;
+import static org.jaudiotagger.tag.FieldKey.TITLE;
+import static org.jaudiotagger.tag.FieldKey.TRACK;
+import static org.jaudiotagger.tag.FieldKey.TRACK_TOTAL;
+import static org.jaudiotagger.tag.FieldKey.YEAR;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jaudiotagger.tag.FieldKey;
+
+/*
+ * Reads tags and audio properties from the start of MP3 and FLAC files,
+ * without parsing the complete file like JAudioTagger does.
+ *
+ * For MP3, that is the ID3v2 tag and the first MPEG frame (with a Xing/Info
+ * header for VBR files). For FLAC, it is the STREAMINFO, VORBIS_COMMENT and
+ * PICTURE metadata blocks (JAudioTagger doesn't look for artwork in Vorbis
+ * comments, and neither does this class). Only frames and blocks of interest are read, with
+ * positional reads on a FileChannel, so embedded artwork is skipped over.
+ *
+ * Anything out of the ordinary (ID3v1 only, unsynchronisation, compressed or
+ * encrypted frames, VBRI headers, an unexpected first frame etc) makes read()
+ * return null, and is left to JAudioTagger. Where they differ, values are
+ * calculated the way JAudioTagger does, so the result doesn't depend on which
+ * reader was used.
+ */
+public class HeaderTagReader {
+
+	// frames/blocks of interest larger than this are left for JAudioTagger.
+	private static final int MAX_BODY_SIZE = 1 << 20;
+
+	private static final Map<String, FieldKey> ID3_FRAMES = new HashMap<>();
+	private static final Map<String, FieldKey> VORBIS_FIELDS = new HashMap<>();
+
+	private static final String[] ID3_ARTWORK = {"PIC", "APIC"};
+	private static final String[] ID3_LYRICS = {"ULT", "USLT"};
+	private static final String VORBIS_ALBUM_ARTIST = "ALBUM ARTIST";
+
+	private static final int[] MPEG1_BITRATES = {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320};
+	private static final int[] MPEG2_BITRATES = {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160};
+	private static final int[] MPEG1_SAMPLE_RATES = {44100, 48000, 32000};
+
+
+	private static final int FLAC_STREAMINFO = 0;
+	private static final int FLAC_VORBIS_COMMENT = 4;
+	private static final int FLAC_PICTURE = 6;
+
+	static {
+		String[][] frames = {
+			{"TP1", "TPE1"}, {"TSP", "TSOP"}, {"TP2", "TPE2"}, {"TS2", "TSO2"},
+			{"TAL", "TALB"}, {"TT2", "TIT2"}, {"TYE", "TYER"}, {null, "TDRC"},
+			{"TCO", "TCON"}, {"ULT", "USLT"}, {"TCM", "TCOM"}, {"TPA", "TPOS"},
+			{"TRK", "TRCK"}};
+		FieldKey[] fieldKeys = {ARTIST, ARTIST_SORT, ALBUM_ARTIST, ALBUM_ARTIST_SORT,
+				ALBUM, TITLE, YEAR, YEAR, GENRE, LYRICS, COMPOSER, DISC_NO, TRACK};
+		for (int i = 0; i < frames.length; i++) {
+			for (String frame : frames[i]) {
+				if (frame != null) {
+					ID3_FRAMES.put(frame, fieldKeys[i]);
+				}
+			}
+		}
+
+		String[] fields = {"ARTIST", "ARTISTSORT", "ALBUMARTIST", "ALBUMARTISTSORT",
+				"ALBUM", "TITLE", "DATE", "GENRE", "LYRICS", "COMPOSER",
+				"DISCNUMBER", "DISCTOTAL", "TRACKNUMBER", "TRACKTOTAL"};
+		fieldKeys = new FieldKey[]{ARTIST, ARTIST_SORT, ALBUM_ARTIST, ALBUM_ARTIST_SORT,
+				ALBUM, TITLE, YEAR, GENRE, LYRICS, COMPOSER,
+				DISC_NO, DISC_TOTAL, TRACK, TRACK_TOTAL};
+		for (int i = 0; i < fields.length; i++) {
+			VORBIS_FIELDS.put(fields[i], fieldKeys[i]);
+		}
+	}
+
+	/*
+	 * Returns null if the file should be read by JAudioTagger instead.
+	 */
+	public HeaderTag read(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), READ)) {
+			HeaderTag tag = new HeaderTag();
+			ByteBuffer start = read(tag, channel, 0, 10);
+			if (start == null) {
+				return null;
+			} else if (matches(start, 0, "ID3")) {
+				return readMp3(tag, channel, start);
+			} else if (matches(start, 0, "fLaC")) {
+				return readFlac(tag, channel);
+			}
+			return null;
+		}
+	}
+
+	private HeaderTag readMp3(HeaderTag tag, FileChannel channel, ByteBuffer header) throws IOException {
+		int version = header.get(3);
+		int flags = header.get(5) & 0xff;
+		int tagSize = toSyncSafe(header.getInt(6));
+		// unsynchronisation, extended header (v2.3/v2.4) or compression (v2.2)
+		if (version < 2 || version > 4 || (flags & 0xc0) != 0 || tagSize < 0) {
+			return null;
+		}
+
+		int frameHeaderSize = version == 2 ? 6 : 10;
+		int idLength = version == 2 ? 3 : 4;
+		long tagEnd = 10 + tagSize;
+		long pos = 10;
+		while (pos + frameHeaderSize <= tagEnd) {
+			ByteBuffer frameHeader = read(tag, channel, pos, frameHeaderSize);
+			if (frameHeader == null) {
+				return null;
+			}
+			if (frameHeader.get(0) == 0) {
+				break; // padding
+			}
+			String id = toFrameId(frameHeader, idLength);
+			int size = version == 2 ? toInt24(frameHeader, 3) :
+				version == 3 ? frameHeader.getInt(4) : toSyncSafe(frameHeader.getInt(4));
+			if (id == null || size < 0 || pos + frameHeaderSize + size > tagEnd) {
+				return null;
+			}
+			FieldKey fieldKey = ID3_FRAMES.get(id);
+			if (fieldKey == YEAR && !id.equals(version == 4 ? "TDRC" : version == 3 ? "TYER" : "TYE")) {
+				fieldKey = null; // JAudioTagger reads the year frame of the tag version only
+			}
+			if (contains(ID3_ARTWORK, id)) {
+				tag.setArtwork(true);
+			} else if (fieldKey != null) {
+				int formatFlags = version == 2 ? 0 : frameHeader.get(9) & 0xff;
+				// compression/encryption/grouping, and unsynchronisation/data length (v2.4)
+				if ((formatFlags & (version == 3 ? 0xe0 : 0x4f)) != 0 || size > MAX_BODY_SIZE) {
+					return null;
+				}
+				ByteBuffer body = read(tag, channel, pos + frameHeaderSize, size);
+				String value = body == null || size == 0 ? null :
+					contains(ID3_LYRICS, id) ? toLyrics(body) : toText(body, 1, body.get(0));
+				setId3Field(tag, fieldKey, value);
+			}
+			pos += frameHeaderSize + size;
+		}
+
+		if (version == 4 && (flags & 0x10) != 0) {
+			tagEnd += 10; // footer
+		}
+		return readMpegFrame(channel, tagEnd, tag) ? tag : null;
+	}
+
+	/*
+	 * Track and disc number frames are stored as x or x/y.
+	 */
+	private void setId3Field(HeaderTag tag, FieldKey fieldKey, String value) {
+		if (value != null && (fieldKey == TRACK || fieldKey == DISC_NO)) {
+			int slash = value.indexOf('/');
+			if (slash != -1) {
+				tag.setField(fieldKey == TRACK ? TRACK_TOTAL : DISC_TOTAL, value.substring(slash + 1));
+				value = value.substring(0, slash);
+			}
+		}
+		tag.setField(fieldKey, value);
+	}
+
+	/*
+	 * Reads the audio properties from the first MPEG layer III frame, which
+	 * is expected to start right after the ID3v2 tag.
+	 */
+	private boolean readMpegFrame(FileChannel channel, long start, HeaderTag tag) throws IOException {
+		ByteBuffer frame = read(tag, channel, start, 4 + 32 + 2 + 16);
+		if (frame == null) {
+			return false;
+		}
+		int header = frame.getInt(0);
+		int version = (header >>> 19) & 3; // 0 = 2.5, 2 = 2, 3 = 1
+		int layer = (header >>> 17) & 3;
+		boolean crc = ((header >>> 16) & 1) == 0;
+		int bitrateIndex = (header >>> 12) & 15;
+		int sampleRateIndex = (header >>> 10) & 3;
+		int padding = (header >>> 9) & 1;
+		boolean mono = ((header >>> 6) & 3) == 3;
+		if ((header >>> 21) != 0x7ff || version == 1 || layer != 1
+				|| bitrateIndex == 0 || bitrateIndex == 15 || sampleRateIndex == 3) {
+			return false;
+		}
+		boolean mpeg1 = version == 3;
+		int bitrate = (mpeg1 ? MPEG1_BITRATES : MPEG2_BITRATES)[bitrateIndex];
+		int sampleRate = MPEG1_SAMPLE_RATES[sampleRateIndex] / (mpeg1 ? 1 : version == 2 ? 2 : 4);
+		double secondsPerFrame = (mpeg1 ? 1152.0 : 576.0) / sampleRate;
+
+		int sideInfo = mpeg1 ? (mono ? 17 : 32) : (mono ? 9 : 17);
+		int xing = 4 + sideInfo + (crc ? 2 : 0);
+		if (matches(frame, 4 + 32, "VBRI")) {
+			return false;
+		} else if (matches(frame, xing, "Xing") || matches(frame, xing, "Info")) {
+			int xingFlags = frame.getInt(xing + 4);
+			if ((xingFlags & 3) != 3) {
+				return false; // number of frames or bytes missing
+			}
+			long frames = frame.getInt(xing + 8) & 0xffffffffL;
+			long bytes = frame.getInt(xing + 12) & 0xffffffffL;
+			double length = frames * secondsPerFrame;
+			if (length <= 0) {
+				return false;
+			}
+			boolean vbr = matches(frame, xing, "Xing");
+			tag.setVbr(vbr);
+			tag.setBitrate(vbr ? (int) (bytes * 8 / (length * 1000)) : bitrate);
+			tag.setDuration((int) length);
+		} else {
+			// constant bitrate, make sure that the next frame is where it should be.
+			int frameLength = (mpeg1 ? 144 : 72) * bitrate * 1000 / sampleRate + padding;
+			ByteBuffer next = read(tag, channel, start + frameLength, 4);
+			if (next == null || ((next.getInt(0) ^ header) & 0xfffe0c00) != 0) {
+				return false;
+			}
+			long frames = (channel.size() - start) / frameLength;
+			tag.setVbr(false);
+			tag.setBitrate(bitrate);
+			tag.setDuration((int) (frames * secondsPerFrame));
+		}
+		return true;
+	}
+
+	private HeaderTag readFlac(HeaderTag tag, FileChannel channel) throws IOException {
+		boolean streamInfo = false, vorbisComment = false, last = false;
+		long sampleRate = 0, samples = 0;
+		long pos = 4;
+		while (!last) {
+			ByteBuffer blockHeader = read(tag, channel, pos, 4);
+			if (blockHeader == null) {
+				return null;
+			}
+			last = (blockHeader.get(0) & 0x80) != 0;
+			int type = blockHeader.get(0) & 0x7f;
+			int size = toInt24(blockHeader, 1);
+			if (type == FLAC_STREAMINFO) {
+				ByteBuffer body = read(tag, channel, pos + 4, 18);
+				if (body == null) {
+					return null;
+				}
+				sampleRate = (body.getInt(10) >>> 12) & 0xfffff;
+				samples = body.getLong(10) & 0xfffffffffL;
+				streamInfo = sampleRate > 0;
+			} else if (type == FLAC_VORBIS_COMMENT) {
+				ByteBuffer body = size > MAX_BODY_SIZE ? null : read(tag, channel, pos + 4, size);
+				if (body == null || !readVorbisComment(body, tag)) {
+					return null;
+				}
+				vorbisComment = true;
+			} else if (type == FLAC_PICTURE) {
+				tag.setArtwork(true);
+			} else if (type == 127) {
+				return null;
+			}
+			pos += 4 + size;
+		}
+		if (!streamInfo || !vorbisComment) {
+			return null;
+		}
+
+		double length = (double) samples / sampleRate;
+		tag.setVbr(true);
+		tag.setBitrate(length <= 0 ? 0 : (int) ((channel.size() - pos) / 1000 * 8 / length));
+		tag.setDuration((int) length);
+		return tag;
+	}
+
+	private boolean readVorbisComment(ByteBuffer body, HeaderTag tag) {
+		body.order(ByteOrder.LITTLE_ENDIAN);
+		String albumArtist = null;
+		try {
+			int vendorLength = body.getInt();
+			body.position(body.position() + vendorLength);
+			for (int i = body.getInt(); i > 0; i--) {
+				int length = body.getInt();
+				if (length < 0 || length > body.remaining()) {
+					return false;
+				}
+				String comment = new String(body.array(), body.arrayOffset() + body.position(), length, UTF_8);
+				body.position(body.position() + length);
+				int separator = comment.indexOf('=');
+				if (separator == -1) {
+					continue;
+				}
+				String field = comment.substring(0, separator).toUpperCase();
+				String value = comment.substring(separator + 1);
+				if (VORBIS_ALBUM_ARTIST.equals(field)) {
+					if (albumArtist == null) {
+						albumArtist = value;
+					}
+				} else if (VORBIS_FIELDS.containsKey(field)) {
+					tag.setField(VORBIS_FIELDS.get(field), value);
+				}
+			}
+		} catch (RuntimeException e) {
+			return false; // BufferUnderflowException, IllegalArgumentException
+		}
+		// some older versions of Foobar and JRiver uses Album Artist (with a space)
+		tag.setField(ALBUM_ARTIST, albumArtist);
+		return true;
+	}
+
+	/*
+	 * USLT/ULT: encoding, language, content descriptor, lyrics.
+	 */
+	private String toLyrics(ByteBuffer body) {
+		byte encoding = body.get(0);
+		int descriptorEnd = indexOfTerminator(body, 4, encoding);
+		if (descriptorEnd == -1) {
+			return null;
+		}
+		return toText(body, descriptorEnd + (isUTF16(encoding) ? 2 : 1), encoding);
+	}
+
+	/*
+	 * Decodes text from offset, up to the first terminator.
+	 */
+	private String toText(ByteBuffer body, int offset, byte encoding) {
+		Charset charset = encoding == 0 ? ISO_8859_1 : encoding == 1 ? UTF_16 :
+			encoding == 2 ? UTF_16BE : encoding == 3 ? UTF_8 : null;
+		if (charset == null || offset > body.limit()) {
+			return null;
+		}
+		int end = indexOfTerminator(body, offset, encoding);
+		return new String(body.array(), body.arrayOffset() + offset,
+				(end == -1 ? body.limit() : end) - offset, charset);
+	}
+
+	private int indexOfTerminator(ByteBuffer body, int offset, byte encoding) {
+		int step = isUTF16(encoding) ? 2 : 1;
+		for (int i = offset; i + step <= body.limit(); i += step) {
+			if (body.get(i) == 0 && body.get(i + step - 1) == 0) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private boolean isUTF16(byte encoding) {
+		return encoding == 1 || encoding == 2;
+	}
+
+	private String toFrameId(ByteBuffer frameHeader, int length) {
+		char[] id = new char[length];
+		for (int i = 0; i < length; i++) {
+			id[i] = (char) frameHeader.get(i);
+			if (!((id[i] >= 'A' && id[i] <= 'Z') || (id[i] >= '0' && id[i] <= '9'))) {
+				return null;
+			}
+		}
+		return new String(id);
+	}
+
+	private int toSyncSafe(int value) {
+		if ((value & 0x80808080) != 0) {
+			return -1;
+		}
+		return (value & 0x7f) | ((value >> 1) & 0x3f80) | ((value >> 2) & 0x1fc000) | ((value >> 3) & 0xfe00000);
+	}
+
+	private int toInt24(ByteBuffer buffer, int offset) {
+		return ((buffer.get(offset) & 0xff) << 16) | ((buffer.get(offset + 1) & 0xff) << 8)
+				| (buffer.get(offset + 2) & 0xff);
+	}
+
+	private boolean matches(ByteBuffer buffer, int offset, String magic) {
+		if (offset + magic.length() > buffer.limit()) {
+			return false;
+		}
+		for (int i = 0; i < magic.length(); i++) {
+			if (buffer.get(offset + i) != magic.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean contains(String[] values, String value) {
+		for (String v : values) {
+			if (v.equals(value)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/*
+	 * Returns length bytes from position, or null if the file ends before that.
+	 * The bytes are counted as read for given tag.
+	 */
+	private ByteBuffer read(HeaderTag tag, FileChannel channel, long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) == -1) {
+				return null;
+			}
+		}
+		tag.addBytesRead(length);
+		buffer.flip();
+		return buffer;
+	}
+
+}
@@ -10,6 +10,7 @@ import java.nio.file.attribute.BasicFileAttributes;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.joda.time.DateTime;
 import org.springframework.integration.core.PollableChannel;
 import org.springframework.integration.message.GenericMessage;
 
@@ -25,32 +26,66 @@ public class LibraryScanner extends SimpleFileVisitor<Path> {
 	
 	private PollableChannel libraryPresenceChannel;
 	
+	// modification time per directory path, as stored at last scan
+	private Map<String, DateTime> directoryModifications;
+	
+	// if true, files of directories with unchanged modification time aren't reported
+	private boolean skipUnchanged;
+	
+	// limits rate of directory entries read, in background mode
+	private ScanThrottle scanThrottle = new ScanThrottle();
+	
     public LibraryScanner(PollableChannel libraryPresenceChannel) {
+		this(libraryPresenceChannel, new HashMap<String, DateTime>(), false);
+	}
+
+    public LibraryScanner(PollableChannel libraryPresenceChannel,
+    		Map<String, DateTime> directoryModifications, boolean skipUnchanged) {
 		this.libraryPresenceChannel = libraryPresenceChannel;
+		this.directoryModifications = directoryModifications;
+		this.skipUnchanged = skipUnchanged;
 	}
 
 	@Override
     public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+    	scanThrottle.acquire(1, 0);
     	DirectoryContent parentContent = map.get(dir.getParent());
     	if (parentContent != null) {
     		parentContent.getSubDirectories().add(dir.toString());
     	}
-    	map.put(dir, new DirectoryContent(dir.toString()));
+    	DirectoryContent content = new DirectoryContent(dir.toString());
+    	DateTime modified = new DateTime(attrs.lastModifiedTime().toMillis());
+    	content.setModified(modified);
+    	content.setUnchanged(modified.equals(directoryModifications.get(dir.toString())));
+    	map.put(dir, content);
     	
     	return CONTINUE;
     }
 	
     @Override
     public FileVisitResult visitFile(Path file, BasicFileAttributes attr) {
+    	scanThrottle.acquire(1, 0);
     	DirectoryContent directoryContent = map.get(file.getParent());
+    	if (skipUnchanged && directoryContent.isUnchanged()) {
+    		return CONTINUE;
+    	}
+    	if (attr.isDirectory()) {
+    		// only happens when walking with a max depth, where directories aren't entered
+    		directoryContent.getSubDirectories().add(file.toString());
+    		return CONTINUE;
+    	}
     	if (attr.size() > Integer.MAX_VALUE) {
     		LOG.warn(file.getFileName() + " has actual file size " + attr.size());
     	}
-    	directoryContent.getFiles().add(new File(file, attr));
+    	directoryContent.getFiles().add(new File(directoryContent.getDirectory(), file, attr));
     	
     	return CONTINUE;
     }
     
+    public void setScanThrottle(ScanThrottle scanThrottle) {
+    	this.scanThrottle = scanThrottle;
+    }
+
     @Override
     public FileVisitResult visitFileFailed(Path file, IOException e) {
     	LOG.warn("Visiting " + file + " failed!", e);
@@ -61,7 +96,9 @@ public class LibraryScanner extends SimpleFileVisitor<Path> {
     public FileVisitResult postVisitDirectory(Path dir, IOException e) {
     	DirectoryContent content = map.get(dir);
     	
-    	libraryPresenceChannel.send(new GenericMessage<DirectoryContent>(content));
+    	if (!(skipUnchanged && content.isUnchanged())) {
+    		libraryPresenceChannel.send(new GenericMessage<DirectoryContent>(content));
+    	}
     	
     	map.remove(dir);
     	
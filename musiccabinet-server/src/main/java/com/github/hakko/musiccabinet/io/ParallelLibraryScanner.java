@@ -0,0 +1,184 @@
+package com.github.hakko.musiccabinet.io;
+
+import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+import org.joda.time.DateTime;
+import org.springframework.integration.core.PollableChannel;
+import org.springframework.integration.message.GenericMessage;
+
+import com.github.hakko.musiccabinet.domain.model.aggr.DirectoryContent;
+import com.github.hakko.musiccabinet.domain.model.library.File;
+import com.github.hakko.musiccabinet.log.Logger;
+
+/*
+ * Work-stealing alternative to LibraryScanner.
+ *
+ * Each directory is listed by a fork/join task, which forks one task per
+ * subdirectory found. A DirectoryContent is sent to libraryPresenceChannel
+ * once all subdirectories have been visited, which gives the same post-order
+ * as Files.walkFileTree(new LibraryScanner(...)).
+ *
+ * Root paths are grouped by the FileStore (disk, mount) they reside on, and
+ * each FileStore gets a pool of its own. That way a slow network mount won't
+ * starve the walk of a local disk, and parallelism can be set per device.
+ *
+ * Every directory entry read is charged to scanThrottle, which limits the
+ * rate of reads if the scan runs in background mode.
+ *
+ * Directories whose modification time equals the one stored at last scan are
+ * walked for subdirectories only, and not reported, if skipUnchanged is set.
+ */
+public class ParallelLibraryScanner {
+
+	private static final Logger LOG = Logger.getLogger(ParallelLibraryScanner.class);
+
+	private PollableChannel libraryPresenceChannel;
+
+	private int parallelism;
+
+	private Map<String, DateTime> directoryModifications;
+
+	private boolean skipUnchanged;
+
+	private ScanThrottle scanThrottle = new ScanThrottle();
+
+	public ParallelLibraryScanner(PollableChannel libraryPresenceChannel, int parallelism) {
+		this(libraryPresenceChannel, parallelism, new HashMap<String, DateTime>(), false);
+	}
+
+	public ParallelLibraryScanner(PollableChannel libraryPresenceChannel, int parallelism,
+			Map<String, DateTime> directoryModifications, boolean skipUnchanged) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Parallelism must be positive, was " + parallelism);
+		}
+		this.libraryPresenceChannel = libraryPresenceChannel;
+		this.parallelism = parallelism;
+		this.directoryModifications = directoryModifications;
+		this.skipUnchanged = skipUnchanged;
+	}
+
+	public void scan(Set<String> rootPaths) throws IOException, InterruptedException {
+		Map<FileStore, List<Path>> rootsPerStore = new HashMap<>();
+		for (String rootPath : rootPaths) {
+			Path root = Paths.get(rootPath);
+			FileStore fileStore = Files.getFileStore(root);
+			if (!rootsPerStore.containsKey(fileStore)) {
+				rootsPerStore.put(fileStore, new ArrayList<Path>());
+			}
+			rootsPerStore.get(fileStore).add(root);
+		}
+
+		List<ForkJoinPool> pools = new ArrayList<>();
+		List<ForkJoinTask<Boolean>> tasks = new ArrayList<>();
+		for (List<Path> roots : rootsPerStore.values()) {
+			ForkJoinPool pool = new ForkJoinPool(parallelism);
+			pools.add(pool);
+			for (Path root : roots) {
+				BasicFileAttributes attr = Files.readAttributes(root, BasicFileAttributes.class);
+				tasks.add(pool.submit(new DirectoryTask(root, attr)));
+			}
+		}
+
+		try {
+			for (ForkJoinTask<Boolean> task : tasks) {
+				task.get();
+			}
+		} catch (ExecutionException e) {
+			throw new IOException("Directory walk failed!", e.getCause());
+		} finally {
+			for (ForkJoinPool pool : pools) {
+				pool.shutdownNow();
+			}
+		}
+	}
+
+	public void setScanThrottle(ScanThrottle scanThrottle) {
+		this.scanThrottle = scanThrottle;
+	}
+
+	/*
+	 * Lists a single directory, forks a task per subdirectory and sends the
+	 * directory content once all of them have finished.
+	 *
+	 * Returns false if the directory couldn't be read, in which case the
+	 * parent directory doesn't list it as a subdirectory (matching how
+	 * walkFileTree reports it to visitFileFailed rather than preVisitDirectory).
+	 */
+	private class DirectoryTask extends RecursiveTask<Boolean> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Path dir;
+		private final BasicFileAttributes dirAttr;
+
+		private DirectoryTask(Path dir, BasicFileAttributes dirAttr) {
+			this.dir = dir;
+			this.dirAttr = dirAttr;
+		}
+
+		@Override
+		protected Boolean compute() {
+			DirectoryContent content = new DirectoryContent(dir.toString());
+			DateTime modified = new DateTime(dirAttr.lastModifiedTime().toMillis());
+			content.setModified(modified);
+			content.setUnchanged(modified.equals(directoryModifications.get(dir.toString())));
+			boolean skipFiles = skipUnchanged && content.isUnchanged();
+			List<DirectoryTask> subTasks = new ArrayList<>();
+
+			try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+				for (Path path : stream) {
+					scanThrottle.acquire(1, 0);
+					try {
+						BasicFileAttributes attr = Files.readAttributes(
+								path, BasicFileAttributes.class, NOFOLLOW_LINKS);
+						if (attr.isDirectory()) {
+							subTasks.add(new DirectoryTask(path, attr));
+						} else if (!skipFiles) {
+							if (attr.size() > Integer.MAX_VALUE) {
+								LOG.warn(path.getFileName() + " has actual file size " + attr.size());
+							}
+							content.getFiles().add(new File(content.getDirectory(), path, attr));
+						}
+					} catch (IOException e) {
+						LOG.warn("Visiting " + path + " failed!", e);
+					}
+				}
+			} catch (IOException e) {
+				LOG.warn("Visiting " + dir + " failed!", e);
+				return false;
+			}
+
+			invokeAll(subTasks);
+			for (DirectoryTask subTask : subTasks) {
+				if (subTask.join()) {
+					content.getSubDirectories().add(subTask.dir.toString());
+				}
+			}
+
+			if (!skipFiles) {
+				libraryPresenceChannel.send(new GenericMessage<DirectoryContent>(content));
+			}
+
+			return true;
+		}
+
+	}
+
+}
@@ -0,0 +1,130 @@
+package com.github.hakko.musiccabinet.io;
+
+import java.util.concurrent.TimeUnit;
+
+import com.github.hakko.musiccabinet.log.Logger;
+
+/*
+ * Limits the rate of disk reads done by a library scan in background mode,
+ * to leave disk capacity for users streaming music meanwhile.
+ *
+ * The read budget is given in files per second and bytes per second (0 = no
+ * limit), and is shared by all threads of a scan. The directory walk charges
+ * every directory entry it lists as a file. Meta data reads charge every file
+ * as a file plus the bytes read by HeaderTagReader, or its full size if read
+ * by JAudioTagger, which doesn't tell how much of a file it actually read.
+ *
+ * Foreground latency, as reported by whoever serves users, makes the budget
+ * shrink (by halves, down to 1/32) while it's above latencyThresholdMillis,
+ * and grow back once it's below. If no latency has been reported for a while,
+ * the full budget is restored.
+ *
+ * Outside background mode (inactive), acquire() returns immediately.
+ */
+public class ScanThrottle {
+
+	private int filesPerSecond = 0;
+	private long bytesPerSecond = 0;
+	private long latencyThresholdMillis = 0;
+
+	private volatile boolean active = false;
+
+	// time when the budget spent so far is paid off
+	private long nextNanos;
+
+	private int slowdown = 1;
+	private long latencyMillis = -1;
+	private long latestReportNanos;
+
+	private static final int MAX_SLOWDOWN = 32;
+
+	// latency reports older than this don't slow down scanning anymore
+	private static final long LATENCY_REPORT_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+	private static final Logger LOG = Logger.getLogger(ScanThrottle.class);
+
+	/*
+	 * Waits until the budget allows more reads, and charges given number
+	 * of files and bytes to it.
+	 */
+	public void acquire(int files, long bytes) {
+		if (!active) {
+			return;
+		}
+		long waitNanos = reserve(files, bytes);
+		if (waitNanos > 0) {
+			try {
+				TimeUnit.NANOSECONDS.sleep(waitNanos);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private synchronized long reserve(int files, long bytes) {
+		long now = System.nanoTime();
+		if (slowdown > 1 && now - latestReportNanos > LATENCY_REPORT_NANOS) {
+			LOG.debug("No recent foreground latency, scanning at full budget.");
+			slowdown = 1;
+			latencyMillis = -1;
+		}
+		double seconds = 0;
+		if (filesPerSecond > 0) {
+			seconds = Math.max(seconds, (double) files / filesPerSecond);
+		}
+		if (bytesPerSecond > 0) {
+			seconds = Math.max(seconds, (double) bytes / bytesPerSecond);
+		}
+		long start = Math.max(now, nextNanos);
+		nextNanos = start + (long) (seconds * slowdown * TimeUnit.SECONDS.toNanos(1));
+		return start - now;
+	}
+
+	/*
+	 * Called with the time it took to serve a user (like the time to first
+	 * byte of a stream), while a background scan might be running.
+	 */
+	public synchronized void reportForegroundLatency(long millis) {
+		if (latencyThresholdMillis <= 0) {
+			return;
+		}
+		latestReportNanos = System.nanoTime();
+		latencyMillis = latencyMillis < 0 ? millis : (7 * latencyMillis + millis) / 8;
+		int previousSlowdown = slowdown;
+		if (latencyMillis > latencyThresholdMillis) {
+			slowdown = Math.min(MAX_SLOWDOWN, slowdown * 2);
+		} else if (slowdown > 1) {
+			slowdown /= 2;
+		}
+		if (slowdown != previousSlowdown) {
+			LOG.debug("Foreground latency " + latencyMillis + " ms, scanning at 1/"
+					+ slowdown + " of budget.");
+		}
+	}
+
+	public boolean isActive() {
+		return active;
+	}
+
+	public synchronized void setActive(boolean active) {
+		this.active = active;
+		this.nextNanos = System.nanoTime();
+	}
+
+	public synchronized int getSlowdown() {
+		return slowdown;
+	}
+
+	public void setFilesPerSecond(int filesPerSecond) {
+		this.filesPerSecond = filesPerSecond;
+	}
+
+	public void setBytesPerSecond(long bytesPerSecond) {
+		this.bytesPerSecond = bytesPerSecond;
+	}
+
+	public void setLatencyThresholdMillis(long latencyThresholdMillis) {
+		this.latencyThresholdMillis = latencyThresholdMillis;
+	}
+
+}
@@ -52,6 +52,9 @@ public class LibraryUpdateService {
     
     private boolean isIndexBeingCreated = false;
     
+    // host looked up to tell whether we're online, before calling last.fm
+    private String connectionCheckHost = "last.fm";
+    
 	private static final Logger LOG = Logger.getLogger(LibraryUpdateService.class);
 
 	public boolean isIndexCreated() {
@@ -116,7 +119,7 @@ public class LibraryUpdateService {
     private boolean canConnectToLastFm() {
     	for (int i = 0; i < 20; i++) {
     		LOG.debug("Check if last.fm can be looked up...");
-    		InetSocketAddress isa = new InetSocketAddress("last.fm", 80);
+    		InetSocketAddress isa = new InetSocketAddress(connectionCheckHost, 80);
     		if (isa.isUnresolved()) {
     			LOG.debug("Failed, sleep and try again.");
     			try {
@@ -231,5 +234,9 @@ public class LibraryUpdateService {
 	public void setSearchIndexUpdateSettingsService(SearchIndexUpdateSettingsService settingsService) {
 		this.settingsService = settingsService;
 	}
+
+	public void setConnectionCheckHost(String connectionCheckHost) {
+		this.connectionCheckHost = connectionCheckHost;
+	}
 	
 }
\ No newline at end of file
@@ -1,10 +1,13 @@
 package com.github.hakko.musiccabinet.service.lastfm;
 
 import static com.github.hakko.musiccabinet.domain.model.library.WebserviceInvocation.Calltype.ARTIST_GET_INFO;
+import static com.github.hakko.musiccabinet.service.lastfm.ThrottleService.Priority.NEW;
+import static com.github.hakko.musiccabinet.service.lastfm.ThrottleService.Priority.REFRESH;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
 
 import com.github.hakko.musiccabinet.dao.ArtistInfoDao;
 import com.github.hakko.musiccabinet.domain.model.music.Artist;
@@ -16,6 +19,7 @@ import com.github.hakko.musiccabinet.parser.lastfm.ArtistInfoParserImpl;
 import com.github.hakko.musiccabinet.util.StringUtil;
 import com.github.hakko.musiccabinet.ws.lastfm.ArtistInfoClient;
 import com.github.hakko.musiccabinet.ws.lastfm.WSResponse;
+import com.github.hakko.musiccabinet.ws.lastfm.WSResponseCallback;
 
 /*
  * Provides services related to updating/getting info for artists.
@@ -49,42 +53,95 @@ public class ArtistInfoService extends SearchIndexUpdateService {
 		artistInfoDao.setBioSummary(artistId, biosummary);
 	}
 	
+	/*
+	 * Artist info is fetched asynchronously, so that a number of calls can be
+	 * pending at once. Responses are parsed as they arrive, and stored in
+	 * batches by the updating thread.
+	 */
 	@Override
 	protected void updateSearchIndex() throws ApplicationException {
 		Set<String> artistNames = webserviceHistoryService.
 				getArtistNamesScheduledForUpdate(ARTIST_GET_INFO);
+		Set<String> newArtistNames = webserviceHistoryService.
+				getArtistNamesWithNoInvocations(ARTIST_GET_INFO);
 		
-		List<ArtistInfo> artistInfos = new ArrayList<>(artistNames.size());
+		final List<ArtistInfo> artistInfos = new ArrayList<>(BATCH_SIZE);
+		final CountDownLatch pendingCalls = new CountDownLatch(artistNames.size());
 		setTotalOperations(artistNames.size());
+		String lang = lastFmSettingsService.getLang();
 		
-		for (String artistName : artistNames) {
+		for (final String artistName : artistNames) {
 			try {
-				WSResponse wsResponse = artistInfoClient.getArtistInfo(
-						new Artist(artistName), lastFmSettingsService.getLang());
-				if (wsResponse.wasCallAllowed() && wsResponse.wasCallSuccessful()) {
-					StringUtil stringUtil = new StringUtil(wsResponse.getResponseBody());
-					ArtistInfoParser aiParser = 
-						new ArtistInfoParserImpl(stringUtil.getInputStream());
-					if (aiParser.getArtistInfo() != null) {
-						artistInfos.add(aiParser.getArtistInfo());
-					} else {
-						LOG.warn("Artist info response for " + artistName 
-								+ " not parsed correctly. Response was " 
-								+ wsResponse.getResponseBody());
+				ThrottleService.setCallPriority(newArtistNames.contains(artistName) ? NEW : REFRESH);
+				artistInfoClient.getArtistInfo(new Artist(artistName), lang, new WSResponseCallback() {
+					@Override
+					public void completed(WSResponse wsResponse) {
+						try {
+							addArtistInfo(artistName, wsResponse, artistInfos);
+						} catch (ApplicationException e) {
+							LOG.warn("Fetching artist info for " + artistName + " failed.", e);
+						} finally {
+							callFinished(pendingCalls);
+						}
 					}
-					
-					if (artistInfos.size() == BATCH_SIZE) {
-						artistInfoDao.createArtistInfo(artistInfos);
-						artistInfos.clear();
+
+					@Override
+					public void failed(Throwable t) {
+						LOG.warn("Fetching artist info for " + artistName + " failed.", t);
+						callFinished(pendingCalls);
 					}
-				}
+				});
 			} catch (ApplicationException e) {
 				LOG.warn("Fetching artist info for " + artistName + " failed.", e);
+				callFinished(pendingCalls);
+			}
+			createArtistInfo(artistInfos, BATCH_SIZE);
+		}
+
+		try {
+			pendingCalls.await();
+		} catch (InterruptedException e) {
+			LOG.warn("Interrupted while waiting for artist info!", e);
+		}
+		createArtistInfo(artistInfos, 0);
+	}
+
+	private void addArtistInfo(String artistName, WSResponse wsResponse, 
+			List<ArtistInfo> artistInfos) throws ApplicationException {
+		if (wsResponse.wasCallAllowed() && wsResponse.wasCallSuccessful()) {
+			StringUtil stringUtil = new StringUtil(wsResponse.getResponseBody());
+			ArtistInfoParser aiParser = 
+				new ArtistInfoParserImpl(stringUtil.getInputStream());
+			if (aiParser.getArtistInfo() != null) {
+				synchronized (artistInfos) {
+					artistInfos.add(aiParser.getArtistInfo());
+				}
+			} else {
+				LOG.warn("Artist info response for " + artistName 
+						+ " not parsed correctly. Response was " 
+						+ wsResponse.getResponseBody());
 			}
-			addFinishedOperation();
 		}
+	}
 
-		artistInfoDao.createArtistInfo(artistInfos);
+	private void callFinished(CountDownLatch pendingCalls) {
+		addFinishedOperation();
+		pendingCalls.countDown();
+	}
+
+	/*
+	 * Stores parsed artist info, if there's at least minSize of them.
+	 */
+	private void createArtistInfo(List<ArtistInfo> artistInfos, int minSize) {
+		List<ArtistInfo> batch;
+		synchronized (artistInfos) {
+			if (artistInfos.size() < minSize) {
+				return;
+			}
+			batch = new ArrayList<>(artistInfos);
+			artistInfos.clear();
+		}
+		artistInfoDao.createArtistInfo(batch);
 	}
 
 	@Override
@@ -1,6 +1,8 @@
 package com.github.hakko.musiccabinet.service.lastfm;
 
 import static com.github.hakko.musiccabinet.domain.model.library.WebserviceInvocation.Calltype.ARTIST_GET_TOP_TAGS;
+import static com.github.hakko.musiccabinet.service.lastfm.ThrottleService.Priority.NEW;
+import static com.github.hakko.musiccabinet.service.lastfm.ThrottleService.Priority.REFRESH;
 
 import java.util.Iterator;
 import java.util.List;
@@ -36,11 +38,14 @@ public class ArtistTopTagsService extends SearchIndexUpdateService {
 	protected void updateSearchIndex() throws ApplicationException {
 		Set<String> artistNames = webserviceHistoryService.
 				getArtistNamesScheduledForUpdate(ARTIST_GET_TOP_TAGS);
+		Set<String> newArtistNames = webserviceHistoryService.
+				getArtistNamesWithNoInvocations(ARTIST_GET_TOP_TAGS);
 		
 		setTotalOperations(artistNames.size());
 		
 		for (String artistName : artistNames) {
 			try {
+				ThrottleService.setCallPriority(newArtistNames.contains(artistName) ? NEW : REFRESH);
 				WSResponse wsResponse = artistTopTagsClient.getTopTags(new Artist(artistName));
 				if (wsResponse.wasCallAllowed() && wsResponse.wasCallSuccessful()) {
 					StringUtil stringUtil = new StringUtil(wsResponse.getResponseBody());
@@ -1,6 +1,8 @@
 package com.github.hakko.musiccabinet.service.lastfm;
 
 import static com.github.hakko.musiccabinet.domain.model.library.WebserviceInvocation.Calltype.ARTIST_GET_TOP_TRACKS;
+import static com.github.hakko.musiccabinet.service.lastfm.ThrottleService.Priority.NEW;
+import static com.github.hakko.musiccabinet.service.lastfm.ThrottleService.Priority.REFRESH;
 
 import java.util.List;
 import java.util.Set;
@@ -35,10 +37,13 @@ public class ArtistTopTracksService extends SearchIndexUpdateService {
 	protected void updateSearchIndex() throws ApplicationException {
 		Set<String> artistNames = webserviceHistoryService.
 				getArtistNamesScheduledForUpdate(ARTIST_GET_TOP_TRACKS);
+		Set<String> newArtistNames = webserviceHistoryService.
+				getArtistNamesWithNoInvocations(ARTIST_GET_TOP_TRACKS);
 		setTotalOperations(artistNames.size());
 		
 		for (String artistName : artistNames) {
 			try {
+				ThrottleService.setCallPriority(newArtistNames.contains(artistName) ? NEW : REFRESH);
 				WSResponse wsResponse = artistTopTracksClient.getTopTracks(new Artist(artistName));
 				if (wsResponse.wasCallAllowed() && wsResponse.wasCallSuccessful()) {
 					StringUtil stringUtil = new StringUtil(wsResponse.getResponseBody());
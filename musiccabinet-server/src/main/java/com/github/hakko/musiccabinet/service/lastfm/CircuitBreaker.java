@@ -0,0 +1,150 @@
+package com.github.hakko.musiccabinet.service.lastfm;
+
+import com.github.hakko.musiccabinet.log.Logger;
+
+/*
+ * Circuit breaker shared by all last.fm clients, pausing all calls while
+ * last.fm seems to be down, instead of having every call fail and retry.
+ *
+ * The outcome of the latest windowSize calls is kept. Recoverable errors
+ * (HTTP errors, timeouts, last.fm being busy) count as failures, while
+ * other responses (successful or not) prove that last.fm is up. Once the
+ * failure rate of a full window reaches failureThreshold, the breaker opens
+ * and calls are held back for openMillis.
+ *
+ * After that, a single probe call is let through (half open). If it succeeds,
+ * the breaker closes and calls resume at full rate. If it fails, the breaker
+ * opens again, for twice as long as last time (up to maxOpenMillis).
+ */
+public class CircuitBreaker {
+
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN;
+	}
+
+	private int windowSize = 20;
+	private double failureThreshold = 0.5;
+	private long openMillis = 30 * 1000;
+	private long maxOpenMillis = 10 * 60 * 1000;
+
+	private State state = State.CLOSED;
+
+	// outcome of latest calls, true = failure, oldest at index next
+	private boolean[] outcomes;
+	private int next;
+	private int calls;
+	private int failures;
+
+	private long currentOpenMillis;
+	private long openUntil;
+	private boolean probing;
+
+	private static final Logger LOG = Logger.getLogger(CircuitBreaker.class);
+
+	/*
+	 * Returns 0 if a call may be made now, or else the number of milliseconds
+	 * to wait before asking again.
+	 */
+	public synchronized long acquirePermission() {
+		if (state == State.OPEN) {
+			long now = System.currentTimeMillis();
+			if (now < openUntil) {
+				return openUntil - now;
+			}
+			LOG.info("Probing if last.fm has recovered.");
+			state = State.HALF_OPEN;
+			probing = false;
+		}
+		if (state == State.HALF_OPEN) {
+			if (probing) {
+				return Math.max(1000, currentOpenMillis / 10);
+			}
+			probing = true;
+		}
+		return 0;
+	}
+
+	public synchronized void onSuccess() {
+		if (state == State.HALF_OPEN) {
+			LOG.info("Last.fm has recovered, resuming calls.");
+			state = State.CLOSED;
+			currentOpenMillis = 0;
+			resetWindow();
+		} else {
+			addOutcome(false);
+		}
+	}
+
+	public synchronized void onFailure() {
+		if (state == State.HALF_OPEN) {
+			open(Math.min(maxOpenMillis, currentOpenMillis * 2));
+		} else if (state == State.CLOSED) {
+			addOutcome(true);
+			if (calls == windowSize && failures >= failureThreshold * windowSize) {
+				open(openMillis);
+			}
+		}
+	}
+
+	private void open(long millis) {
+		LOG.warn("Last.fm calls failing, pausing calls for " + millis / 1000 + " seconds.");
+		state = State.OPEN;
+		currentOpenMillis = millis;
+		openUntil = System.currentTimeMillis() + millis;
+		probing = false;
+	}
+
+	private void addOutcome(boolean failure) {
+		if (outcomes == null) {
+			resetWindow();
+		}
+		if (calls == windowSize) {
+			if (outcomes[next]) {
+				failures--;
+			}
+		} else {
+			calls++;
+		}
+		outcomes[next] = failure;
+		if (failure) {
+			failures++;
+		}
+		next = (next + 1) % windowSize;
+	}
+
+	private void resetWindow() {
+		outcomes = new boolean[windowSize];
+		next = calls = failures = 0;
+	}
+
+	public synchronized State getState() {
+		return state;
+	}
+
+	/*
+	 * Failure rate of latest calls, while closed.
+	 */
+	public synchronized double getFailureRate() {
+		return calls == 0 ? 0 : (double) failures / calls;
+	}
+
+	// Spring setters
+
+	public synchronized void setWindowSize(int windowSize) {
+		this.windowSize = windowSize;
+		resetWindow();
+	}
+
+	public void setFailureThreshold(double failureThreshold) {
+		this.failureThreshold = failureThreshold;
+	}
+
+	public void setOpenMillis(long openMillis) {
+		this.openMillis = openMillis;
+	}
+
+	public void setMaxOpenMillis(long maxOpenMillis) {
+		this.maxOpenMillis = maxOpenMillis;
+	}
+
+}
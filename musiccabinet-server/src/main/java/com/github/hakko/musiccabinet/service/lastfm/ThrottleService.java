@@ -1,39 +1,240 @@
 package com.github.hakko.musiccabinet.service.lastfm;
 
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.github.hakko.musiccabinet.log.Logger;
 
 /*
  * ThrottleService is the single point of decision whether last.fm calls
  * are currently allowed.
- * 
+ *
  * The terms of service states that a maximum of five calls per second,
  * averaging over a five minute period is allowed.
- * 
- * To play it safe, we stick to allowing max five calls per second (not
- * adding up for the fluctuation).
- * 
- * TODO : maybe hand out 60 * 5 permits once per minute?
+ *
+ * Calls are handed out by a token bucket, refilled at callsPerSecond and
+ * holding at most burst calls. On top of that, the calls of the latest
+ * windowSeconds are accounted for, so that no window ever holds more than
+ * callsPerSecond * windowSeconds calls, burst or not.
+ *
+ * Calls have a priority: interactive (a user waiting for a page), new
+ * (artists never fetched before) or refresh (of old data). A call is only
+ * handed out when it's allowed right away, and part of the bucket is
+ * reserved for calls of higher priority: interactiveReserve calls can only
+ * be taken by interactive calls, and another newReserve calls only by
+ * interactive or new ones. Background calls thereby never queue up in front
+ * of an interactive call, while any single priority still gets the full
+ * rate when the others are idle.
+ *
+ * Callers that are told to wait just ask again, so there's no scheduler
+ * needed to refill the bucket.
  */
 public class ThrottleService {
 
-	private Semaphore semaphore = new Semaphore(0, true);
+	/*
+	 * Priorities of calls, highest first.
+	 */
+	public enum Priority {
+		INTERACTIVE, NEW, REFRESH;
+	}
+
+	private int callsPerSecond = 5;
+	private int burst = 10;
+	private int windowSeconds = 300;
+	private int interactiveReserve = 4;
+	private int newReserve = 2;
+
+	// GCRA style token bucket: theoretical time of next call, if calls were evenly spaced
+	private long nextNanos;
+
+	// times of latest callsPerSecond * windowSeconds calls, oldest at index head
+	private long[] window;
+	private int head;
 
-	private static final int THRESHOLD = 5;
+	private final AtomicInteger waiting = new AtomicInteger();
+	private long averageWaitNanos;
+	private final long[] averageWaitNanosByPriority = new long[Priority.values().length];
+
+	// priority of calls made by current thread, INTERACTIVE unless set
+	private static final ThreadLocal<Priority> callPriority = new ThreadLocal<>();
 
 	private Logger LOG = Logger.getLogger(ThrottleService.class);
-	
+
+	/*
+	 * Sets priority of calls made by current thread. Threads that don't set
+	 * one (or set it to null) make interactive calls.
+	 */
+	public static void setCallPriority(Priority priority) {
+		if (priority == null) {
+			callPriority.remove();
+		} else {
+			callPriority.set(priority);
+		}
+	}
+
+	public static Priority getCallPriority() {
+		Priority priority = callPriority.get();
+		return priority == null ? Priority.INTERACTIVE : priority;
+	}
+
 	public void awaitAllowance() {
+		awaitAllowance(getCallPriority(), Long.MAX_VALUE);
+	}
+
+	/*
+	 * For interactive callers that rather fail than queue for long. Waits for
+	 * a call to be allowed, unless it's not allowed within maxWaitMillis.
+	 */
+	public boolean awaitAllowance(long maxWaitMillis) {
+		return awaitAllowance(getCallPriority(), maxWaitMillis);
+	}
+
+	public boolean awaitAllowance(Priority priority, long maxWaitMillis) {
+		long since = System.nanoTime();
+		long maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+		long waitNanos = tryAcquireAllowance(priority, since);
+		if (waitNanos <= 0) {
+			return true;
+		}
+		waiting.incrementAndGet();
 		try {
-			semaphore.acquire();
+			do {
+				if (System.nanoTime() - since + waitNanos > maxWaitNanos) {
+					return false;
+				}
+				TimeUnit.NANOSECONDS.sleep(waitNanos);
+			} while ((waitNanos = tryAcquireAllowance(priority, since)) > 0);
+			return true;
 		} catch (InterruptedException e) {
-			LOG.warn("Throttle semaphore acquire interrupted!", e);
+			LOG.warn("Throttle wait interrupted!", e);
+			Thread.currentThread().interrupt();
+			return false;
+		} finally {
+			waiting.decrementAndGet();
 		}
 	}
-	
-	public void allowCalls() {
-		semaphore.release(60 * THRESHOLD - semaphore.availablePermits());
+
+	/*
+	 * For asynchronous callers. Takes a call from the budget and returns 0 if
+	 * a call of given priority is allowed now. Else returns the number of
+	 * nanoseconds to wait before asking again. sinceNanos is the System.nanoTime()
+	 * when the caller first asked, to keep track of average waits.
+	 */
+	public synchronized long tryAcquireAllowance(Priority priority, long sinceNanos) {
+		long now = System.nanoTime();
+		long at = allowedAt(now, priority);
+		if (at > now) {
+			return at - now;
+		}
+		nextNanos = Math.max(nextNanos, now) + intervalNanos();
+		window[head] = now;
+		head = (head + 1) % window.length;
+		averageWaitNanos = (7 * averageWaitNanos + now - sinceNanos) / 8;
+		int p = priority.ordinal();
+		averageWaitNanosByPriority[p] = (7 * averageWaitNanosByPriority[p] + now - sinceNanos) / 8;
+		return 0;
+	}
+
+	private long allowedAt(long now, Priority priority) {
+		if (window == null) {
+			nextNanos = now;
+			window = new long[callsPerSecond * windowSeconds];
+			for (int i = 0; i < window.length; i++) {
+				window[i] = now - TimeUnit.SECONDS.toNanos(windowSeconds);
+			}
+		}
+		long bucketAt = nextNanos - (burst - 1 - getReserve(priority)) * intervalNanos();
+		long windowAt = window[head] + TimeUnit.SECONDS.toNanos(windowSeconds);
+		return Math.max(now, Math.max(bucketAt, windowAt));
+	}
+
+	/*
+	 * Number of calls in the bucket that calls of given priority must leave.
+	 */
+	private int getReserve(Priority priority) {
+		switch (priority) {
+		case INTERACTIVE:
+			return 0;
+		case NEW:
+			return Math.min(interactiveReserve, burst - 1);
+		default:
+			return Math.min(interactiveReserve + newReserve, burst - 1);
+		}
+	}
+
+	private long intervalNanos() {
+		return TimeUnit.SECONDS.toNanos(1) / callsPerSecond;
+	}
+
+	/*
+	 * Average number of calls per second, over the latest window.
+	 */
+	public synchronized double getCurrentRate() {
+		if (window == null) {
+			return 0;
+		}
+		long now = System.nanoTime(), from = now - TimeUnit.SECONDS.toNanos(windowSeconds);
+		int calls = 0;
+		for (long at : window) {
+			if (at > from && at <= now) {
+				calls++;
+			}
+		}
+		return (double) calls / windowSeconds;
+	}
+
+	/*
+	 * Number of callers currently waiting for their call to be allowed.
+	 */
+	public int getQueueLength() {
+		return waiting.get();
+	}
+
+	/*
+	 * Moving average of the time callers waited for their call to be allowed.
+	 */
+	public synchronized long getAverageWaitMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(averageWaitNanos);
+	}
+
+	public synchronized long getAverageWaitMillis(Priority priority) {
+		return TimeUnit.NANOSECONDS.toMillis(averageWaitNanosByPriority[priority.ordinal()]);
+	}
+
+	/*
+	 * Time a caller of current thread's priority arriving now would wait for its call to be allowed.
+	 */
+	public long getWaitMillis() {
+		return getWaitMillis(getCallPriority());
+	}
+
+	public synchronized long getWaitMillis(Priority priority) {
+		long now = System.nanoTime();
+		return TimeUnit.NANOSECONDS.toMillis(allowedAt(now, priority) - now);
+	}
+
+	// Spring setters
+
+	public synchronized void setCallsPerSecond(int callsPerSecond) {
+		this.callsPerSecond = callsPerSecond;
+		this.window = null;
+	}
+
+	public synchronized void setBurst(int burst) {
+		this.burst = burst;
+	}
+
+	public synchronized void setWindowSeconds(int windowSeconds) {
+		this.windowSeconds = windowSeconds;
+		this.window = null;
+	}
+
+	public synchronized void setInteractiveReserve(int interactiveReserve) {
+		this.interactiveReserve = interactiveReserve;
+	}
+
+	public synchronized void setNewReserve(int newReserve) {
+		this.newReserve = newReserve;
 	}
 
-}
\ No newline at end of file
+}
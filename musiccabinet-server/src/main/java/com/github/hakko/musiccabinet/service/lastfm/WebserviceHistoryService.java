@@ -1,5 +1,6 @@
 package com.github.hakko.musiccabinet.service.lastfm;
 
+import java.util.HashSet;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -49,6 +50,14 @@ public class WebserviceHistoryService {
 		return artistNames;
 	}
 
+	/*
+	 * Artists never fetched for given call type. Calls for them are made at a
+	 * higher priority than refreshing data of other artists.
+	 */
+	public Set<String> getArtistNamesWithNoInvocations(WebserviceInvocation.Calltype callType) {
+		return new HashSet<>(historyDao.getArtistNamesWithNoInvocations(callType));
+	}
+
 	public void clearLanguageSpecificInvocations() {
 		historyDao.clearLanguageSpecificWebserviceInvocations();
 	}
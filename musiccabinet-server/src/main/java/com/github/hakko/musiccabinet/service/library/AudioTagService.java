@@ -4,6 +4,7 @@ import static java.util.regex.Pattern.compile;
 import static org.apache.commons.io.FilenameUtils.getExtension;
 import static org.apache.commons.lang.math.NumberUtils.toInt;
 import static org.jaudiotagger.tag.FieldKey.ALBUM;
+import static org.jaudiotagger.tag.FieldKey.ALBUM_ARTIST;
 import static org.jaudiotagger.tag.FieldKey.ALBUM_ARTIST_SORT;
 import static org.jaudiotagger.tag.FieldKey.ARTIST;
 import static org.jaudiotagger.tag.FieldKey.ARTIST_SORT;
@@ -44,8 +45,16 @@ import com.github.hakko.musiccabinet.domain.model.library.File;
 import com.github.hakko.musiccabinet.domain.model.library.MetaData;
 import com.github.hakko.musiccabinet.domain.model.library.MetaData.Mediatype;
 import com.github.hakko.musiccabinet.exception.ApplicationException;
+import com.github.hakko.musiccabinet.io.HeaderTag;
+import com.github.hakko.musiccabinet.io.HeaderTagReader;
 import com.github.hakko.musiccabinet.log.Logger;
 
+/*
+ * Reads meta data of music files. Files are read by HeaderTagReader when
+ * possible, which only reads the tags and audio properties from the start
+ * of the file, and by JAudioTagger otherwise (or always, if useHeaderTagReader
+ * is turned off). Either way, tag fields are normalized the same way.
+ */
 public class AudioTagService {
 
 	private static final Logger LOG = Logger.getLogger(AudioTagService.class);
@@ -58,6 +67,12 @@ public class AudioTagService {
 	private static final Pattern GENRE_PATTERN = compile("\\((\\d+)\\).*");
     private static final Pattern TRACK_NUMBER_PATTERN = compile("(\\d+)/\\d+");
 
+	private static final FieldKey[] TAG_FIELDS = {ARTIST, ARTIST_SORT, ALBUM_ARTIST_SORT,
+		ALBUM, TITLE, YEAR, GENRE, LYRICS, COMPOSER, DISC_NO, DISC_TOTAL, TRACK, TRACK_TOTAL};
+
+	private HeaderTagReader headerTagReader = new HeaderTagReader();
+	private boolean useHeaderTagReader = true;
+
 	public static final String UNKNOWN_ALBUM = "[Unknown album]";
 	
 	public AudioTagService() {
@@ -67,44 +82,32 @@ public class AudioTagService {
 		LogManager.getLogManager().reset(); // turns off verbose JAudioTagger log
 	}
 
-	public void updateMetadata(File file) {
+	/*
+	 * Returns number of bytes read from the file. JAudioTagger doesn't tell,
+	 * so for files read by it, that's the file size.
+	 */
+	public long updateMetadata(File file) {
 
 		String extension = getExtension(file.getFilename()).toUpperCase();
 		if (!ALLOWED_EXTENSIONS.contains(extension)) {
-			return;
+			return 0;
 		}
 
 		MetaData metaData = new MetaData();
 		metaData.setMediaType(Mediatype.valueOf(extension));
+		long bytesRead = file.getSize();
 
 		try {
-			AudioFile audioFile = AudioFileIO.read(new java.io.File(
-					file.getDirectory(), file.getFilename()));
-			
-			Tag tag = audioFile.getTag();
-			if (tag != null) {
-				metaData.setArtist(getTagField(tag, ARTIST));
-				metaData.setArtistSort(getTagField(tag, ARTIST_SORT));
-				metaData.setAlbumArtist(toAlbumArtist(tag));
-				metaData.setAlbumArtistSort(getTagField(tag, ALBUM_ARTIST_SORT));
-				metaData.setAlbum(toAlbum(getTagField(tag, ALBUM)));
-				metaData.setTitle(getTagField(tag, TITLE));
-				metaData.setYear(getTagField(tag, YEAR));
-				metaData.setGenre(toGenre(getTagField(tag, GENRE)));
-				metaData.setLyrics(getTagField(tag, LYRICS));
-				metaData.setComposer(getTagField(tag, COMPOSER));
-				metaData.setDiscNr(toFirstNumber(getTagField(tag, DISC_NO)));
-				metaData.setDiscNrs(toShort(getTagField(tag, DISC_TOTAL)));
-				metaData.setTrackNr(toFirstNumber(getTagField(tag, TRACK)));
-				metaData.setTrackNrs(toShort(getTagField(tag, TRACK_TOTAL)));
-				metaData.setCoverArtEmbedded(tag.getFirstArtwork() != null);
-			}
-
-			AudioHeader audioHeader = audioFile.getAudioHeader();
-			if (audioHeader != null) {
-				metaData.setVbr(audioHeader.isVariableBitRate());
-				metaData.setBitrate((short) audioHeader.getBitRateAsNumber());
-				metaData.setDuration((short) audioHeader.getTrackLength());
+			java.io.File audioFile = new java.io.File(file.getDirectory(), file.getFilename());
+			HeaderTag headerTag = useHeaderTagReader ? headerTagReader.read(audioFile) : null;
+			if (headerTag != null) {
+				setTagFields(metaData, headerTag);
+				metaData.setVbr(headerTag.isVbr());
+				metaData.setBitrate((short) headerTag.getBitrate());
+				metaData.setDuration((short) headerTag.getDuration());
+				bytesRead = headerTag.getBytesRead();
+			} else {
+				readAudioFile(audioFile, metaData);
 			}
 
 			file.setMetaData(metaData);
@@ -116,6 +119,48 @@ public class AudioTagService {
 			LOG.warn("Could not read metadata of file " + file.getFilename()
 					+ " from " + file.getDirectory(), e);
 		}
+		return bytesRead;
+	}
+
+	private void readAudioFile(java.io.File file, MetaData metaData) throws CannotReadException,
+	IOException, TagException, ReadOnlyFileException, InvalidAudioFrameException {
+		AudioFile audioFile = AudioFileIO.read(file);
+
+		Tag tag = audioFile.getTag();
+		if (tag != null) {
+			HeaderTag headerTag = new HeaderTag();
+			for (FieldKey fieldKey : TAG_FIELDS) {
+				headerTag.setField(fieldKey, getTagField(tag, fieldKey));
+			}
+			headerTag.setField(ALBUM_ARTIST, toAlbumArtist(tag));
+			headerTag.setArtwork(tag.getFirstArtwork() != null);
+			setTagFields(metaData, headerTag);
+		}
+
+		AudioHeader audioHeader = audioFile.getAudioHeader();
+		if (audioHeader != null) {
+			metaData.setVbr(audioHeader.isVariableBitRate());
+			metaData.setBitrate((short) audioHeader.getBitRateAsNumber());
+			metaData.setDuration((short) audioHeader.getTrackLength());
+		}
+	}
+
+	private void setTagFields(MetaData metaData, HeaderTag tag) {
+		metaData.setArtist(getTagField(tag, ARTIST));
+		metaData.setArtistSort(getTagField(tag, ARTIST_SORT));
+		metaData.setAlbumArtist(getTagField(tag, ALBUM_ARTIST));
+		metaData.setAlbumArtistSort(getTagField(tag, ALBUM_ARTIST_SORT));
+		metaData.setAlbum(toAlbum(getTagField(tag, ALBUM)));
+		metaData.setTitle(getTagField(tag, TITLE));
+		metaData.setYear(getTagField(tag, YEAR));
+		metaData.setGenre(toGenre(getTagField(tag, GENRE)));
+		metaData.setLyrics(getTagField(tag, LYRICS));
+		metaData.setComposer(getTagField(tag, COMPOSER));
+		metaData.setDiscNr(toFirstNumber(getTagField(tag, DISC_NO)));
+		metaData.setDiscNrs(toShort(getTagField(tag, DISC_TOTAL)));
+		metaData.setTrackNr(toFirstNumber(getTagField(tag, TRACK)));
+		metaData.setTrackNrs(toShort(getTagField(tag, TRACK_TOTAL)));
+		metaData.setCoverArtEmbedded(tag.hasArtwork());
 	}
 
 	public boolean isAudioFile(String extension) {
@@ -143,9 +188,13 @@ public class AudioTagService {
 		}
 		return null;
 	}
+
+	private String getTagField(HeaderTag tag, FieldKey fieldKey) {
+		return StringUtils.trimToNull(tag.getFirst(fieldKey));
+	}
 	
 	private String toAlbumArtist(Tag tag) {
-		String albumArtist = getTagField(tag, FieldKey.ALBUM_ARTIST);
+		String albumArtist = getTagField(tag, ALBUM_ARTIST);
 		if (albumArtist == null && tag instanceof AbstractID3v2Tag && tag.hasField(MP3_ALBUM_ARTIST)) {
 			// TPE2 is commonly used for "Album artist", but JAudioTagger doesn't pick it up
 			albumArtist = StringUtils.trimToNull(tag.getFirst(MP3_ALBUM_ARTIST));
@@ -199,4 +248,8 @@ public class AudioTagService {
 		return NumberUtils.isDigits(tag) ? NumberUtils.toShort(tag) : null;
 	}
 
+	public void setUseHeaderTagReader(boolean useHeaderTagReader) {
+		this.useHeaderTagReader = useHeaderTagReader;
+	}
+
 }
\ No newline at end of file
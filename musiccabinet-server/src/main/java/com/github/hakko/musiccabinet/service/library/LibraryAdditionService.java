@@ -2,11 +2,16 @@ package com.github.hakko.musiccabinet.service.library;
 
 import static com.github.hakko.musiccabinet.service.library.LibraryUtil.FINISHED_MESSAGE;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.springframework.integration.Message;
 import org.springframework.integration.core.PollableChannel;
 
 import com.github.hakko.musiccabinet.dao.LibraryAdditionDao;
 import com.github.hakko.musiccabinet.domain.model.aggr.DirectoryContent;
+import com.github.hakko.musiccabinet.domain.model.aggr.SearchIndexUpdateProgress;
+import com.github.hakko.musiccabinet.log.Logger;
 
 /*
  * The library scanning is modeled according to the "Pipes and Filters"
@@ -14,6 +19,20 @@ import com.github.hakko.musiccabinet.domain.model.aggr.DirectoryContent;
  * 
  * This class acts as a filter that sends messages to a DAO, indicating
  * that files/directories detected as added should be indexed in database.
+ *
+ * Received directories are collected into batches, which are written in one
+ * transaction once they contain batchRows files and sub directories, or once
+ * the oldest directory has waited batchMillis.
+ *
+ * If chunkDirectories is set, added directories are merged into the library
+ * every chunkDirectories directories, while the scan is still running. As
+ * directories are scanned bottom-up, files of a directory whose parent hasn't
+ * been received yet are left in the import tables for a later chunk. A failed
+ * chunk is left in the import tables too, to be merged by updateLibrary().
+ *
+ * Directories that reached the import tables act as a checkpoint. If a scan
+ * is interrupted (by an error or a restart), the next scan merges them into
+ * the library before it starts, so their meta data isn't read again.
  */
 public class LibraryAdditionService implements LibraryReceiverService {
 
@@ -21,9 +40,44 @@ public class LibraryAdditionService implements LibraryReceiverService {
 	
 	private LibraryAdditionDao libraryAdditionDao;
 	
+	private int batchRows = 1;
+	private long batchMillis = 1000;
+	private int chunkDirectories = 0;
+	private int unmergedDirectories;
+	
+	private SearchIndexUpdateProgress progress = new SearchIndexUpdateProgress("directories added to library");
+	private volatile int batches;
+	private volatile long flushMillis;
+	
+	private static final Logger LOG = Logger.getLogger(LibraryAdditionService.class);
+	
 	public void clearImport() {
 		libraryAdditionDao.clearImport();
 	}
+
+	/*
+	 * Merges files left in the import tables by an interrupted scan into the
+	 * library, and clears the import tables. Files of directories whose parent
+	 * directory wasn't reached by the scan can't be placed in the library, and
+	 * are read again. Directory modification times are not kept, so the
+	 * directories are listed again to find deleted files.
+	 * Returns number of resumed files.
+	 */
+	public int resumeImport() {
+		int files = libraryAdditionDao.getImportedFiles();
+		if (files > 0) {
+			try {
+				libraryAdditionDao.updateLibraryChunk();
+				files -= libraryAdditionDao.getImportedFiles();
+				LOG.info("Resumed " + files + " files from an interrupted scan.");
+			} catch (RuntimeException e) {
+				LOG.warn("Could not resume interrupted scan, starting over.", e);
+				files = 0;
+			}
+		}
+		libraryAdditionDao.clearImport();
+		return files;
+	}
 	
 	public void updateLibrary() {
 		libraryAdditionDao.updateLibrary();
@@ -32,24 +86,100 @@ public class LibraryAdditionService implements LibraryReceiverService {
 	@SuppressWarnings("unchecked")
 	@Override
 	public void receive() {
+		progress.reset();
+		progress.setFinishedOperations(0);
+		batches = 0;
+		flushMillis = 0;
+		unmergedDirectories = 0;
+		List<DirectoryContent> batch = new ArrayList<>();
+		int rows = 0;
+		long batchStarted = 0;
 		Message<DirectoryContent> message;
 		while (true) {
-			message = (Message<DirectoryContent>) libraryAdditionChannel.receive();
+			if (batch.isEmpty()) {
+				message = (Message<DirectoryContent>) libraryAdditionChannel.receive();
+			} else {
+				long wait = batchStarted + batchMillis - System.currentTimeMillis();
+				message = wait > 0 ? (Message<DirectoryContent>) libraryAdditionChannel.receive(wait) : null;
+				if (message == null) {
+					flush(batch);
+					rows = 0;
+					continue;
+				}
+			}
 			if (message == null || message.equals(FINISHED_MESSAGE)) {
+				flush(batch);
 				break;
 			} else {
 				DirectoryContent content = message.getPayload();
-				String dir = content.getDirectory();
-				libraryAdditionDao.addSubdirectories(dir, content.getSubDirectories());
-				libraryAdditionDao.addFiles(dir, content.getFiles());
+				if (batch.isEmpty()) {
+					batchStarted = System.currentTimeMillis();
+				}
+				batch.add(content);
+				rows += content.getSubDirectories().size() + content.getFiles().size();
+				if (rows >= batchRows) {
+					flush(batch);
+					rows = 0;
+				}
+			}
+		}
+	}
+	
+	private void flush(List<DirectoryContent> batch) {
+		if (batch.isEmpty()) {
+			return;
+		}
+		long ms = -System.currentTimeMillis();
+		libraryAdditionDao.addDirectoryContents(batch);
+		ms += System.currentTimeMillis();
+		for (int i = 0; i < batch.size(); i++) {
+			progress.addFinishedOperation();
+		}
+		flushMillis += ms;
+		batches++;
+		LOG.debug("Added batch of " + batch.size() + " directories: " + ms + " ms");
+		unmergedDirectories += batch.size();
+		batch.clear();
+		if (chunkDirectories > 0 && unmergedDirectories >= chunkDirectories) {
+			unmergedDirectories = 0;
+			try {
+				libraryAdditionDao.updateLibraryChunk();
+			} catch (RuntimeException e) {
+				LOG.warn("Could not add chunk to library, retrying when scan is done.", e);
 			}
 		}
 	}
 	
+	/*
+	 * Returns number of added directories, with average batch size and
+	 * flush latency as part of the description.
+	 */
+	public SearchIndexUpdateProgress getUpdateProgress() {
+		int directories = progress.getFinishedOperations();
+		if (batches > 0) {
+			progress.setUpdateDescription(String.format(
+					"directories added to library (%.1f directories/batch, %d ms/batch)",
+					(double) directories / batches, flushMillis / batches));
+		}
+		return progress;
+	}
+	
 	public void setLibraryAdditionDao(LibraryAdditionDao libraryAdditionDao) {
 		this.libraryAdditionDao = libraryAdditionDao;
 	}
 
+	public void setBatchRows(int batchRows) {
+		this.batchRows = batchRows;
+	}
+
+	public void setBatchMillis(long batchMillis) {
+		this.batchMillis = batchMillis;
+	}
+
+	public void setChunkDirectories(int chunkDirectories) {
+		this.chunkDirectories = chunkDirectories;
+	}
+
 	public void setLibraryAdditionChannel(PollableChannel libraryAdditionChannel) {
 		this.libraryAdditionChannel = libraryAdditionChannel;
 	}
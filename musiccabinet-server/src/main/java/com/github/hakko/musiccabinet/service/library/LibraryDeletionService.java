@@ -2,6 +2,8 @@ package com.github.hakko.musiccabinet.service.library;
 
 import static com.github.hakko.musiccabinet.service.library.LibraryUtil.FINISHED_MESSAGE;
 
+import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import org.springframework.integration.Message;
@@ -9,13 +11,21 @@ import org.springframework.integration.core.PollableChannel;
 
 import com.github.hakko.musiccabinet.dao.LibraryDeletionDao;
 import com.github.hakko.musiccabinet.domain.model.aggr.DirectoryContent;
+import com.github.hakko.musiccabinet.domain.model.aggr.FileRelocation;
+import com.github.hakko.musiccabinet.domain.model.aggr.SearchIndexUpdateProgress;
+import com.github.hakko.musiccabinet.domain.model.library.File;
 
 /*
  * The library scanning is modeled according to the "Pipes and Filters"
  * Enterprise Integration Pattern (EIP), and realized by Spring Integration.
  * 
  * This class acts as a filter that sends messages to a DAO, indicating
- * that files/directories detected as deleted should be removed from database.
+ * that files/directories detected as deleted should be removed from database,
+ * or that files detected as moved should be relocated.
+ *
+ * Deleted files and directories are collected across messages, and passed to
+ * the DAO batchRows at a time. When the library is updated, files are deleted
+ * chunkFiles at a time, in separate transactions, with progress reported.
  */
 public class LibraryDeletionService implements LibraryReceiverService {
 
@@ -23,34 +33,80 @@ public class LibraryDeletionService implements LibraryReceiverService {
 	
 	private LibraryDeletionDao libraryDeletionDao;
 
+	private int batchRows = 1;
+	private int chunkFiles = 10000;
+
+	private Set<File> deletedFiles = new HashSet<>();
+	private Set<String> deletedDirectories = new HashSet<>();
+
+	private SearchIndexUpdateProgress progress = new SearchIndexUpdateProgress("files deleted from library");
+
 	public void clearImport() {
 		libraryDeletionDao.clearImport();
 	}
 	
 	public void updateLibrary() {
+		progress.reset();
+		progress.setTotalOperations(libraryDeletionDao.markDeletedFiles());
+		progress.setFinishedOperations(0);
+		int files;
+		while ((files = libraryDeletionDao.deleteFilesChunk(chunkFiles)) > 0) {
+			progress.setFinishedOperations(progress.getFinishedOperations() + files);
+		}
 		libraryDeletionDao.updateLibrary();
 	}
 
 	@SuppressWarnings("unchecked")
 	@Override
 	public void receive() {
-		Message<DirectoryContent> message;
+		Message<?> message;
 		while (true) {
-			message = (Message<DirectoryContent>) libraryDeletionChannel.receive();
+			message = libraryDeletionChannel.receive();
 			if (message == null || message.equals(FINISHED_MESSAGE)) {
+				flush();
 				break;
+			} else if (message.getPayload() instanceof List) {
+				libraryDeletionDao.relocateFiles((List<FileRelocation>) message.getPayload());
 			} else {
-				DirectoryContent content = message.getPayload();
-				String dir = content.getDirectory();
-				libraryDeletionDao.deleteFiles(dir, content.getFiles());
-				libraryDeletionDao.deleteSubdirectories(dir, content.getSubDirectories());
+				DirectoryContent content = (DirectoryContent) message.getPayload();
+				deletedFiles.addAll(content.getFiles());
+				deletedDirectories.addAll(content.getSubDirectories());
+				if (deletedFiles.size() + deletedDirectories.size() >= batchRows) {
+					flush();
+				}
 			}
 		}
 	}
+
+	/*
+	 * Directory arguments are left out, as the DAO uses paths of each row.
+	 */
+	private void flush() {
+		if (!deletedFiles.isEmpty()) {
+			libraryDeletionDao.deleteFiles(null, deletedFiles);
+			deletedFiles = new HashSet<>();
+		}
+		if (!deletedDirectories.isEmpty()) {
+			libraryDeletionDao.deleteSubdirectories(null, deletedDirectories);
+			deletedDirectories = new HashSet<>();
+		}
+	}
 	
 	public void delete(Set<String> directories) {
 		libraryDeletionDao.deleteSubdirectories(null, directories);
-		libraryDeletionDao.updateLibrary();
+		updateLibrary();
+	}
+
+	public SearchIndexUpdateProgress getUpdateProgress() {
+		return progress;
+	}
+
+	public void setBatchRows(int batchRows) {
+		this.batchRows = batchRows;
+	}
+
+	public void setChunkFiles(int chunkFiles) {
+		this.chunkFiles = chunkFiles;
 	}
 
 	public void setLibraryDeletionDao(LibraryDeletionDao libraryDeletionDao) {
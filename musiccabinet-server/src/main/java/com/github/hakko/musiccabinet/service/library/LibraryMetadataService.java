@@ -2,54 +2,436 @@ package com.github.hakko.musiccabinet.service.library;
 
 import static com.github.hakko.musiccabinet.service.library.LibraryUtil.FINISHED_MESSAGE;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
 import org.springframework.integration.Message;
 import org.springframework.integration.core.PollableChannel;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
 import com.github.hakko.musiccabinet.domain.model.aggr.DirectoryContent;
 import com.github.hakko.musiccabinet.domain.model.aggr.SearchIndexUpdateProgress;
 import com.github.hakko.musiccabinet.domain.model.library.File;
+import com.github.hakko.musiccabinet.domain.model.library.MetaData;
+import com.github.hakko.musiccabinet.domain.model.library.MetaData.Mediatype;
+import com.github.hakko.musiccabinet.io.ScanThrottle;
+import com.github.hakko.musiccabinet.log.Logger;
 
 /*
  * The library scanning is modeled according to the "Pipes and Filters"
  * Enterprise Integration Pattern (EIP), and realized by Spring Integration.
- * 
+ *
  * This class acts as a filter that forces a physical meta data read of files
  * detected as new.
+ *
+ * With more than one metadata worker, files are read by worker threads of
+ * taskExecutor and a directory is passed on as soon as all its files are read.
+ * Workers run for the whole scan, so taskExecutor must not be shared with other
+ * tasks, and must have a thread per worker. A thread pool that is too small
+ * fails on startup, as waiting workers would stall the scan.
+ * Directories may then reach the addition channel in a different order than
+ * they were received, but the finishing message is always sent last. If
+ * reading is interrupted, files not yet handed out are dropped along with
+ * their directories, which are read again next scan.
+ *
+ * Each file is read under a deadline (metadataTimeoutMillis). A file that
+ * isn't read in time is passed on with empty meta data, which makes it end
+ * up in library.filewarning as a file missing tags. As the file itself is
+ * still added to the library, it won't be read again until it's modified.
+ * The reading thread is interrupted, which stops HeaderTagReader, but
+ * JAudioTagger uses a RandomAccessFile that can't be interrupted. Such a
+ * thread is abandoned (it's a daemon thread) and left to finish on its own.
+ * At most maxAbandonedReaders threads are left stuck like that. Once reached,
+ * remaining files are passed on as if they timed out, without being read,
+ * until some abandoned thread finishes.
+ *
+ * Every file read is charged to scanThrottle, with the bytes actually read,
+ * which limits the rate of reads if the scan runs in background mode.
  */
-public class LibraryMetadataService implements LibraryReceiverService {
+public class LibraryMetadataService implements LibraryReceiverService, InitializingBean {
 
-	private PollableChannel libraryMetadataChannel; // consumer of
-	private PollableChannel libraryAdditionChannel; // producer of
+	protected PollableChannel libraryMetadataChannel; // consumer of
+	protected PollableChannel libraryAdditionChannel; // producer of
 
 	private AudioTagService audioTagService;
-	
+
+	private TaskExecutor taskExecutor = new SimpleAsyncTaskExecutor("metadata-worker-");
+
+	private ScanThrottle scanThrottle = new ScanThrottle();
+
+	private int metadataWorkers = 1;
+	private long metadataTimeoutMillis = 0;
+	private int maxAbandonedReaders = 10;
+
+	private AtomicInteger timeouts = new AtomicInteger();
+	private AtomicInteger skippedFiles = new AtomicInteger();
+	private Set<Thread> abandonedReaders = new HashSet<>();
+	private PriorityQueue<FileReadTime> slowestFiles = new PriorityQueue<>();
+
 	private SearchIndexUpdateProgress progress = new SearchIndexUpdateProgress("new files read for meta-data");
+	private List<Worker> workers = new ArrayList<>();
+
+	private static final Logger LOG = Logger.getLogger(LibraryMetadataService.class);
+
+	// number of queued files per worker, before receive() blocks.
+	private static final int QUEUED_FILES_PER_WORKER = 20;
+
+	// number of slowest files to keep track of, per scan.
+	private static final int SLOWEST_FILES = 10;
 
 	@SuppressWarnings("unchecked")
 	@Override
 	public void receive() {
-		Message<DirectoryContent> message;
 		progress.reset();
 		progress.setFinishedOperations(0);
-		while (true) {
-			message = (Message<DirectoryContent>) libraryMetadataChannel.receive();
-			if (message == null || message.equals(FINISHED_MESSAGE)) {
-				libraryAdditionChannel.send(message);
-				break;
+		timeouts.set(0);
+		skippedFiles.set(0);
+		synchronized (slowestFiles) {
+			slowestFiles.clear();
+		}
+		if (metadataWorkers > 1) {
+			receiveWithWorkers();
+			return;
+		}
+		MetadataReader reader = new MetadataReader("metadata-reader");
+		Message<DirectoryContent> message;
+		try {
+			while (true) {
+				message = (Message<DirectoryContent>) libraryMetadataChannel.receive();
+				if (message == null || message.equals(FINISHED_MESSAGE)) {
+					break;
+				} else {
+					for (File file : message.getPayload().getFiles()) {
+						reader.read(file);
+						progress.addFinishedOperation();
+					}
+					libraryAdditionChannel.send(message);
+				}
+			}
+		} finally {
+			reader.shutdown();
+			sendFinishedMessage();
+			logSlowestFiles();
+		}
+	}
+
+	@Override
+	public void afterPropertiesSet() throws Exception {
+		if (metadataWorkers > 1 && taskExecutor instanceof ThreadPoolTaskExecutor) {
+			int poolSize = ((ThreadPoolTaskExecutor) taskExecutor).getMaxPoolSize();
+			if (poolSize < metadataWorkers) {
+				throw new IllegalStateException("Task executor has " + poolSize
+						+ " threads, but " + metadataWorkers + " metadata workers are configured!");
+			}
+		}
+	}
+
+	/*
+	 * Hands out all files of received directories to worker threads, and waits
+	 * for the workers to drain the queue before sending the finishing message.
+	 */
+	@SuppressWarnings("unchecked")
+	private void receiveWithWorkers() {
+		BlockingQueue<FileTask> queue = new ArrayBlockingQueue<>(
+				metadataWorkers * QUEUED_FILES_PER_WORKER);
+		CountDownLatch activeWorkers = new CountDownLatch(metadataWorkers);
+		List<Worker> startedWorkers = new ArrayList<>();
+		for (int i = 0; i < metadataWorkers; i++) {
+			Worker worker = new Worker(i + 1, queue, activeWorkers);
+			startedWorkers.add(worker);
+			taskExecutor.execute(worker);
+		}
+		workers = startedWorkers;
+
+		Message<DirectoryContent> message;
+		try {
+			while (true) {
+				message = (Message<DirectoryContent>) libraryMetadataChannel.receive();
+				if (message == null || message.equals(FINISHED_MESSAGE)) {
+					break;
+				} else if (message.getPayload().getFiles().isEmpty()) {
+					libraryAdditionChannel.send(message);
+				} else {
+					PendingDirectory directory = new PendingDirectory(message);
+					for (File file : message.getPayload().getFiles()) {
+						queue.put(new FileTask(file, directory));
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			LOG.warn("Metadata reading interrupted!", e);
+			Thread.currentThread().interrupt();
+		} finally {
+			stopWorkers(queue, activeWorkers);
+			sendFinishedMessage();
+			logSlowestFiles();
+		}
+	}
+
+	/*
+	 * Lets workers finish the files already queued, and waits for them to stop.
+	 * If this thread has been interrupted, queued files are dropped instead.
+	 */
+	private void stopWorkers(BlockingQueue<FileTask> queue, CountDownLatch activeWorkers) {
+		boolean interrupted = Thread.interrupted();
+		if (interrupted) {
+			queue.clear();
+		}
+		try {
+			for (int i = 0; i < metadataWorkers; i++) {
+				queue.put(FileTask.POISON);
+			}
+			activeWorkers.await();
+		} catch (InterruptedException e) {
+			LOG.warn("Metadata workers not stopped!", e);
+			interrupted = true;
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/*
+	 * Sends the finishing message, even if this thread has been interrupted, as
+	 * the next filter waits for it.
+	 */
+	private void sendFinishedMessage() {
+		boolean interrupted = Thread.interrupted();
+		libraryAdditionChannel.send(FINISHED_MESSAGE);
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/*
+	 * Reads meta data of files, by invoking AudioTagService from a separate
+	 * thread if there's a deadline. Used by one thread at a time.
+	 */
+	private class MetadataReader {
+
+		private final String threadName;
+		private ExecutorService executor;
+		private Thread readerThread;
+
+		private MetadataReader(String threadName) {
+			this.threadName = threadName;
+		}
+
+		/*
+		 * The file is charged to scanThrottle before it's read, and the bytes
+		 * after, once it's known how many were read.
+		 */
+		private void read(File file) {
+			if (metadataTimeoutMillis > 0 && getAbandonedReaders() >= maxAbandonedReaders) {
+				skippedFiles.incrementAndGet();
+				timeouts.incrementAndGet();
+				file.setMetaData(getTimedOutMetaData(file));
+				LOG.debug("Skipped reading metadata of file " + file.getFilename()
+						+ " from " + file.getDirectory() + ", too many reader threads stuck.");
+				return;
+			}
+			scanThrottle.acquire(1, 0);
+			long ms = -System.currentTimeMillis();
+			long bytesRead;
+			if (metadataTimeoutMillis <= 0) {
+				bytesRead = audioTagService.updateMetadata(file);
 			} else {
-				for (File file : message.getPayload().getFiles()) {
-					audioTagService.updateMetadata(file);
-					progress.addFinishedOperation();
+				bytesRead = readWithTimeout(file);
+			}
+			fileRead(file, ms + System.currentTimeMillis());
+			scanThrottle.acquire(0, bytesRead);
+		}
+
+		/*
+		 * The meta data is read into a copy of the file, so an abandoned read
+		 * can't change the file after it has been passed on. Returns number of
+		 * bytes read, the file size if that's unknown.
+		 */
+		private long readWithTimeout(File file) {
+			final File copy = new File(file.getDirectory(), file.getFilename(),
+					file.getModifiedMillis(), file.getSize());
+			if (executor == null) {
+				executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						readerThread = new Thread(r, threadName);
+						readerThread.setDaemon(true);
+						return readerThread;
+					}
+				});
+			}
+			Future<Long> future = executor.submit(new Callable<Long>() {
+				@Override
+				public Long call() {
+					return audioTagService.updateMetadata(copy);
+				}
+			});
+			try {
+				long bytesRead = future.get(metadataTimeoutMillis, TimeUnit.MILLISECONDS);
+				file.setMetaData(copy.getMetadata());
+				return bytesRead;
+			} catch (TimeoutException e) {
+				future.cancel(true);
+				executor.shutdownNow();
+				executor = null;
+				synchronized (abandonedReaders) {
+					abandonedReaders.add(readerThread);
+				}
+				timeouts.incrementAndGet();
+				file.setMetaData(getTimedOutMetaData(file));
+				LOG.warn("Timed out reading metadata of file " + file.getFilename()
+						+ " from " + file.getDirectory() + " after " + metadataTimeoutMillis + " ms.");
+			} catch (ExecutionException e) {
+				LOG.error("Unexpected error reading " + file, e.getCause());
+			} catch (InterruptedException e) {
+				future.cancel(true);
+				Thread.currentThread().interrupt();
+			}
+			return file.getSize();
+		}
+
+		private void shutdown() {
+			if (executor != null) {
+				executor.shutdownNow();
+				executor = null;
+			}
+		}
+
+	}
+
+	/*
+	 * Meta data without tags, for a file that couldn't be read in time.
+	 */
+	private MetaData getTimedOutMetaData(File file) {
+		String filename = file.getFilename();
+		String extension = filename.substring(filename.lastIndexOf('.') + 1).toUpperCase();
+		MetaData metaData = new MetaData();
+		metaData.setMediaType(Mediatype.valueOf(extension));
+		return metaData;
+	}
+
+	private void fileRead(File file, long millis) {
+		synchronized (slowestFiles) {
+			if (slowestFiles.size() < SLOWEST_FILES) {
+				slowestFiles.add(new FileReadTime(file, millis));
+			} else if (slowestFiles.peek().millis < millis) {
+				slowestFiles.poll();
+				slowestFiles.add(new FileReadTime(file, millis));
+			}
+		}
+	}
+
+	private void logSlowestFiles() {
+		if (timeouts.get() > 0) {
+			LOG.warn(timeouts.get() + " file(s) timed out while reading metadata.");
+		}
+		if (skippedFiles.get() > 0) {
+			LOG.warn(skippedFiles.get() + " of them skipped, as " + getAbandonedReaders()
+					+ " reader thread(s) are stuck reading metadata.");
+		}
+		for (Map.Entry<String, Long> entry : getSlowestFiles().entrySet()) {
+			LOG.debug("Read metadata of " + entry.getKey() + " in " + entry.getValue() + " ms.");
+		}
+	}
+
+	/*
+	 * Returns number of files that timed out during latest scan, including
+	 * files skipped as too many reader threads were stuck.
+	 */
+	public int getTimeouts() {
+		return timeouts.get();
+	}
+
+	/*
+	 * Returns number of reader threads abandoned after a timeout, that are
+	 * still stuck reading a file.
+	 */
+	public int getAbandonedReaders() {
+		synchronized (abandonedReaders) {
+			for (Iterator<Thread> it = abandonedReaders.iterator(); it.hasNext();) {
+				if (!it.next().isAlive()) {
+					it.remove();
 				}
-				libraryAdditionChannel.send(message);
 			}
+			return abandonedReaders.size();
 		}
 	}
 
+	/*
+	 * Returns the slowest files to read during latest scan, as file paths
+	 * mapped to milliseconds spent reading, slowest first.
+	 */
+	public Map<String, Long> getSlowestFiles() {
+		List<FileReadTime> readTimes;
+		synchronized (slowestFiles) {
+			readTimes = new ArrayList<>(slowestFiles);
+		}
+		Collections.sort(readTimes, Collections.reverseOrder());
+		Map<String, Long> files = new LinkedHashMap<>();
+		for (FileReadTime readTime : readTimes) {
+			files.put(readTime.path, readTime.millis);
+		}
+		return files;
+	}
+
 	public SearchIndexUpdateProgress getUpdateProgress() {
+		int timedOut = timeouts.get(), abandoned = getAbandonedReaders();
+		progress.setUpdateDescription(timedOut == 0 ? "new files read for meta-data" :
+			"new files read for meta-data (" + timedOut + " timed out"
+			+ (abandoned == 0 ? ")" : ", " + abandoned + " reader threads stuck)"));
 		return progress;
 	}
 
+	/*
+	 * Returns progress per metadata worker (from the latest scan), with current
+	 * throughput in files per second as part of the description.
+	 */
+	public List<SearchIndexUpdateProgress> getWorkerProgress() {
+		List<SearchIndexUpdateProgress> workerProgress = new ArrayList<>();
+		for (Worker worker : workers) {
+			workerProgress.add(worker.getProgress());
+		}
+		return workerProgress;
+	}
+
+	public void setMetadataTimeoutMillis(long metadataTimeoutMillis) {
+		this.metadataTimeoutMillis = metadataTimeoutMillis;
+	}
+
+	public void setMaxAbandonedReaders(int maxAbandonedReaders) {
+		this.maxAbandonedReaders = maxAbandonedReaders;
+	}
+
+	public int getMetadataWorkers() {
+		return metadataWorkers;
+	}
+
+	public void setMetadataWorkers(int metadataWorkers) {
+		this.metadataWorkers = metadataWorkers;
+	}
+
 	public void setLibraryMetadataChannel(PollableChannel libraryMetadataChannel) {
 		this.libraryMetadataChannel = libraryMetadataChannel;
 	}
@@ -57,9 +439,124 @@ public class LibraryMetadataService implements LibraryReceiverService {
 	public void setLibraryAdditionChannel(PollableChannel libraryAdditionChannel) {
 		this.libraryAdditionChannel = libraryAdditionChannel;
 	}
-	
+
 	public void setAudioTagService(AudioTagService audioTagService) {
 		this.audioTagService = audioTagService;
 	}
 
-}
\ No newline at end of file
+	public void setTaskExecutor(TaskExecutor taskExecutor) {
+		this.taskExecutor = taskExecutor;
+	}
+
+	public void setScanThrottle(ScanThrottle scanThrottle) {
+		this.scanThrottle = scanThrottle;
+	}
+
+	/*
+	 * A directory message, waiting for its last file to be read.
+	 */
+	private class PendingDirectory {
+
+		private final Message<DirectoryContent> message;
+		private final AtomicInteger remainingFiles;
+
+		private PendingDirectory(Message<DirectoryContent> message) {
+			this.message = message;
+			this.remainingFiles = new AtomicInteger(message.getPayload().getFiles().size());
+		}
+
+		private void fileRead() {
+			if (remainingFiles.decrementAndGet() == 0) {
+				libraryAdditionChannel.send(message);
+			}
+		}
+
+	}
+
+	private static class FileTask {
+
+		private static final FileTask POISON = new FileTask(null, null);
+
+		private final File file;
+		private final PendingDirectory directory;
+
+		private FileTask(File file, PendingDirectory directory) {
+			this.file = file;
+			this.directory = directory;
+		}
+
+	}
+
+	private static class FileReadTime implements Comparable<FileReadTime> {
+
+		private final String path;
+		private final long millis;
+
+		private FileReadTime(File file, long millis) {
+			this.path = new java.io.File(file.getDirectory(), file.getFilename()).getPath();
+			this.millis = millis;
+		}
+
+		@Override
+		public int compareTo(FileReadTime other) {
+			return Long.compare(millis, other.millis);
+		}
+
+	}
+
+	private class Worker implements Runnable {
+
+		private final int id;
+		private final BlockingQueue<FileTask> queue;
+		private final CountDownLatch activeWorkers;
+		private final SearchIndexUpdateProgress workerProgress;
+		private volatile long startMillis;
+		private volatile long busyMillis;
+
+		private Worker(int id, BlockingQueue<FileTask> queue, CountDownLatch activeWorkers) {
+			this.id = id;
+			this.queue = queue;
+			this.activeWorkers = activeWorkers;
+			this.workerProgress = new SearchIndexUpdateProgress("files read for meta-data by worker " + id);
+			this.workerProgress.setFinishedOperations(0);
+		}
+
+		@Override
+		public void run() {
+			startMillis = System.currentTimeMillis();
+			MetadataReader reader = new MetadataReader("metadata-reader-" + id);
+			try {
+				FileTask task;
+				while ((task = queue.take()) != FileTask.POISON) {
+					long ms = -System.currentTimeMillis();
+					try {
+						reader.read(task.file);
+					} catch (Throwable t) {
+						LOG.error("Unexpected error reading " + task.file, t);
+					} finally {
+						busyMillis += ms + System.currentTimeMillis();
+						workerProgress.addFinishedOperation();
+						progress.addFinishedOperation();
+						task.directory.fileRead();
+					}
+				}
+			} catch (InterruptedException e) {
+				LOG.warn("Metadata worker " + id + " interrupted!", e);
+			} finally {
+				reader.shutdown();
+				activeWorkers.countDown();
+			}
+		}
+
+		private SearchIndexUpdateProgress getProgress() {
+			int files = workerProgress.getFinishedOperations();
+			long elapsedMillis = Math.max(1, System.currentTimeMillis() - startMillis);
+			workerProgress.setUpdateDescription(String.format(
+					"files read for meta-data by worker %d (%.1f files/s, %d%% busy)", id,
+					1000.0 * files / elapsedMillis, Math.min(100, 100 * busyMillis / elapsedMillis)));
+			return workerProgress;
+		}
+
+	}
+
+}
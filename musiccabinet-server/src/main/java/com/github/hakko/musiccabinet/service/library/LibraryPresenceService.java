@@ -4,15 +4,30 @@ import static com.github.hakko.musiccabinet.service.library.LibraryUtil.FINISHED
 import static com.github.hakko.musiccabinet.service.library.LibraryUtil.msg;
 import static com.github.hakko.musiccabinet.service.library.LibraryUtil.removeIntersection;
 
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
 
+import org.joda.time.DateTime;
+
 import org.springframework.integration.Message;
 import org.springframework.integration.core.PollableChannel;
+import org.springframework.integration.message.GenericMessage;
 
 import com.github.hakko.musiccabinet.dao.LibraryPresenceDao;
 import com.github.hakko.musiccabinet.domain.model.aggr.DirectoryContent;
+import com.github.hakko.musiccabinet.domain.model.aggr.FileRelocation;
+import com.github.hakko.musiccabinet.domain.model.aggr.LibraryPresenceIndex;
 import com.github.hakko.musiccabinet.domain.model.aggr.SearchIndexUpdateProgress;
 import com.github.hakko.musiccabinet.domain.model.library.File;
+import com.github.hakko.musiccabinet.log.Logger;
 
 /*
  * The library scanning is modeled according to the "Pipes and Filters"
@@ -23,6 +38,32 @@ import com.github.hakko.musiccabinet.domain.model.library.File;
  *  (1) not changed (then left untouched)
  *  (2) newly added (then passed on to read meta data, then added to db)
  *  (3) deleted (then passed to db for removal)
+ *  (4) modified (then passed on to read meta data, and updated in place)
+ *
+ * A modified file has the same name as a library file in the same directory,
+ * but another modification time or size. It's passed on like an added file,
+ * but its library version is not deleted. Instead, add_to_library_chunk()
+ * updates the library file and its tags, keeping file and track ids (and
+ * thereby stars and play counts).
+ *
+ * Note that re-tagging a file in place doesn't change the modification time
+ * of its directory. As directories with an unchanged modification time are
+ * skipped unless in full verify mode (see below), a plain rescan won't find
+ * such a file modified. It's found by LibraryWatchService, which sees the file
+ * change, or by a scan in full verify mode.
+ *
+ * The directory modification time is passed on along with additions, or on
+ * its own if the directory changed without any files being added. Directories
+ * with an unchanged modification time are only received in full verify mode.
+ *
+ * If the library fits within presenceIndexBudget, it's read into memory once
+ * per scan, instead of querying the database for every directory found.
+ *
+ * Added files that are identical (name, modification time and size) to a
+ * library file in another directory are held back as possibly moved. When
+ * all directories are compared, those whose original was found deleted are
+ * passed on for deletion as relocations, that just updates their directory.
+ * The rest (copies) are passed on as additions.
  */
 public class LibraryPresenceService implements LibraryReceiverService {
 
@@ -32,16 +73,44 @@ public class LibraryPresenceService implements LibraryReceiverService {
 	
 	private LibraryPresenceDao libraryPresenceDao;
 	
+	// max estimated bytes of memory used for presence index. 0 = always query db.
+	private long presenceIndexBudget = 0;
+	
+	private LibraryPresenceIndex presenceIndex;
+	
+	private boolean detectRelocations = true;
+	
+	// added file -> identical library files elsewhere
+	private Map<File, List<File>> relocationCandidates = new HashMap<>();
+	private Set<File> deletedFiles = new HashSet<>();
+	private Set<String> deletedDirectories = new HashSet<>();
+	
 	private SearchIndexUpdateProgress progress = new SearchIndexUpdateProgress("directories found during search");
 
-	@SuppressWarnings("unchecked")
+	private static final Logger LOG = Logger.getLogger(LibraryPresenceService.class);
+
 	@Override
 	public void receive() {
-		Message<DirectoryContent> message;
 		progress.reset();
+		presenceIndex = presenceIndexBudget > 0 ? 
+				libraryPresenceDao.getPresenceIndex(presenceIndexBudget) : null;
+		try {
+			receiveDirectories();
+		} finally {
+			presenceIndex = null;
+			relocationCandidates.clear();
+			deletedFiles.clear();
+			deletedDirectories.clear();
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	private void receiveDirectories() {
+		Message<DirectoryContent> message;
 		while (true) {
 			message = (Message<DirectoryContent>) libraryPresenceChannel.receive();
 			if (message == null || message.equals(FINISHED_MESSAGE)) {
+				resolveRelocationCandidates();
 				libraryMetadataChannel.send(message);
 				libraryDeletionChannel.send(message);
 				break;
@@ -56,26 +125,161 @@ public class LibraryPresenceService implements LibraryReceiverService {
 		String directory = content.getDirectory();
 		Set<File> foundFiles = content.getFiles();
 		Set<String> foundSubDirs = content.getSubDirectories();
-		Set<File> dbFiles = libraryPresenceDao.getFiles(directory);
-		Set<String> dbSubDirs = libraryPresenceDao.getSubdirectories(directory);
+		Set<File> dbFiles;
+		Set<String> dbSubDirs;
+		if (presenceIndex != null) {
+			dbFiles = presenceIndex.getFiles(directory);
+			dbSubDirs = presenceIndex.getSubdirectories(directory);
+		} else {
+			dbFiles = libraryPresenceDao.getFiles(directory);
+			dbSubDirs = libraryPresenceDao.getSubdirectories(directory);
+		}
 
 		if (!dbSubDirs.equals(foundSubDirs) || !dbFiles.equals(foundFiles)) {
 			removeIntersection(dbSubDirs, foundSubDirs);
 			removeIntersection(dbFiles, foundFiles);
+			removeModifiedFiles(dbFiles, foundFiles);
+			if (detectRelocations) {
+				deletedFiles.addAll(dbFiles);
+				deletedDirectories.addAll(dbSubDirs);
+				removeRelocationCandidates(foundFiles);
+			}
 
 			if (!foundSubDirs.isEmpty() || !foundFiles.isEmpty()) {
-				libraryMetadataChannel.send(msg(directory, foundSubDirs, foundFiles));
+				libraryMetadataChannel.send(msg(directory, content.getModified(), foundSubDirs, foundFiles));
+			} else if (isModificationChanged(content)) {
+				libraryMetadataChannel.send(msg(directory, content.getModified(), 
+						new HashSet<String>(), new HashSet<File>()));
 			}
 			if (!dbSubDirs.isEmpty() || !dbFiles.isEmpty()) {
 				libraryDeletionChannel.send(msg(directory, dbSubDirs, dbFiles));
 			}
+		} else if (isModificationChanged(content)) {
+			libraryMetadataChannel.send(msg(directory, content.getModified(), 
+					new HashSet<String>(), new HashSet<File>()));
+		}
+	}
+	
+	/*
+	 * Removes library files from dbFiles that have a modified version among
+	 * foundFiles, as they are updated rather than deleted.
+	 */
+	private void removeModifiedFiles(Set<File> dbFiles, Set<File> foundFiles) {
+		if (dbFiles.isEmpty() || foundFiles.isEmpty()) {
+			return;
+		}
+		Set<String> foundFilenames = new HashSet<>();
+		for (File file : foundFiles) {
+			foundFilenames.add(file.getFilename());
+		}
+		for (Iterator<File> it = dbFiles.iterator(); it.hasNext();) {
+			if (foundFilenames.contains(it.next().getFilename())) {
+				it.remove();
+			}
+		}
+	}
+
+	/*
+	 * Moves added files that have identical copies elsewhere in the library
+	 * from foundFiles to relocationCandidates.
+	 */
+	private void removeRelocationCandidates(Set<File> foundFiles) {
+		if (foundFiles.isEmpty()) {
+			return;
+		}
+		Set<String> filenames = new HashSet<>();
+		for (File file : foundFiles) {
+			filenames.add(file.getFilename());
+		}
+		Set<File> libraryFiles = presenceIndex != null ?
+				presenceIndex.getFilesNamed(filenames) : libraryPresenceDao.getFilesNamed(filenames);
+		for (File libraryFile : libraryFiles) {
+			for (File file : foundFiles) {
+				if (isIdentical(file, libraryFile)) {
+					if (!relocationCandidates.containsKey(file)) {
+						relocationCandidates.put(file, new ArrayList<File>());
+					}
+					relocationCandidates.get(file).add(libraryFile);
+				}
+			}
 		}
+		foundFiles.removeAll(relocationCandidates.keySet());
+	}
+
+	private boolean isIdentical(File file, File libraryFile) {
+		return file.getFilename().equals(libraryFile.getFilename())
+				&& file.getSize() == libraryFile.getSize()
+				&& file.getModifiedMillis() == libraryFile.getModifiedMillis()
+				&& !file.getDirectory().equals(libraryFile.getDirectory());
+	}
+
+	/*
+	 * Candidates with an original that is deleted are relocated, each original
+	 * at most once. Remaining candidates are copies, and passed on as added.
+	 */
+	private void resolveRelocationCandidates() {
+		List<FileRelocation> relocations = new ArrayList<>();
+		Set<File> relocated = new HashSet<>();
+		Map<String, Set<File>> additions = new HashMap<>();
+		for (Entry<File, List<File>> candidate : relocationCandidates.entrySet()) {
+			File file = candidate.getKey();
+			File original = null;
+			for (File libraryFile : candidate.getValue()) {
+				if (original == null && !relocated.contains(libraryFile) && isDeleted(libraryFile)) {
+					original = libraryFile;
+				}
+			}
+			if (original != null) {
+				relocated.add(original);
+				relocations.add(new FileRelocation(original, file));
+			} else {
+				if (!additions.containsKey(file.getDirectory())) {
+					additions.put(file.getDirectory(), new HashSet<File>());
+				}
+				additions.get(file.getDirectory()).add(file);
+			}
+		}
+		for (String directory : additions.keySet()) {
+			libraryMetadataChannel.send(msg(directory, new HashSet<String>(), additions.get(directory)));
+		}
+		if (!relocations.isEmpty()) {
+			LOG.info("Found " + relocations.size() + " moved files.");
+			libraryDeletionChannel.send(new GenericMessage<List<FileRelocation>>(relocations));
+		}
+	}
+
+	private boolean isDeleted(File file) {
+		if (deletedFiles.contains(file)) {
+			return true;
+		}
+		for (Path dir = Paths.get(file.getDirectory()); dir != null; dir = dir.getParent()) {
+			if (deletedDirectories.contains(dir.toString())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean isModificationChanged(DirectoryContent content) {
+		return content.getModified() != null && !content.isUnchanged();
+	}
+
+	public Map<String, DateTime> getDirectoryModifications() {
+		return libraryPresenceDao.getDirectoryModifications();
 	}
 
 	public SearchIndexUpdateProgress getUpdateProgress() {
 		return progress;
 	}
 
+	public void setDetectRelocations(boolean detectRelocations) {
+		this.detectRelocations = detectRelocations;
+	}
+
+	public void setPresenceIndexBudget(long presenceIndexBudget) {
+		this.presenceIndexBudget = presenceIndexBudget;
+	}
+
 	public void setLibraryPresenceDao(LibraryPresenceDao libraryDao) {
 		this.libraryPresenceDao = libraryDao;
 	}
@@ -4,16 +4,23 @@ import static com.github.hakko.musiccabinet.service.library.LibraryUtil.FINISHED
 import static com.github.hakko.musiccabinet.service.library.LibraryUtil.msg;
 
 import java.io.IOException;
+import java.nio.file.FileVisitOption;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.ReentrantLock;
 
+import org.joda.time.DateTime;
 import org.springframework.core.task.TaskExecutor;
 import org.springframework.integration.core.PollableChannel;
 
@@ -21,6 +28,8 @@ import com.github.hakko.musiccabinet.domain.model.aggr.SearchIndexUpdateProgress
 import com.github.hakko.musiccabinet.domain.model.library.File;
 import com.github.hakko.musiccabinet.exception.ApplicationException;
 import com.github.hakko.musiccabinet.io.LibraryScanner;
+import com.github.hakko.musiccabinet.io.ParallelLibraryScanner;
+import com.github.hakko.musiccabinet.io.ScanThrottle;
 import com.github.hakko.musiccabinet.log.Logger;
 
 /*
@@ -30,6 +39,15 @@ import com.github.hakko.musiccabinet.log.Logger;
  * This class acts as a starting point that initiates all filters (running
  * them as separate threads), and sends out a finishing message when the
  * scanning is done.
+ *
+ * A scan can run in background mode, where disk reads of the directory walk
+ * and the meta data reads are limited by scanThrottle, to not disturb users
+ * streaming music meanwhile. Incremental updates of changed directories always
+ * run in background mode.
+ *
+ * Only one scan runs at a time, as all scans share the same channels and
+ * filters. A full scan waits for a running one to finish, while an incremental
+ * update fails right away, to be retried by the caller.
  */
 public class LibraryScannerService {
 
@@ -45,7 +63,16 @@ public class LibraryScannerService {
 	
 	protected String fileSeparator = java.io.File.separator;
 
-	private boolean isLibraryBeingScanned = false;
+	// number of threads listing directories, per disk/mount. 1 = walk sequentially.
+	private int scannerParallelism = 1;
+
+	// if true, directories with unchanged modification time are re-read as well.
+	private boolean fullVerify = false;
+
+	// limits rate of disk reads in background mode. shared with metadata service.
+	private ScanThrottle scanThrottle = new ScanThrottle();
+
+	private final ReentrantLock scanLock = new ReentrantLock();
 	
 	private static final Logger LOG = Logger.getLogger(LibraryScannerService.class);
 
@@ -54,14 +81,17 @@ public class LibraryScannerService {
 	}
 
 	public void update(Set<String> paths, boolean isRootPaths) throws ApplicationException {
-		isLibraryBeingScanned = true;
+		update(paths, isRootPaths, false);
+	}
+
+	public void update(Set<String> paths, boolean isRootPaths, boolean inBackground) throws ApplicationException {
+		scanLock.lock();
 		try {
+			scanThrottle.setActive(inBackground);
 			clearImport();
 			startReceivingServices();
 			Set<String> rootPaths = getRootPaths(paths);
-			for (String path : rootPaths) {
-				Files.walkFileTree(Paths.get(path), new LibraryScanner(libraryPresenceChannel));
-			}
+			walkFileTrees(rootPaths);
 			if (isRootPaths) {
 				libraryPresenceChannel.send(msg(null, rootPaths, new HashSet<File>()));
 			}
@@ -70,14 +100,70 @@ public class LibraryScannerService {
 			updateLibrary();
 		} catch (IOException | InterruptedException e) {
 			throw new ApplicationException("Scanning aborted due to error!", e);
+		} finally {
+			scanThrottle.setActive(false);
+			scanLock.unlock();
+		}
+	}
+	
+	/*
+	 * Reads just the given directories, not their subdirectories, and updates
+	 * the library with their content. Used for incremental updates of directories
+	 * known to have changed. Directories that no longer exist are ignored, since
+	 * their parent directory has changed too.
+	 */
+	public void updateDirectories(Set<String> directories) throws ApplicationException {
+		if (!scanLock.tryLock()) {
+			throw new ApplicationException("Library is already being scanned!");
+		}
+		try {
+			scanThrottle.setActive(true);
+			clearImport();
+			startReceivingServices();
+			Map<String, DateTime> noModifications = new HashMap<>();
+			for (String directory : directories) {
+				Path path = Paths.get(directory);
+				if (Files.isDirectory(path)) {
+					LibraryScanner scanner = new LibraryScanner(libraryPresenceChannel, noModifications, false);
+					scanner.setScanThrottle(scanThrottle);
+					Files.walkFileTree(path, EnumSet.noneOf(FileVisitOption.class), 1, scanner);
+				}
+			}
+			libraryPresenceChannel.send(FINISHED_MESSAGE);
+			workerThreads.await();
+			updateLibrary();
+		} catch (IOException | InterruptedException e) {
+			throw new ApplicationException("Update aborted due to error!", e);
+		} finally {
+			scanThrottle.setActive(false);
+			scanLock.unlock();
+		}
+	}
+	
+	private void walkFileTrees(Set<String> rootPaths) throws IOException, InterruptedException {
+		Map<String, DateTime> modifications = libraryPresenceService.getDirectoryModifications();
+		if (scannerParallelism > 1) {
+			ParallelLibraryScanner scanner = new ParallelLibraryScanner(
+					libraryPresenceChannel, scannerParallelism, modifications, !fullVerify);
+			scanner.setScanThrottle(scanThrottle);
+			scanner.scan(rootPaths);
+		} else {
+			for (String path : rootPaths) {
+				LibraryScanner scanner = new LibraryScanner(
+						libraryPresenceChannel, modifications, !fullVerify);
+				scanner.setScanThrottle(scanThrottle);
+				Files.walkFileTree(Paths.get(path), scanner);
+			}
 		}
-		isLibraryBeingScanned = false;
 	}
 	
 	public void delete(Set<String> paths) throws ApplicationException {
-		isLibraryBeingScanned = true;
-		libraryDeletionService.delete(paths);
-		isLibraryBeingScanned = false;
+		scanLock.lock();
+		try {
+			libraryDeletionService.delete(paths);
+		} finally {
+			scanLock.unlock();
+		}
 	}
 
 	/*
@@ -100,18 +186,35 @@ public class LibraryScannerService {
 	}
 	
 	public boolean isLibraryBeingScanned() {
-		return isLibraryBeingScanned;
+		return scanLock.isLocked();
+	}
+
+	/*
+	 * Lets a background scan back off when users are served slowly, see
+	 * ScanThrottle.
+	 */
+	public void reportForegroundLatency(long millis) {
+		scanThrottle.reportForegroundLatency(millis);
 	}
 	
 	public List<SearchIndexUpdateProgress> getUpdateProgress() {
 		List<SearchIndexUpdateProgress> updateProgress = new ArrayList<>();
 		updateProgress.add(libraryPresenceService.getUpdateProgress());
 		updateProgress.add(libraryMetadataService.getUpdateProgress());
+		if (libraryMetadataService.getMetadataWorkers() > 1) {
+			updateProgress.addAll(libraryMetadataService.getWorkerProgress());
+		}
+		updateProgress.add(libraryAdditionService.getUpdateProgress());
+		updateProgress.add(libraryDeletionService.getUpdateProgress());
 		return updateProgress;
 	}
 	
+	/*
+	 * Additions left by an interrupted scan are merged rather than cleared,
+	 * see LibraryAdditionService. Deletions are always found again.
+	 */
 	private void clearImport() {
-		libraryAdditionService.clearImport();
+		libraryAdditionService.resumeImport();
 		libraryDeletionService.clearImport();
 	}
 	
@@ -168,6 +271,18 @@ public class LibraryScannerService {
 		this.libraryDeletionService = libraryDeletionService;
 	}
 
+	public void setScannerParallelism(int scannerParallelism) {
+		this.scannerParallelism = scannerParallelism;
+	}
+
+	public void setScanThrottle(ScanThrottle scanThrottle) {
+		this.scanThrottle = scanThrottle;
+	}
+
+	public void setFullVerify(boolean fullVerify) {
+		this.fullVerify = fullVerify;
+	}
+
 	protected void setFileSeparator(String fileSeparator) {
 		this.fileSeparator = fileSeparator;
 	}
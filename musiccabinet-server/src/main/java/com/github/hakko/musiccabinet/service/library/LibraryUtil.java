@@ -4,6 +4,7 @@ import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
 
+import org.joda.time.DateTime;
 import org.springframework.integration.Message;
 import org.springframework.integration.message.GenericMessage;
 import org.springframework.integration.support.MessageBuilder;
@@ -24,6 +25,13 @@ public class LibraryUtil {
 		return new GenericMessage<DirectoryContent>(
 				new DirectoryContent(directory, subDirectories, files));
 	}
+
+	public static GenericMessage<DirectoryContent> msg(String directory, DateTime modified,
+			Set<String> subDirectories, Set<File> files) {
+		DirectoryContent content = new DirectoryContent(directory, subDirectories, files);
+		content.setModified(modified);
+		return new GenericMessage<DirectoryContent>(content);
+	}
 	
 	@SafeVarargs
 	public static <T> Set<T> set(T... t) {
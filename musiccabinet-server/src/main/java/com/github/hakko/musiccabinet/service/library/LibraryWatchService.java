@@ -0,0 +1,326 @@
+package com.github.hakko.musiccabinet.service.library;
+
+import static java.nio.file.FileVisitResult.CONTINUE;
+import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.github.hakko.musiccabinet.exception.ApplicationException;
+import com.github.hakko.musiccabinet.log.Logger;
+
+/*
+ * Keeps the library up to date by watching root paths for changes, as an
+ * alternative to re-scanning them from time to time.
+ *
+ * Every directory below the root paths is registered with a WatchService.
+ * Root paths on file stores where change events aren't reliable (network
+ * mounts, see pollingFileStoreTypes) are instead walked every pollMillis,
+ * looking for directories with a changed modification time.
+ *
+ * Changed directories are collected until they have been quiet for
+ * debounceMillis, and then passed to LibraryScannerService.updateDirectories
+ * in batches of at most maxDirectoriesPerUpdate. That only reads the content
+ * of the changed directories, and runs add/delete_from_library on them.
+ *
+ * A new directory can only be added to the library along with, or after, the
+ * directory it was created in. A changed directory is therefore never passed
+ * on before the changed directories above it.
+ */
+public class LibraryWatchService {
+
+	private LibraryScannerService libraryScannerService;
+
+	private long debounceMillis = 2000;
+	private long pollMillis = 60000;
+	private int maxDirectoriesPerUpdate = 100;
+	private Set<String> pollingFileStoreTypes = new HashSet<>();
+
+	private WatchService watchService;
+	private Map<WatchKey, Path> watchKeys = new ConcurrentHashMap<>();
+	private Map<Path, Long> polledModifications = new ConcurrentHashMap<>();
+	private Set<Path> polledRoots = new HashSet<>();
+	private ScheduledExecutorService executor;
+
+	// directory -> time of latest change event
+	private ConcurrentMap<String, Long> changedDirectories = new ConcurrentHashMap<>();
+
+	private static final Logger LOG = Logger.getLogger(LibraryWatchService.class);
+
+	public synchronized void start(Set<String> rootPaths) throws ApplicationException {
+		if (isWatching()) {
+			stop();
+		}
+		try {
+			watchService = FileSystems.getDefault().newWatchService();
+			polledRoots = new HashSet<>();
+			for (String rootPath : rootPaths) {
+				Path root = Paths.get(rootPath);
+				if (pollingFileStoreTypes.contains(Files.getFileStore(root).type())) {
+					polledRoots.add(root);
+				} else {
+					try {
+						registerTree(root, false);
+					} catch (IOException e) {
+						LOG.warn("Could not watch " + root + ", polling it instead.", e);
+						polledRoots.add(root);
+					}
+				}
+			}
+			for (Path root : polledRoots) {
+				pollTree(root, false);
+			}
+		} catch (IOException e) {
+			throw new ApplicationException("Could not start watching library!", e);
+		}
+
+		executor = Executors.newScheduledThreadPool(2);
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				processEvents();
+			}
+		});
+		executor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				updateChangedDirectories();
+			}
+		}, debounceMillis, Math.max(1, debounceMillis / 2), TimeUnit.MILLISECONDS);
+		if (!polledRoots.isEmpty()) {
+			executor.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					for (Path root : polledRoots) {
+						try {
+							pollTree(root, true);
+						} catch (IOException e) {
+							LOG.warn("Could not poll " + root + " for changes!", e);
+						}
+					}
+				}
+			}, pollMillis, pollMillis, TimeUnit.MILLISECONDS);
+		}
+		LOG.info("Watching " + watchKeys.size() + " directories, polling " + polledRoots);
+	}
+
+	public synchronized void stop() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+		if (watchService != null) {
+			try {
+				watchService.close();
+			} catch (IOException e) {
+				LOG.warn("Could not close watch service!", e);
+			}
+			watchService = null;
+		}
+		watchKeys.clear();
+		polledModifications.clear();
+		changedDirectories.clear();
+	}
+
+	public synchronized boolean isWatching() {
+		return executor != null;
+	}
+
+	/*
+	 * Registers dir and all directories below it. New directories are also
+	 * marked as changed, as they have content that isn't in the library yet.
+	 */
+	private void registerTree(Path dir, final boolean isNew) throws IOException {
+		Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				watchKeys.put(dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), dir);
+				if (isNew) {
+					directoryChanged(dir);
+				}
+				return CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(Path file, IOException e) {
+				LOG.warn("Could not watch " + file, e);
+				return CONTINUE;
+			}
+		});
+	}
+
+	private void processEvents() {
+		while (true) {
+			WatchKey key;
+			try {
+				key = watchService.take();
+			} catch (InterruptedException | ClosedWatchServiceException e) {
+				return;
+			}
+			Path dir = watchKeys.get(key);
+			if (dir != null) {
+				for (WatchEvent<?> event : key.pollEvents()) {
+					if (event.kind() == OVERFLOW) {
+						// events are lost, re-read the whole tree
+						reregisterTree(dir);
+						continue;
+					}
+					Path child = dir.resolve((Path) event.context());
+					boolean isDirectory = Files.isDirectory(child, NOFOLLOW_LINKS);
+					if (event.kind() == ENTRY_CREATE && isDirectory) {
+						reregisterTree(child);
+					}
+					// a modified subdirectory reports its own changes
+					if (!(event.kind() == ENTRY_MODIFY && isDirectory)) {
+						directoryChanged(dir);
+					}
+				}
+			}
+			if (!key.reset()) {
+				watchKeys.remove(key);
+			}
+		}
+	}
+
+	private void reregisterTree(Path dir) {
+		try {
+			registerTree(dir, true);
+		} catch (IOException e) {
+			LOG.warn("Could not watch " + dir, e);
+		}
+	}
+
+	/*
+	 * Walks all directories below root, and marks those with a new modification
+	 * time as changed. The first walk just stores the modification times.
+	 */
+	private void pollTree(Path root, final boolean markChanges) throws IOException {
+		final Map<Path, Long> modifications = new HashMap<>();
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+				long modified = attrs.lastModifiedTime().toMillis();
+				modifications.put(dir, modified);
+				Long previous = polledModifications.get(dir);
+				if (markChanges && (previous == null || previous != modified)) {
+					directoryChanged(dir);
+				}
+				return CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(Path file, IOException e) {
+				return CONTINUE;
+			}
+		});
+		Iterator<Path> it = polledModifications.keySet().iterator();
+		while (it.hasNext()) {
+			if (it.next().startsWith(root)) {
+				it.remove();
+			}
+		}
+		polledModifications.putAll(modifications);
+	}
+
+	protected void directoryChanged(Path dir) {
+		changedDirectories.put(dir.toString(), System.currentTimeMillis());
+	}
+
+	/*
+	 * Passes on directories that haven't changed for debounceMillis, unless
+	 * a library scan is already running. Directories are picked in path order,
+	 * so that directories above a directory come first. Directories that
+	 * couldn't be updated are marked as changed again, to be retried.
+	 */
+	protected void updateChangedDirectories() {
+		if (changedDirectories.isEmpty() || libraryScannerService.isLibraryBeingScanned()) {
+			return;
+		}
+		long quietSince = System.currentTimeMillis() - debounceMillis;
+		Set<String> directories = new HashSet<>();
+		for (String directory : new TreeSet<>(changedDirectories.keySet())) {
+			if (directories.size() >= maxDirectoriesPerUpdate) {
+				break;
+			}
+			Long changed = changedDirectories.get(directory);
+			if (changed != null && changed <= quietSince && !hasChangedParent(directory, directories)) {
+				directories.add(directory);
+			}
+		}
+		if (directories.isEmpty()) {
+			return;
+		}
+		for (String directory : directories) {
+			changedDirectories.remove(directory);
+		}
+		try {
+			LOG.debug("Updating changed directories " + directories);
+			libraryScannerService.updateDirectories(directories);
+		} catch (ApplicationException | RuntimeException e) {
+			LOG.warn("Could not update changed directories " + directories, e);
+			for (String directory : directories) {
+				changedDirectories.putIfAbsent(directory, System.currentTimeMillis());
+			}
+		}
+	}
+
+	/*
+	 * Returns true if a directory above given directory has changed, and
+	 * isn't about to be updated along with it.
+	 */
+	private boolean hasChangedParent(String directory, Set<String> directories) {
+		for (Path parent = Paths.get(directory).getParent(); parent != null; parent = parent.getParent()) {
+			String path = parent.toString();
+			if (changedDirectories.containsKey(path) && !directories.contains(path)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public void setLibraryScannerService(LibraryScannerService libraryScannerService) {
+		this.libraryScannerService = libraryScannerService;
+	}
+
+	public void setDebounceMillis(long debounceMillis) {
+		this.debounceMillis = debounceMillis;
+	}
+
+	public void setPollMillis(long pollMillis) {
+		this.pollMillis = pollMillis;
+	}
+
+	public void setMaxDirectoriesPerUpdate(int maxDirectoriesPerUpdate) {
+		this.maxDirectoriesPerUpdate = maxDirectoriesPerUpdate;
+	}
+
+	public void setPollingFileStoreTypes(Set<String> pollingFileStoreTypes) {
+		this.pollingFileStoreTypes = pollingFileStoreTypes;
+	}
+
+}
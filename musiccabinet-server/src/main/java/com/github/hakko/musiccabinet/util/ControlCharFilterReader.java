@@ -0,0 +1,36 @@
+package com.github.hakko.musiccabinet.util;
+
+import static com.github.hakko.musiccabinet.util.XMLUtil.isIllegalControlChar;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/*
+ * Reader that replaces control characters that are illegal in XML with spaces,
+ * like XMLUtil.removeISOControlChars() but while reading.
+ */
+public class ControlCharFilterReader extends FilterReader {
+
+	public ControlCharFilterReader(Reader in) {
+		super(in);
+	}
+
+	@Override
+	public int read() throws IOException {
+		int c = super.read();
+		return c != -1 && isIllegalControlChar((char) c) ? ' ' : c;
+	}
+
+	@Override
+	public int read(char[] cbuf, int off, int len) throws IOException {
+		int n = super.read(cbuf, off, len);
+		for (int i = off; i < off + n; i++) {
+			if (isIllegalControlChar(cbuf[i])) {
+				cbuf[i] = ' ';
+			}
+		}
+		return n;
+	}
+
+}
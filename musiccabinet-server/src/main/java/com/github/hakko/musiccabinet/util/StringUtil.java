@@ -2,9 +2,11 @@ package com.github.hakko.musiccabinet.util;
 
 import static com.github.hakko.musiccabinet.configuration.CharSet.UTF8;
 
-import java.io.ByteArrayInputStream;
 import java.io.InputStream;
-import java.io.UnsupportedEncodingException;
+import java.io.StringReader;
+import java.nio.charset.UnsupportedCharsetException;
+
+import org.apache.commons.io.input.ReaderInputStream;
 
 import com.github.hakko.musiccabinet.exception.ApplicationException;
 
@@ -16,11 +18,16 @@ public class StringUtil {
 		this.str = str;
 	}
 	
+	/*
+	 * Returns string as UTF-8 encoded stream. The string is encoded while read,
+	 * rather than copied into a byte array up front, as responses parsed this
+	 * way can be big.
+	 */
 	public InputStream getInputStream() throws ApplicationException {
 		InputStream is;
 		try {
-			is = new ByteArrayInputStream(str.getBytes(UTF8));
-		} catch (UnsupportedEncodingException e) {
+			is = new ReaderInputStream(new StringReader(str), UTF8);
+		} catch (UnsupportedCharsetException e) {
 			throw new ApplicationException("UTF-8 encoding not supported!", e);
 		}
 		return is;
@@ -2,16 +2,29 @@ package com.github.hakko.musiccabinet.util;
 
 public class XMLUtil {
 
+	/*
+	 * Replaces control characters that are illegal in XML with spaces.
+	 * Returns input as is if there are none, which is the normal case.
+	 */
 	public static String removeISOControlChars(String input) {
+		int i = 0, length = input.length();
+		while (i < length && !isIllegalControlChar(input.charAt(i))) {
+			i++;
+		}
+		if (i == length) {
+			return input;
+		}
 		char[] chars = input.toCharArray();
-		for (int i = 0; i < chars.length; i++) {
-			char c = chars[i];
-			if (Character.isISOControl(c) && c != 0x09
-					&& c != 0x0A && c != 0x0D) {
+		for (; i < chars.length; i++) {
+			if (isIllegalControlChar(chars[i])) {
 				chars[i] = ' ';
 			}
 		}
 		return new String(chars);
 	}
 
+	public static boolean isIllegalControlChar(char c) {
+		return Character.isISOControl(c) && c != 0x09 && c != 0x0A && c != 0x0D;
+	}
+
 }
\ No newline at end of file
@@ -0,0 +1,170 @@
+package com.github.hakko.musiccabinet.ws;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.apache.http.params.HttpConnectionParams.setConnectionTimeout;
+import static org.apache.http.params.HttpConnectionParams.setSoTimeout;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.conn.params.ConnRoutePNames;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.DecompressingHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.protocol.HttpContext;
+
+import com.github.hakko.musiccabinet.log.Logger;
+
+/*
+ * HTTP client shared by all web service clients (last.fm and MusicBrainz).
+ *
+ * Connections are pooled and kept alive between calls, with a limit per host
+ * (maxConnectionsPerHost, or hostConnections for specific hosts) and in total.
+ * Responses are requested gzip compressed, and decompressed while read.
+ *
+ * Connections that have been idle for idleMillis are closed by a background
+ * thread, so that we don't try to reuse connections the server closed long ago.
+ *
+ * Calls can be routed through an HTTP proxy, given as host:port. Besides
+ * for networks that require one, this lets tests point all clients to a
+ * local stand-in for last.fm and MusicBrainz.
+ *
+ * There's one instance per JVM, see getDefault(), which Spring configures and
+ * closes.
+ */
+public class PooledHttpClient extends DecompressingHttpClient {
+
+	private final PoolingClientConnectionManager connectionManager;
+	private final DefaultHttpClient backend;
+
+	private Map<String, Integer> hostConnections = new HashMap<>();
+	private HttpHost proxy;
+
+	private long keepAliveMillis = 60 * 1000;
+	private volatile long idleMillis = 30 * 1000;
+
+	private Thread evictor;
+
+	private static final int TIMEOUT = 60 * 1000; // 60 sec
+
+	private static PooledHttpClient defaultClient;
+
+	private static final Logger LOG = Logger.getLogger(PooledHttpClient.class);
+
+	public static synchronized PooledHttpClient getDefault() {
+		if (defaultClient == null) {
+			defaultClient = new PooledHttpClient(new PoolingClientConnectionManager());
+		}
+		return defaultClient;
+	}
+
+	private PooledHttpClient(PoolingClientConnectionManager connectionManager) {
+		this(connectionManager, new DefaultHttpClient(connectionManager));
+	}
+
+	private PooledHttpClient(PoolingClientConnectionManager connectionManager, DefaultHttpClient backend) {
+		super(backend);
+		this.connectionManager = connectionManager;
+		this.backend = backend;
+		setConnectionTimeout(backend.getParams(), TIMEOUT);
+		setSoTimeout(backend.getParams(), TIMEOUT);
+		backend.setKeepAliveStrategy(new DefaultConnectionKeepAliveStrategy() {
+			@Override
+			public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+				long duration = super.getKeepAliveDuration(response, context);
+				return duration < 0 ? keepAliveMillis : Math.min(duration, keepAliveMillis);
+			}
+		});
+		startEvictor();
+	}
+
+	private void startEvictor() {
+		evictor = new Thread("http-connection-evictor") {
+			@Override
+			public void run() {
+				try {
+					while (!isInterrupted()) {
+						sleep(Math.max(1000, idleMillis / 2));
+						connectionManager.closeExpiredConnections();
+						connectionManager.closeIdleConnections(idleMillis, MILLISECONDS);
+					}
+				} catch (InterruptedException e) {
+					// closed
+				}
+			}
+		};
+		evictor.setDaemon(true);
+		evictor.start();
+	}
+
+	public void close() {
+		LOG.debug("Closing HTTP connections: " + connectionManager.getTotalStats());
+		evictor.interrupt();
+		connectionManager.shutdown();
+		synchronized (PooledHttpClient.class) {
+			if (defaultClient == this) {
+				defaultClient = null;
+			}
+		}
+	}
+
+	public void setMaxConnections(int maxConnections) {
+		connectionManager.setMaxTotal(maxConnections);
+	}
+
+	public void setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+		connectionManager.setDefaultMaxPerRoute(maxConnectionsPerHost);
+	}
+
+	/*
+	 * Sets max number of connections to specific hosts (over http), overriding
+	 * maxConnectionsPerHost.
+	 */
+	public void setHostConnections(Map<String, Integer> hostConnections) {
+		this.hostConnections = hostConnections;
+		setMaxPerRoute();
+	}
+
+	private void setMaxPerRoute() {
+		for (String host : hostConnections.keySet()) {
+			HttpHost target = new HttpHost(host);
+			connectionManager.setMaxPerRoute(proxy == null ? new HttpRoute(target) :
+				new HttpRoute(target, null, proxy, false), hostConnections.get(host));
+		}
+	}
+
+	public void setTimeoutMillis(int timeoutMillis) {
+		setConnectionTimeout(backend.getParams(), timeoutMillis);
+		setSoTimeout(backend.getParams(), timeoutMillis);
+	}
+
+	/*
+	 * Sets proxy as host:port, an empty value means no proxy.
+	 */
+	public void setProxy(String proxy) {
+		if (StringUtils.isBlank(proxy)) {
+			this.proxy = null;
+			backend.getParams().removeParameter(ConnRoutePNames.DEFAULT_PROXY);
+		} else {
+			String[] hostAndPort = proxy.trim().split(":");
+			this.proxy = new HttpHost(hostAndPort[0],
+					hostAndPort.length > 1 ? Integer.parseInt(hostAndPort[1]) : 80);
+			backend.getParams().setParameter(ConnRoutePNames.DEFAULT_PROXY, this.proxy);
+		}
+		setMaxPerRoute();
+	}
+
+	public void setKeepAliveMillis(long keepAliveMillis) {
+		this.keepAliveMillis = keepAliveMillis;
+	}
+
+	public void setIdleMillis(long idleMillis) {
+		this.idleMillis = idleMillis;
+	}
+
+}
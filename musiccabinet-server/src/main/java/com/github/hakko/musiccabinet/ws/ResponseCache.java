@@ -0,0 +1,148 @@
+package com.github.hakko.musiccabinet.ws;
+
+import static com.github.hakko.musiccabinet.configuration.CharSet.UTF8;
+import static java.util.concurrent.TimeUnit.DAYS;
+import static org.apache.commons.codec.binary.Hex.encodeHex;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.http.NameValuePair;
+
+import com.github.hakko.musiccabinet.domain.model.library.WebserviceInvocation.Calltype;
+import com.github.hakko.musiccabinet.log.Logger;
+
+/*
+ * Optional on-disk cache of raw web service responses (last.fm and MusicBrainz),
+ * meant to make a database rebuild run without re-downloading everything.
+ *
+ * Responses are stored gzipped, one file per call, under a directory per
+ * call type. The file name is a hash of the service path and the call
+ * parameters, sorted by name, Unicode normalized and without the api key
+ * and signature. Responses older than the days to cache of their call type
+ * are not used.
+ *
+ * The cache is disabled unless a directory is set. Failing to read or write
+ * the cache is logged, and the call is made as if there was no cache.
+ */
+public class ResponseCache {
+
+	private File directory;
+
+	private static final String PARAM_API_KEY = "api_key";
+	private static final String PARAM_API_SIG = "api_sig";
+
+	private static final Logger LOG = Logger.getLogger(ResponseCache.class);
+
+	public boolean isEnabled() {
+		return directory != null;
+	}
+
+	/*
+	 * Returns cached response for a call, or null if there is none recent enough.
+	 */
+	public String get(Calltype callType, String path, List<NameValuePair> params) {
+		if (!isEnabled()) {
+			return null;
+		}
+		File file = getFile(callType, path, params);
+		long maxAge = DAYS.toMillis(callType.getDaysToCache());
+		if (!file.exists() || System.currentTimeMillis() - file.lastModified() > maxAge) {
+			return null;
+		}
+		try (Reader reader = new InputStreamReader(
+				new GZIPInputStream(new FileInputStream(file)), UTF8)) {
+			StringBuilder sb = new StringBuilder();
+			char[] buffer = new char[8192];
+			for (int n; (n = reader.read(buffer)) != -1;) {
+				sb.append(buffer, 0, n);
+			}
+			return sb.toString();
+		} catch (IOException e) {
+			LOG.warn("Could not read cached response " + file, e);
+			return null;
+		}
+	}
+
+	public void put(Calltype callType, String path, List<NameValuePair> params, String response) {
+		if (!isEnabled()) {
+			return;
+		}
+		File file = getFile(callType, path, params);
+		File tmpFile = new File(file.getPath() + ".tmp");
+		file.getParentFile().mkdirs();
+		try {
+			try (Writer writer = new OutputStreamWriter(
+					new GZIPOutputStream(new FileOutputStream(tmpFile)), UTF8)) {
+				writer.write(response);
+			}
+			if (!tmpFile.renameTo(file) && !(file.delete() && tmpFile.renameTo(file))) {
+				throw new IOException("Could not rename " + tmpFile);
+			}
+		} catch (IOException e) {
+			LOG.warn("Could not cache response " + file, e);
+			tmpFile.delete();
+		}
+	}
+
+	protected File getFile(Calltype callType, String path, List<NameValuePair> params) {
+		String hash = getHash(getKey(path, params));
+		return new File(new File(new File(directory, callType.name().toLowerCase()),
+				hash.substring(0, 2)), hash + ".gz");
+	}
+
+	protected String getKey(String path, List<NameValuePair> params) {
+		List<NameValuePair> sortedParams = new ArrayList<>(params);
+		Collections.sort(sortedParams, paramComparator);
+		StringBuilder sb = new StringBuilder(path);
+		for (NameValuePair param : sortedParams) {
+			if (!PARAM_API_KEY.equals(param.getName()) && !PARAM_API_SIG.equals(param.getName())) {
+				sb.append('\n').append(param.getName()).append('=').append(
+						Normalizer.normalize(StringUtils.trimToEmpty(param.getValue()), Normalizer.Form.NFC));
+			}
+		}
+		return sb.toString();
+	}
+
+	private String getHash(String key) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-1");
+			return new String(encodeHex(md.digest(key.getBytes(UTF8))));
+		} catch (NoSuchAlgorithmException | IOException e) {
+			throw new IllegalStateException("Could not hash cache key!", e);
+		}
+	}
+
+	private Comparator<NameValuePair> paramComparator = new Comparator<NameValuePair>() {
+		@Override
+		public int compare(NameValuePair nvp1, NameValuePair nvp2) {
+			return nvp1.getName().compareTo(nvp2.getName());
+		}
+	};
+
+	// Spring setter(s)
+
+	/*
+	 * Sets cache directory, an empty value disables the cache.
+	 */
+	public void setDirectory(String directory) {
+		this.directory = StringUtils.isBlank(directory) ? null : new File(directory);
+	}
+
+}
@@ -15,13 +15,11 @@ import java.util.List;
 
 import org.apache.http.NameValuePair;
 import org.apache.http.client.HttpClient;
-import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.message.BasicNameValuePair;
-import org.apache.http.params.HttpConnectionParams;
-import org.apache.http.params.HttpParams;
 
 import com.github.hakko.musiccabinet.exception.ApplicationException;
 import com.github.hakko.musiccabinet.log.Logger;
+import com.github.hakko.musiccabinet.ws.PooledHttpClient;
 import com.github.hakko.musiccabinet.util.ResourceUtil;
 
 public abstract class AbstractWSClient {
@@ -64,11 +62,8 @@ public abstract class AbstractWSClient {
 	protected static final Logger LOG = Logger.getLogger(AbstractWSClient.class);
 	
 	public AbstractWSClient() {
-		// default values for a production environment
-		httpClient = new DefaultHttpClient();
-		HttpParams params = httpClient.getParams();
-		HttpConnectionParams.setConnectionTimeout(params, TIMEOUT);
-		HttpConnectionParams.setSoTimeout(params, TIMEOUT);
+		// default value for a production environment
+		httpClient = PooledHttpClient.getDefault();
 	}
 
 	protected List<NameValuePair> getDefaultParameterList() {
@@ -105,11 +100,16 @@ public abstract class AbstractWSClient {
 		}
 	};
 	
+	/*
+	 * Shuts down a client of our own. The shared pooled client is closed by Spring.
+	 */
 	public void close() {
-		httpClient.getConnectionManager().shutdown();
+		if (!(httpClient instanceof PooledHttpClient)) {
+			httpClient.getConnectionManager().shutdown();
+		}
 	}
 	
-	protected HttpClient getHttpClient() {
+	public HttpClient getHttpClient() {
 		return httpClient;
 	}
 
@@ -6,6 +6,13 @@ import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.http.NameValuePair;
 import org.apache.http.client.HttpClient;
@@ -13,18 +20,23 @@ import org.apache.http.client.HttpResponseException;
 import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.utils.URIBuilder;
-import org.apache.http.impl.client.BasicResponseHandler;
 
 import com.github.hakko.musiccabinet.domain.model.library.WebserviceInvocation;
 import com.github.hakko.musiccabinet.exception.ApplicationException;
+import com.github.hakko.musiccabinet.service.lastfm.CircuitBreaker;
 import com.github.hakko.musiccabinet.service.lastfm.ThrottleService;
+import com.github.hakko.musiccabinet.service.lastfm.ThrottleService.Priority;
 import com.github.hakko.musiccabinet.service.lastfm.WebserviceHistoryService;
+import com.github.hakko.musiccabinet.ws.ResponseCache;
 
 /*
  * Base class for all Last.fm web service clients.
  * 
  * Holds common functionality (validating invocation cache, making HTTP request,
  * parsing response envelope, assembling response object with data/error codes).
+ *
+ * Calls are made asynchronously on a shared WSRequestExecutor. The synchronous
+ * executeWSRequest() just waits for the asynchronous call to complete.
  */
 public abstract class AbstractWSGetClient extends AbstractWSClient {
 	
@@ -50,16 +62,36 @@ public abstract class AbstractWSGetClient extends AbstractWSClient {
 	 */
 	private ThrottleService throttleService;
 
+	/*
+	 * Circuit breaker shared by all clients, holding calls back while Last.fm is down.
+	 */
+	private CircuitBreaker circuitBreaker;
+
+	private WSRequestExecutor requestExecutor;
+
+	/*
+	 * Optional cache of raw responses, consulted for logged calls before
+	 * calling Last.fm.
+	 */
+	private ResponseCache responseCache;
+
+	/*
+	 * Calls in flight, by URI. Identical calls made meanwhile share their response.
+	 */
+	private final ConcurrentMap<String, Call> inFlightCalls = new ConcurrentHashMap<>();
+
 	protected final WSConfiguration wsConfiguration;
 
+	protected static final long INITIAL_BACKOFF_MS = 5 * 1000;
+
 	public AbstractWSGetClient() {
-		super();
-		this.wsConfiguration = WSConfiguration.UNAUTHENTICATED_LOGGED;
+		this(WSConfiguration.UNAUTHENTICATED_LOGGED);
 	}
 	
 	public AbstractWSGetClient(WSConfiguration wsConfiguration) {
 		super();
 		this.wsConfiguration = wsConfiguration;
+		this.requestExecutor = WSRequestExecutor.getDefault();
 	}
 	
 	/*
@@ -79,68 +111,247 @@ public abstract class AbstractWSGetClient extends AbstractWSClient {
 	 */
 	protected WSResponse executeWSRequest(WebserviceInvocation wi,
 			List<NameValuePair> params) throws ApplicationException {
+		Future<WSResponse> future = executeWSRequestAsync(wi, params, null);
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ApplicationException("Interrupted while waiting for Last.fm!", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof ApplicationException) {
+				throw (ApplicationException) e.getCause();
+			} else if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new ApplicationException("Last.fm call failed!", e.getCause());
+		}
+	}
+
+	/*
+	 * Asynchronous version of executeWSRequest(). Returns once the call is
+	 * scheduled, and lets callback (if not null) know the response.
+	 *
+	 * Blocks if too many calls are already pending, see WSRequestExecutor.
+	 * Calls answered by the response cache complete at once, as do calls
+	 * identical to one already in flight, once that one completes.
+	 *
+	 * The call is throttled at the priority of the calling thread, see
+	 * ThrottleService.setCallPriority().
+	 */
+	protected Future<WSResponse> executeWSRequestAsync(WebserviceInvocation wi,
+			List<NameValuePair> params, WSResponseCallback callback) throws ApplicationException {
 		if (wsConfiguration.isAuthenticated()) {
 			authenticateParameterList(params);
 		}
-		return wsConfiguration.isLogInvocation() ?
-				invokeLoggedCall(wi, params) :
-				invokeCall(params);
-	}
-	
-	private WSResponse invokeLoggedCall(WebserviceInvocation wi, List<NameValuePair> params) throws ApplicationException {
-		WSResponse wsResponse;
-		if (getHistoryService().isWebserviceInvocationAllowed(wi)) {
-			wsResponse = invokeCall(params);
-			if (wsResponse.wasCallSuccessful()) {
-				getHistoryService().logWebserviceInvocation(wi);
-			} else if (!wsResponse.isErrorRecoverable()) {
-				getHistoryService().quarantineWebserviceInvocation(wi);
+		WSResponseFuture future = new WSResponseFuture(callback);
+		Call call = new Call(wsConfiguration.isLogInvocation() ? wi : null, params, 
+				getURI(params), future, ThrottleService.getCallPriority());
+		Call inFlightCall = inFlightCalls.putIfAbsent(call.key, call);
+		if (inFlightCall != null) {
+			inFlightCall.future.addFollower(future);
+			inFlightCall.raisePriority(call.priority);
+			return future;
+		}
+		try {
+			String cachedResponse;
+			if (wsConfiguration.isLogInvocation() && 
+					!getHistoryService().isWebserviceInvocationAllowed(wi)) {
+				complete(call, new WSResponse());
+			} else if (wsConfiguration.isLogInvocation() && (cachedResponse = 
+					getCachedResponse(wi, params)) != null) {
+				WSResponse wsResponse = new WSResponse(cachedResponse);
+				logInvocation(wi, wsResponse);
+				complete(call, wsResponse);
 			} else {
-				LOG.warn("Couldn't invoke " + wi + ", response: " + wsResponse);
+				try {
+					call.pendingCalls = requestExecutor.beginCall(call.priority);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new ApplicationException("Interrupted while waiting to call Last.fm!", e);
+				}
+				schedule(call, 0);
 			}
+		} catch (ApplicationException | RuntimeException e) {
+			inFlightCalls.remove(call.key, call);
+			future.failFollowers(e);
+			throw e;
+		}
+		return future;
+	}
+
+	private void complete(Call call, WSResponse wsResponse) {
+		inFlightCalls.remove(call.key, call);
+		call.future.complete(wsResponse);
+	}
+
+	private void fail(Call call, Throwable t) {
+		inFlightCalls.remove(call.key, call);
+		call.future.fail(t);
+	}
+
+	private String getCachedResponse(WebserviceInvocation wi, List<NameValuePair> params) {
+		return responseCache == null ? null :
+			responseCache.get(wi.getCallType(), HOST + PATH, params);
+	}
+
+	/*
+	 * Schedules call to be made once delayMillis has passed, and the circuit
+	 * breaker and then the throttle service allow it.
+	 */
+	private void schedule(final Call call, long delayMillis) {
+		if (delayMillis <= 0 && circuitBreaker != null) {
+			delayMillis = circuitBreaker.acquirePermission();
+		}
+		if (delayMillis > 0) {
+			requestExecutor.schedule(new Runnable() {
+				@Override
+				public void run() {
+					schedule(call, 0);
+				}
+			}, delayMillis, TimeUnit.MILLISECONDS);
 		} else {
-			wsResponse = new WSResponse();
+			call.throttledSince = System.nanoTime();
+			throttle(call);
 		}
-		return wsResponse;
 	}
 
 	/*
-	 * Try calling the web service. If invocation fails but it is marked as
-	 * recoverable, sleep for five minutes and try again until fifteen
-	 * minutes has passed. Then give up.
+	 * Schedules call to be made as soon as the throttle service allows it,
+	 * asking again as long as it's told to wait.
 	 */
-	private WSResponse invokeCall(List<NameValuePair> params) throws ApplicationException {
-		WSResponse wsResponse = null;
-		int callAttempts = 0;
-		while (++callAttempts <= wsConfiguration.getCallAttempts()) {
-			wsResponse = invokeSingleCall(params);
-			if (wsResponse.wasCallSuccessful()) {
-				break;
-			}
-			if (!wsResponse.isErrorRecoverable()) {
-				break;
+	private void throttle(final Call call) {
+		long waitNanos = throttleService == null ? 0 :
+			throttleService.tryAcquireAllowance(call.priority, call.throttledSince);
+		if (waitNanos > 0) {
+			requestExecutor.schedule(new Runnable() {
+				@Override
+				public void run() {
+					throttle(call);
+				}
+			}, waitNanos, TimeUnit.NANOSECONDS);
+		} else {
+			requestExecutor.schedule(call, 0, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	/*
+	 * A call to the web service. If invocation fails but it is marked as
+	 * recoverable, it's re-scheduled with exponential backoff, until all call
+	 * attempts (three) are made. Then give up.
+	 */
+	private class Call implements Runnable {
+
+		private final WebserviceInvocation wi;
+		private final List<NameValuePair> params;
+		private final URI uri;
+		private final String key;
+		private final WSResponseFuture future;
+		private volatile Priority priority;
+		private Semaphore pendingCalls;
+		private long throttledSince;
+		private int callAttempts = 0;
+
+		private Call(WebserviceInvocation wi, List<NameValuePair> params, 
+				URI uri, WSResponseFuture future, Priority priority) {
+			this.wi = wi;
+			this.params = params;
+			this.uri = uri;
+			this.key = uri.toString();
+			this.future = future;
+			this.priority = priority;
+		}
+
+		/*
+		 * Identical calls of higher priority follow this one, make it keep up.
+		 */
+		private void raisePriority(Priority priority) {
+			if (priority.compareTo(this.priority) < 0) {
+				this.priority = priority;
 			}
+		}
+
+		@Override
+		public void run() {
+			WSResponse wsResponse;
 			try {
-				Thread.sleep(wsConfiguration.getSleepTime());
-			} catch (InterruptedException e) {
-				// we can't do much about this
+				wsResponse = invokeMonitoredCall(uri);
+				if (!wsResponse.wasCallSuccessful() && wsResponse.isErrorRecoverable()
+						&& ++callAttempts < wsConfiguration.getCallAttempts()) {
+					schedule(this, getBackoffMillis(callAttempts));
+					return;
+				}
+				if (wi != null) {
+					if (wsResponse.wasCallSuccessful() && responseCache != null) {
+						responseCache.put(wi.getCallType(), HOST + PATH, 
+								params, wsResponse.getResponseBody());
+					}
+					logInvocation(wi, wsResponse);
+				}
+			} catch (ApplicationException | RuntimeException e) {
+				pendingCalls.release();
+				fail(this, e);
+				return;
+			}
+			pendingCalls.release();
+			complete(this, wsResponse);
+		}
+
+	}
+
+	private void logInvocation(WebserviceInvocation wi, WSResponse wsResponse) {
+		if (wsResponse.wasCallSuccessful()) {
+			getHistoryService().logWebserviceInvocation(wi);
+		} else if (!wsResponse.isErrorRecoverable()) {
+			getHistoryService().quarantineWebserviceInvocation(wi);
+		} else {
+			LOG.warn("Couldn't invoke " + wi + ", response: " + wsResponse);
+		}
+	}
+
+	/*
+	 * Time to wait before call attempt + 1, doubling from INITIAL_BACKOFF_MS up to
+	 * the configured sleep time. Randomly shortened by up to half, to spread
+	 * retries of calls that failed at the same time.
+	 */
+	protected long getBackoffMillis(int callAttempts) {
+		long backoff = Math.min(wsConfiguration.getSleepTime(), 
+				INITIAL_BACKOFF_MS << Math.min(callAttempts - 1, 20));
+		return backoff / 2 + (long) (ThreadLocalRandom.current().nextDouble() * backoff / 2);
+	}
+
+	/*
+	 * Makes a single call, and lets the circuit breaker know whether Last.fm
+	 * seemed to be up.
+	 */
+	private WSResponse invokeMonitoredCall(URI uri) throws ApplicationException {
+		WSResponse wsResponse;
+		try {
+			wsResponse = invokeSingleCall(uri);
+		} catch (ApplicationException | RuntimeException e) {
+			if (circuitBreaker != null) {
+				circuitBreaker.onFailure();
+			}
+			throw e;
+		}
+		if (circuitBreaker != null) {
+			if (!wsResponse.wasCallSuccessful() && wsResponse.isErrorRecoverable()) {
+				circuitBreaker.onFailure();
+			} else {
+				circuitBreaker.onSuccess();
 			}
 		}
 		return wsResponse;
 	}
-	
+
 	/*
 	 * Make a single call to a Last.fm web service, and return a packaged result.
 	 */
-	private WSResponse invokeSingleCall(List<NameValuePair> params) throws ApplicationException {
-		if (throttleService != null) {
-			throttleService.awaitAllowance();
-		}
+	private WSResponse invokeSingleCall(URI uri) throws ApplicationException {
 		WSResponse wsResponse;
 		HttpClient httpClient = getHttpClient();
 		try {
-			HttpGet httpGet = new HttpGet(getURI(params));
-            ResponseHandler<String> responseHandler = new BasicResponseHandler();
+			HttpGet httpGet = new HttpGet(uri);
+            ResponseHandler<String> responseHandler = new WSResponseHandler();
             String responseBody = httpClient.execute(httpGet, responseHandler);
             wsResponse = new WSResponse(responseBody);
 		} catch (HttpResponseException e) {
@@ -186,5 +397,17 @@ public abstract class AbstractWSGetClient extends AbstractWSClient {
 	public void setThrottleService(ThrottleService throttleService) {
 		this.throttleService = throttleService;
 	}
+
+	public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+		this.circuitBreaker = circuitBreaker;
+	}
+
+	public void setRequestExecutor(WSRequestExecutor requestExecutor) {
+		this.requestExecutor = requestExecutor;
+	}
+
+	public void setResponseCache(ResponseCache responseCache) {
+		this.responseCache = responseCache;
+	}
 	
 }
\ No newline at end of file
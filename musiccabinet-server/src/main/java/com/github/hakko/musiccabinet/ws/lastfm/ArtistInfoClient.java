@@ -3,6 +3,7 @@ package com.github.hakko.musiccabinet.ws.lastfm;
 import static com.github.hakko.musiccabinet.domain.model.library.WebserviceInvocation.Calltype.ARTIST_GET_INFO;
 
 import java.util.List;
+import java.util.concurrent.Future;
 
 import org.apache.http.NameValuePair;
 import org.apache.http.message.BasicNameValuePair;
@@ -16,15 +17,22 @@ public class ArtistInfoClient extends AbstractWSGetClient {
 	public static final String METHOD = "artist.getinfo";
 	
 	public WSResponse getArtistInfo(Artist artist, String lang) throws ApplicationException {
-		WebserviceInvocation webserviceInvocation = 
-			new WebserviceInvocation(ARTIST_GET_INFO, artist);
+		return executeWSRequest(new WebserviceInvocation(ARTIST_GET_INFO, artist),
+				getParams(artist, lang));
+	}
 
+	public Future<WSResponse> getArtistInfo(Artist artist, String lang, 
+			WSResponseCallback callback) throws ApplicationException {
+		return executeWSRequestAsync(new WebserviceInvocation(ARTIST_GET_INFO, artist),
+				getParams(artist, lang), callback);
+	}
+	
+	private List<NameValuePair> getParams(Artist artist, String lang) {
 		List<NameValuePair> params = getDefaultParameterList();
 		params.add(new BasicNameValuePair(PARAM_METHOD, METHOD));
 		params.add(new BasicNameValuePair(PARAM_ARTIST, artist.getName()));
 		params.add(new BasicNameValuePair(PARAM_LANG, lang));
-		
-		return executeWSRequest(webserviceInvocation, params);
+		return params;
 	}
 	
 }
\ No newline at end of file
@@ -5,7 +5,7 @@ public class WSConfiguration {
 	private boolean authenticated;
 	private boolean logInvocation;
 	private int callAttempts;
-	private int sleepTime;
+	private int sleepTime; // max time to back off between call attempts, ms
 	
 	public static final WSConfiguration UNAUTHENTICATED_LOGGED = new WSConfiguration(false, true);
 	public static final WSConfiguration UNAUTHENTICATED_UNLOGGED = new WSConfiguration(false, false);
@@ -0,0 +1,98 @@
+package com.github.hakko.musiccabinet.ws.lastfm;
+
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.github.hakko.musiccabinet.log.Logger;
+import com.github.hakko.musiccabinet.service.lastfm.ThrottleService.Priority;
+
+/*
+ * Small pool of threads, shared by all Last.fm clients, that runs
+ * asynchronous web service calls.
+ *
+ * Calls are scheduled at the time the throttle service allows them, and
+ * retries are scheduled after the configured sleep time, so a pool thread
+ * is only busy for the actual HTTP round trip. A handful of threads is
+ * thereby enough to keep the call rate at the throttle limit, even when
+ * Last.fm is slow to respond.
+ *
+ * The number of calls submitted but not yet completed is limited to
+ * maxPendingCalls. Callers submitting beyond that block until a call
+ * completes, as to not keep a growing number of calls waiting for the
+ * throttle. Interactive calls are counted separately, so that they never
+ * wait for background calls to complete.
+ */
+public class WSRequestExecutor {
+
+	private final ScheduledThreadPoolExecutor executor;
+
+	private volatile Semaphore pendingCalls = new Semaphore(20);
+	private volatile Semaphore pendingInteractiveCalls = new Semaphore(20);
+
+	private static WSRequestExecutor defaultExecutor;
+
+	private static final Logger LOG = Logger.getLogger(WSRequestExecutor.class);
+
+	public static synchronized WSRequestExecutor getDefault() {
+		if (defaultExecutor == null) {
+			defaultExecutor = new WSRequestExecutor();
+		}
+		return defaultExecutor;
+	}
+
+	private WSRequestExecutor() {
+		executor = new ScheduledThreadPoolExecutor(4, new ThreadFactory() {
+			private AtomicInteger threads = new AtomicInteger();
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "lastfm-ws-" + threads.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/*
+	 * Waits until the number of pending calls of the same kind (interactive
+	 * or not) allows another one.
+	 */
+	protected Semaphore beginCall(Priority priority) throws InterruptedException {
+		Semaphore semaphore = priority == Priority.INTERACTIVE ? 
+				pendingInteractiveCalls : pendingCalls;
+		semaphore.acquire();
+		return semaphore;
+	}
+
+	protected void schedule(Runnable task, long delay, TimeUnit unit) {
+		executor.schedule(task, delay, unit);
+	}
+
+	public int getPendingCalls() {
+		return executor.getQueue().size() + executor.getActiveCount();
+	}
+
+	public void shutdown() {
+		LOG.debug("Shutting down, " + getPendingCalls() + " calls pending.");
+		executor.shutdownNow();
+		synchronized (WSRequestExecutor.class) {
+			if (defaultExecutor == this) {
+				defaultExecutor = null;
+			}
+		}
+	}
+
+	// Spring setters
+
+	public void setThreads(int threads) {
+		executor.setCorePoolSize(threads);
+	}
+
+	public void setMaxPendingCalls(int maxPendingCalls) {
+		pendingCalls = new Semaphore(maxPendingCalls);
+		pendingInteractiveCalls = new Semaphore(maxPendingCalls);
+	}
+
+}
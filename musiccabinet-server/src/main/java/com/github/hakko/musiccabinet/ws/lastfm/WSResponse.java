@@ -75,7 +75,7 @@ public class WSResponse {
 	}
 	
 	/*
-	 * Validates the response.
+	 * Validates the response, by its first element.
 	 * 
 	 * If the service responsed with a <lfm status="ok">, validation quietly stops.
 	 * 
@@ -89,11 +89,12 @@ public class WSResponse {
 			throw new ApplicationException(
 					"The response from Last.fm did not contain any data!");
 		}
-		if (responseBody.indexOf(RESPONSE_OK) != -1) {
+		int firstElement = getFirstElementIndex();
+		if (responseBody.startsWith(RESPONSE_OK, firstElement)) {
 			callSuccessful = true;
 			return;
 		}
-		if (responseBody.indexOf(RESPONSE_FAILED) != -1) {
+		if (responseBody.startsWith(RESPONSE_FAILED, firstElement)) {
 			parseErrorCodeAndMessage();
 		} else {
 			throw new ApplicationException(
@@ -101,6 +102,19 @@ public class WSResponse {
 		}
 	}
 	
+	/*
+	 * Returns index of the first element, skipping XML declaration,
+	 * comments and whitespace. Returns -1 if there is no element.
+	 */
+	private int getFirstElementIndex() {
+		int index = responseBody.indexOf('<');
+		while (index != -1 && index + 1 < responseBody.length() 
+				&& "?!".indexOf(responseBody.charAt(index + 1)) != -1) {
+			index = responseBody.indexOf('<', index + 1);
+		}
+		return index;
+	}
+
 	/*
 	 * Response is on the following format:
 	 * 
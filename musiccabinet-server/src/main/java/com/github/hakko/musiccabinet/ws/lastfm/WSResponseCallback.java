@@ -0,0 +1,22 @@
+package com.github.hakko.musiccabinet.ws.lastfm;
+
+/*
+ * Receives the outcome of an asynchronous Last.fm web service call.
+ *
+ * Methods are invoked on a WSRequestExecutor thread, and are not supposed
+ * to block. In particular, they should not make synchronous Last.fm calls.
+ */
+public interface WSResponseCallback {
+
+	/*
+	 * Called with the response of a call, successful or not, like the
+	 * return value of a synchronous call.
+	 */
+	void completed(WSResponse wsResponse);
+
+	/*
+	 * Called if the call couldn't be completed due to an unexpected error.
+	 */
+	void failed(Throwable t);
+
+}
@@ -0,0 +1,127 @@
+package com.github.hakko.musiccabinet.ws.lastfm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/*
+ * Future of an asynchronous Last.fm web service call, see
+ * AbstractWSGetClient.executeWSRequestAsync().
+ *
+ * Identical calls made while this one is in flight don't make calls of
+ * their own, but follow this one, and complete with the same response.
+ *
+ * Calls can't be cancelled once submitted, as they've already been given
+ * a slot by the throttle service.
+ */
+public class WSResponseFuture implements Future<WSResponse> {
+
+	private final WSResponseCallback callback;
+	private final CountDownLatch done = new CountDownLatch(1);
+
+	private volatile WSResponse wsResponse;
+	private volatile Throwable failure;
+
+	private List<WSResponseFuture> followers = new ArrayList<>();
+
+	public WSResponseFuture(WSResponseCallback callback) {
+		this.callback = callback;
+	}
+
+	/*
+	 * Lets follower complete when this future does.
+	 */
+	protected void addFollower(WSResponseFuture follower) {
+		synchronized (this) {
+			if (followers != null) {
+				followers.add(follower);
+				return;
+			}
+		}
+		if (failure != null) {
+			follower.fail(failure);
+		} else {
+			follower.complete(wsResponse);
+		}
+	}
+
+	protected void complete(WSResponse wsResponse) {
+		this.wsResponse = wsResponse;
+		for (WSResponseFuture follower : setDone()) {
+			follower.complete(wsResponse);
+		}
+		if (callback != null) {
+			callback.completed(wsResponse);
+		}
+	}
+
+	protected void fail(Throwable failure) {
+		this.failure = failure;
+		for (WSResponseFuture follower : setDone()) {
+			follower.fail(failure);
+		}
+		if (callback != null) {
+			callback.failed(failure);
+		}
+	}
+
+	/*
+	 * Fails followers only, for calls that failed before they were scheduled,
+	 * which report failure to their own caller by exception.
+	 */
+	protected void failFollowers(Throwable failure) {
+		this.failure = failure;
+		for (WSResponseFuture follower : setDone()) {
+			follower.fail(failure);
+		}
+	}
+
+	private synchronized List<WSResponseFuture> setDone() {
+		List<WSResponseFuture> currentFollowers = followers;
+		followers = null;
+		done.countDown();
+		return currentFollowers;
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return false;
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return false;
+	}
+
+	@Override
+	public boolean isDone() {
+		return done.getCount() == 0;
+	}
+
+	@Override
+	public WSResponse get() throws InterruptedException, ExecutionException {
+		done.await();
+		return getResult();
+	}
+
+	@Override
+	public WSResponse get(long timeout, TimeUnit unit) 
+			throws InterruptedException, ExecutionException, TimeoutException {
+		if (!done.await(timeout, unit)) {
+			throw new TimeoutException();
+		}
+		return getResult();
+	}
+
+	private WSResponse getResult() throws ExecutionException {
+		if (failure != null) {
+			throw new ExecutionException(failure);
+		}
+		return wsResponse;
+	}
+
+}
@@ -0,0 +1,54 @@
+package com.github.hakko.musiccabinet.ws.lastfm;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.StatusLine;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.entity.ContentType;
+import org.apache.http.util.EntityUtils;
+
+import com.github.hakko.musiccabinet.util.ControlCharFilterReader;
+
+/*
+ * Reads a Last.fm response body, like BasicResponseHandler, but decodes it
+ * straight from the (decompressing) entity stream and replaces illegal
+ * control characters while doing so, into a single String.
+ */
+public class WSResponseHandler implements ResponseHandler<String> {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int BUFFER_SIZE = 8192;
+
+	@Override
+	public String handleResponse(HttpResponse response) throws IOException {
+		StatusLine statusLine = response.getStatusLine();
+		HttpEntity entity = response.getEntity();
+		if (statusLine.getStatusCode() >= 300) {
+			EntityUtils.consume(entity);
+			throw new HttpResponseException(statusLine.getStatusCode(),
+					statusLine.getReasonPhrase());
+		}
+		if (entity == null) {
+			return null;
+		}
+		Charset charset = ContentType.getOrDefault(entity).getCharset();
+		long length = entity.getContentLength();
+		StringBuilder sb = new StringBuilder(length > 0 && length < Integer.MAX_VALUE ? 
+				(int) length : BUFFER_SIZE);
+		try (Reader reader = new ControlCharFilterReader(new InputStreamReader(
+				entity.getContent(), charset == null ? UTF8 : charset))) {
+			char[] buffer = new char[BUFFER_SIZE];
+			for (int n; (n = reader.read(buffer)) != -1;) {
+				sb.append(buffer, 0, n);
+			}
+		}
+		return sb.toString();
+	}
+
+}
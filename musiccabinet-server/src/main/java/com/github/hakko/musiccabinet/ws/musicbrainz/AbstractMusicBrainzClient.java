@@ -3,8 +3,6 @@ package com.github.hakko.musiccabinet.ws.musicbrainz;
 import static java.lang.String.format;
 import static java.lang.System.currentTimeMillis;
 import static java.lang.Thread.sleep;
-import static org.apache.http.params.HttpConnectionParams.setConnectionTimeout;
-import static org.apache.http.params.HttpConnectionParams.setSoTimeout;
 
 import java.io.IOException;
 import java.net.URI;
@@ -18,13 +16,13 @@ import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.utils.URIBuilder;
 import org.apache.http.impl.client.BasicResponseHandler;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.params.HttpParams;
 
 import com.github.hakko.musiccabinet.domain.model.library.WebserviceInvocation;
 import com.github.hakko.musiccabinet.exception.ApplicationException;
 import com.github.hakko.musiccabinet.log.Logger;
 import com.github.hakko.musiccabinet.service.lastfm.WebserviceHistoryService;
+import com.github.hakko.musiccabinet.ws.PooledHttpClient;
+import com.github.hakko.musiccabinet.ws.ResponseCache;
 
 public abstract class AbstractMusicBrainzClient {
 
@@ -32,6 +30,8 @@ public abstract class AbstractMusicBrainzClient {
 
 	private WebserviceHistoryService webserviceHistoryService;
 
+	private ResponseCache responseCache;
+
 	protected static final int TIMEOUT = 60 * 1000; // 60 sec
 	
 	public static final String HTTP = "http";
@@ -46,21 +46,26 @@ public abstract class AbstractMusicBrainzClient {
 	private static final Logger LOG = Logger.getLogger(AbstractMusicBrainzClient.class);
 	
 	public AbstractMusicBrainzClient() {
-		httpClient = new DefaultHttpClient();
-		HttpParams params = httpClient.getParams();
-		setConnectionTimeout(params, TIMEOUT);
-		setSoTimeout(params, TIMEOUT);
+		httpClient = PooledHttpClient.getDefault();
 	}
 	
 	protected String executeWSRequest(WebserviceInvocation invocation, 
 			String path, List<NameValuePair> params) throws ApplicationException {
-		String response = null;
+		String response = responseCache == null ? null : 
+			responseCache.get(invocation.getCallType(), HOST + path, params);
+		if (response != null) {
+			webserviceHistoryService.logWebserviceInvocation(invocation);
+			return response;
+		}
 		HttpGet httpGet = new HttpGet(getURI(path, params));
 		httpGet.setHeader(USER_AGENT, CLIENT_INFO);
 		ResponseHandler<String> responseHandler = new BasicResponseHandler();
         try {
         	long elapsedMs = -currentTimeMillis();
 			response = httpClient.execute(httpGet, responseHandler);
+			if (responseCache != null) {
+				responseCache.put(invocation.getCallType(), HOST + path, params, response);
+			}
 			elapsedMs += currentTimeMillis();
 			sleep(Math.max(INTERVAL_MS - elapsedMs, 0));
 		} catch (HttpResponseException e) {
@@ -101,6 +106,10 @@ public abstract class AbstractMusicBrainzClient {
 		return httpClient;
 	}
 
+	public void setResponseCache(ResponseCache responseCache) {
+		this.responseCache = responseCache;
+	}
+
 	public WebserviceHistoryService getWebserviceHistoryService() {
 		return webserviceHistoryService;
 	}
@@ -0,0 +1,365 @@
+create function library.add_to_library_chunk() returns int as $$
+begin
+
+	-- merges rows currently in import tables into the library. can be invoked
+	-- repeatedly during a scan, and running it twice on the same rows is harmless.
+	-- files of directories that can't be placed in the library yet are left in
+	-- the import tables.
+	-- statements below only look at files of the current chunk, to keep the cost
+	-- of a chunk independent of library size. library-wide aggregates are updated
+	-- by add_to_library() when scan is done.
+
+	-- add missing parent directories
+	insert into library.directory (path)
+	select distinct parent_path from library.directory_import di
+		where parent_path is not null and not exists
+		(select 1 from library.directory d where d.path = di.parent_path);
+
+	-- add missing directories
+	insert into library.directory (path)
+	select distinct path from library.directory_import di
+		where not exists
+		(select 1 from library.directory d where d.path = di.path);
+
+	-- set correct parent directory ids
+	update library.directory_import di
+		set parent_id = d.id
+	from library.directory d where d.path = di.parent_path;
+
+	-- set correct directory ids
+	update library.directory d
+		set parent_id = di.parent_id
+	from library.directory_import di where di.path = d.path;
+	
+	truncate library.directory_import;
+
+	
+	-- update file import to correct directory id
+	update library.file_import fi
+		set directory_id = d.id
+	from library.directory d where d.path = fi.path;
+
+	-- directories are scanned bottom-up, so a directory only reaches the library
+	-- once its parent directory has been imported. until then, its files are set
+	-- aside here, and put back into the import tables for the next chunk.
+	create temporary table file_import_pending as
+		select * from library.file_import where directory_id is null;
+
+	create temporary table file_headertag_import_pending as
+		select * from library.file_headertag_import fht where exists
+		(select 1 from file_import_pending fi
+			where fi.path = fht.path and fi.filename = fht.filename);
+
+	delete from library.file_import where directory_id is null;
+
+	delete from library.file_headertag_import fht using file_import_pending fi
+		where fi.path = fht.path and fi.filename = fht.filename;
+
+	-- update modified files (same name, but another modification time or size)
+	-- in place, to keep their file id. their header and tags are updated below.
+	update library.file f
+		set modified = fi.modified, size = fi.size
+	from library.file_import fi
+		where f.directory_id = fi.directory_id and f.filename = fi.filename
+		and not f.deleted and (f.modified != fi.modified or f.size != fi.size)
+		and not exists (select 1 from library.file exf
+			where exf.directory_id = fi.directory_id and exf.filename = fi.filename
+			and exf.modified = fi.modified and exf.size = fi.size);
+
+	-- add new files
+	insert into library.file (directory_id, filename, modified, size)
+	select directory_id, filename, modified, size from
+	library.file_import fi where not exists (select 1 from library.file f
+		where f.directory_id = fi.directory_id and f.filename = fi.filename
+		and f.modified = fi.modified and f.size = fi.size);
+
+
+	-- metadata:
+	-- set correct file ids (matching modification time and size, as a
+	-- replaced version of the file might not have been deleted yet)
+	update library.file_headertag_import fht
+		set file_id = f.id
+	from library.file_import fi inner join library.file f
+		on f.directory_id = fi.directory_id and f.filename = fi.filename
+		and f.modified = fi.modified and f.size = fi.size
+	where fi.path = fht.path and fi.filename = fht.filename;
+
+	-- set correct extension type
+	update library.file_headertag_import fht
+		set type_id = t.id
+	from library.fileheader_type t where fht.extension = t.extension;
+
+	-- add warnings about file(s) missing mandatory tags
+	insert into library.filewarning (file_id)
+	select file_id from library.file_headertag_import fhti
+		where (artist_name is null or track_name is null)
+		and not exists (select 1 from library.filewarning where file_id = fhti.file_id);
+
+	-- remove warnings about file(s) that have been given mandatory tags since.
+	-- modified files keep their file id, so their warnings aren't deleted with them.
+	delete from library.filewarning fw
+	using library.file_headertag_import fhti
+		where fw.file_id = fhti.file_id
+		and fhti.artist_name is not null and fhti.track_name is not null;
+
+	-- delete file(s) missing mandatory tags before proceding
+	delete from library.file_headertag_import
+		where artist_name is null or track_name is null;
+	
+	-- create missing artist(s)
+	insert into music.artist (artist_name, artist_name_capitalization)
+	select distinct on (upper(artist_name)) upper(artist_name), artist_name 
+	from library.file_headertag_import fht
+		where not exists (select 1 from music.artist 
+			where artist_name = upper(fht.artist_name));
+
+	-- update all import rows to correct artist id
+	update library.file_headertag_import fht
+		set artist_id = a.id
+	from music.artist a where upper(fht.artist_name) = a.artist_name;
+
+	-- update preferred capitalization of all artists in library, if new/changed
+	update music.artist a set artist_name_capitalization = fht.artist_name
+	from library.file_headertag_import fht
+		where a.id = artist_id and (artist_name_capitalization is null 
+		or artist_name_capitalization != fht.artist_name);
+
+	-- create missing album artist(s)
+	insert into music.artist (artist_name, artist_name_capitalization)
+	select distinct on (upper(album_artist_name)) upper(album_artist_name), album_artist_name 
+	from library.file_headertag_import fht
+		where album_artist_name is not null and not exists (select 1 from music.artist 
+			where artist_name = upper(fht.album_artist_name));
+
+	-- update all import rows to correct album artist id
+	update library.file_headertag_import fht
+		set album_artist_id = a.id
+	from music.artist a where upper(fht.album_artist_name) = a.artist_name;
+
+	-- update preferred capitalization of all album artists in library, if new/changed
+	update music.artist a set artist_name_capitalization = fht.album_artist_name
+	from library.file_headertag_import fht
+		where a.id = album_artist_id and (artist_name_capitalization is null 
+		or artist_name_capitalization != fht.album_artist_name);
+
+	-- create missing sort artist(s)
+	insert into music.artist (artist_name, artist_name_capitalization)
+	select distinct on (upper(artistsort_name)) upper(artistsort_name), artistsort_name 
+	from library.file_headertag_import fht
+		where artistsort_name is not null and not exists (select 1 from music.artist 
+			where artist_name = upper(fht.artistsort_name));
+
+	-- update preferred capitalization of all sort artists in library, if new/changed
+	update music.artist a set artist_name_capitalization = fht.artistsort_name
+	from library.file_headertag_import fht
+		where a.artist_name = upper(artistsort_name) and 
+		artist_name_capitalization != fht.artistsort_name;
+
+	-- create missing sort album artist(s)
+	insert into music.artist (artist_name, artist_name_capitalization)
+	select distinct on (upper(albumartistsort_name)) upper(albumartistsort_name), albumartistsort_name 
+	from library.file_headertag_import fht
+		where albumartistsort_name is not null and not exists (select 1 from music.artist 
+			where artist_name = upper(fht.albumartistsort_name));
+
+	-- update preferred capitalization of all sort album artists in library, if new/changed
+	update music.artist a set artist_name_capitalization = fht.albumartistsort_name
+	from library.file_headertag_import fht
+		where a.artist_name = upper(albumartistsort_name) and 
+		artist_name_capitalization != fht.albumartistsort_name;
+
+	-- create missing composer(s)
+	insert into music.artist (artist_name, artist_name_capitalization)
+	select distinct on (upper(composer_name)) upper(composer_name), composer_name 
+	from library.file_headertag_import fht
+		where composer_name is not null and not exists (select 1 from music.artist 
+			where artist_name = upper(fht.composer_name));
+
+	-- update all import rows to correct composer id
+	update library.file_headertag_import fht
+		set composer_id = a.id
+	from music.artist a where upper(fht.composer_name) = a.artist_name;
+
+	-- update preferred capitalization of all composers in library, if new/changed
+	update music.artist a set artist_name_capitalization = fht.composer_name
+	from library.file_headertag_import fht
+		where a.id = composer_id and
+		artist_name_capitalization != fht.composer_name;
+
+	-- create missing album(s)
+	insert into music.album (artist_id, album_name, album_name_capitalization)
+	select distinct on (coalesce(album_artist_id, artist_id), upper(album_name)) 
+		coalesce(album_artist_id, artist_id), upper(album_name), album_name 
+	from library.file_headertag_import fht
+		where fht.album_name is not null
+			and not exists (select 1 from music.album
+			where artist_id = coalesce(fht.album_artist_id, fht.artist_id) and
+				album_name = upper(fht.album_name));
+
+	--update all import rows to correct album id
+	update library.file_headertag_import fht
+		set album_id = a.id
+	from music.album a
+		where a.album_name = upper(fht.album_name)
+		and a.artist_id = coalesce(fht.album_artist_id, fht.artist_id);
+
+	-- create missing track(s)
+	insert into music.track (artist_id, track_name, track_name_capitalization)
+	select distinct on (artist_id, upper(track_name)) artist_id, upper(track_name), track_name 
+	from library.file_headertag_import fht
+		where not exists (select 1 from music.track
+			where artist_id = fht.artist_id and track_name = upper(fht.track_name));
+
+	-- update all import rows to correct track id
+	update library.file_headertag_import fht set track_id = t.id
+	from music.track t
+		where fht.artist_id = t.artist_id and
+			  upper(fht.track_name) = t.track_name;
+
+	-- update preferred capitalization of all tracks in library, if new/changed
+	update music.track t set track_name_capitalization = fht.track_name
+	from library.file_headertag_import fht
+		where t.id = track_id and track_name_capitalization != fht.track_name;
+
+	-- create missing tag(s)
+	insert into music.tag (tag_name)
+	select distinct lower(tag_name)
+	from library.file_headertag_import fht	
+		where tag_name is not null and not exists (select 1 from music.tag
+			where tag_name = lower(fht.tag_name));
+
+	-- update all import rows to correct tag id
+	update library.file_headertag_import fht set tag_id = t.id
+	from music.tag t
+		where lower(fht.tag_name) = t.tag_name;
+	
+	-- update header and tags of modified files. new files have none yet.
+	update library.fileheader fh
+		set type_id = fhti.type_id, bitrate = fhti.bitrate, vbr = fhti.vbr, duration = fhti.duration
+	from library.file_headertag_import fhti
+		where fh.file_id = fhti.file_id;
+
+	update library.filetag ft
+		set artist_id = fhti.artist_id, album_artist_id = fhti.album_artist_id,
+		composer_id = fhti.composer_id, album_id = fhti.album_id, track_id = fhti.track_id,
+		track_nr = fhti.track_nr, track_nrs = fhti.track_nrs, disc_nr = fhti.disc_nr,
+		disc_nrs = fhti.disc_nrs, year = fhti.year, tag_id = fhti.tag_id,
+		coverart = fhti.coverart, lyrics = fhti.lyrics
+	from library.file_headertag_import fhti
+		where ft.file_id = fhti.file_id;
+
+	-- add file header (info that never changes)
+	insert into library.fileheader (file_id, type_id, bitrate, vbr, duration)
+	select file_id, type_id, bitrate, vbr, duration
+		from library.file_headertag_import fhti
+		where not exists (select 1 from library.fileheader where file_id = fhti.file_id);
+
+	-- add file tag
+	insert into library.filetag (file_id, artist_id, album_artist_id, composer_id, album_id, track_id, track_nr, track_nrs, disc_nr, disc_nrs, year, tag_id, coverart, lyrics)
+	select file_id, artist_id, album_artist_id, composer_id, album_id, track_id, track_nr, track_nrs, disc_nr, disc_nrs, year, tag_id, coverart, lyrics
+		from library.file_headertag_import fhti
+		where not exists (select 1 from library.filetag where file_id = fhti.file_id);
+
+	insert into library.artist (artist_id)
+	select distinct artist_id from library.file_headertag_import ft
+	where not exists (
+		select 1 from library.artist where artist_id = ft.artist_id
+	);
+
+	insert into library.artist (artist_id)
+	select distinct album_artist_id from library.file_headertag_import ft
+	where album_artist_id is not null and not exists (
+		select 1 from library.artist where artist_id = ft.album_artist_id
+	);
+
+	insert into library.album (album_id)
+	select album_id from
+	(select distinct album_id, max(modified) from library.file_headertag_import ft
+	inner join library.file f on ft.file_id = f.id
+	where ft.album_id is not null and not exists (
+		select 1 from library.album where album_id = ft.album_id
+	)
+	group by album_id order by max(modified)) a;
+
+	update library.artist art
+		set hasalbums = true
+	from library.album la 
+	inner join music.album ma on la.album_id = ma.id 
+	where ma.artist_id = art.artist_id and not art.hasalbums
+		and la.album_id in (select album_id from library.file_headertag_import);
+	
+	-- move tracks of modified files to their new track and album, keeping
+	-- library track ids (referenced by stars and play counts)
+	update library.track lt
+		set track_id = ft.track_id, album_id = ft.album_id, track_name_search = null
+	from library.filetag ft
+	inner join library.file_headertag_import fhti on fhti.file_id = ft.file_id
+		where lt.file_id = ft.file_id and ft.album_id is not null
+		and (lt.track_id != ft.track_id or lt.album_id != ft.album_id);
+
+	insert into library.track (track_id, album_id, file_id)
+	select distinct on (coalesce(disc_nr, 0), coalesce(track_nr, 0), track_id, album_id) 
+		track_id, album_id, file_id from library.filetag ft
+	where ft.file_id in (select file_id from library.file_headertag_import)
+	and not exists (
+		select 1 from library.track ext 
+		inner join library.filetag exft on exft.file_id = ext.file_id
+		where ext.track_id = ft.track_id and ext.album_id = ft.album_id
+			and coalesce(exft.track_nr, 0) = coalesce(ft.track_nr, 0)
+			and coalesce(exft.disc_nr, 0) = coalesce(ft.disc_nr, 0)
+	);
+
+	-- update search tables text search index
+	update library.artist la
+		set artist_name_search = array_to_string(array(select unnest(string_to_array(artist_name, ' ')) order by 1), ' ')
+	from music.artist ma
+	where ma.id = la.artist_id and la.artist_name_search is null;
+
+	update library.album la
+		set album_name_search = array_to_string(array(select unnest(string_to_array(artist_name || ' ' || album_name, ' ')) order by 1), ' ')
+	from music.album malb
+	inner join music.artist mart on malb.artist_id = mart.id
+	where malb.id = la.album_id and la.album_name_search is null;
+
+	update library.track lt
+		set track_name_search = array_to_string(array(select unnest(string_to_array(artist_name || ' ' || album_name || ' ' || track_name, ' ')) order by 1), ' ')
+	from music.album malb, music.track mt 
+	inner join music.artist mart on mt.artist_id = mart.id
+	where mt.id = lt.track_id and malb.id = lt.album_id and lt.track_name_search is null;
+
+	-- set album year from file metadata
+	update library.album a set year = ft.year
+	from library.file_headertag_import ft where a.album_id = ft.album_id and ft.year is not null
+		and (a.year is null or a.year != ft.year);
+
+	-- set album embedded cover art from file metadata
+	update library.album a set embeddedcoverartfile_id = ft.file_id 
+	from library.file_headertag_import ft where a.album_id = ft.album_id and ft.coverart
+		and a.embeddedcoverartfile_id is null;
+
+	--  add artist sort for artist
+	insert into library.artistsort (artist_id, artistsort_id)
+	select distinct on (fht.artist_id) fht.artist_id, a.id from library.file_headertag_import fht
+	inner join music.artist a on a.artist_name = upper(fht.artistsort_name)
+	where not exists (select 1 from library.artistsort where artistsort_id = fht.artist_id);
+
+	--  add artist sort for album artist
+	insert into library.artistsort (artist_id, artistsort_id)
+	select distinct on (fht.artist_id) fht.artist_id, a.id from library.file_headertag_import fht
+	inner join music.artist a on a.artist_name = upper(fht.albumartistsort_name)
+	where not exists (select 1 from library.artistsort where artistsort_id = fht.artist_id);
+
+	truncate library.file_headertag_import;
+	truncate library.file_import;
+	truncate library.directory_import;
+
+	insert into library.file_import select * from file_import_pending;
+	insert into library.file_headertag_import select * from file_headertag_import_pending;
+
+	drop table file_import_pending;
+	drop table file_headertag_import_pending;
+	
+	return 0;
+
+end;
+$$ language plpgsql;
\ No newline at end of file
@@ -0,0 +1,59 @@
+create function library.delete_files_chunk(max_files int) returns int as $$
+declare
+	nr_of_files int;
+begin
+
+	-- deletes at most max_files of the files marked as deleted, along with
+	-- everything referring to them. the ids are read once into temporary
+	-- tables, and dependent rows are deleted by joining them.
+
+	create temporary table if not exists deleted_file (id integer primary key) on commit drop;
+	create temporary table if not exists deleted_track (id integer primary key) on commit drop;
+	truncate deleted_file, deleted_track;
+
+	insert into deleted_file (id)
+	select id from library.file where deleted limit max_files;
+
+	get diagnostics nr_of_files = row_count;
+	if nr_of_files = 0 then
+		return 0;
+	end if;
+
+	insert into deleted_track (id)
+	select t.id from library.track t
+	inner join deleted_file df on t.file_id = df.id;
+
+	analyze deleted_file;
+	analyze deleted_track;
+
+	delete from library.file_headertag_import fhti
+	using deleted_file df where fhti.file_id = df.id;
+
+	delete from library.filetag ft
+	using deleted_file df where ft.file_id = df.id;
+
+	delete from library.fileheader fh
+	using deleted_file df where fh.file_id = df.id;
+
+	delete from library.filewarning fw
+	using deleted_file df where fw.file_id = df.id;
+
+	update library.album la set embeddedcoverartfile_id = null
+	from deleted_file df where la.embeddedcoverartfile_id = df.id;
+
+	update library.album la set coverartfile_id = null
+	from deleted_file df where la.coverartfile_id = df.id;
+
+	delete from library.artisttoptrackplaycount atp
+	using deleted_track dt where atp.track_id = dt.id;
+
+	delete from library.track t
+	using deleted_track dt where t.id = dt.id;
+
+	delete from library.file f
+	using deleted_file df where f.id = df.id;
+
+	return nr_of_files;
+
+end;
+$$ language plpgsql;
@@ -0,0 +1,47 @@
+create function library.mark_deleted_files() returns int as $$
+begin
+
+	-- move relocated files to their new directory before deleting anything,
+	-- so they keep their ids. new directories get parent_id set by add_to_library.
+	insert into library.directory (path)
+	select distinct path from library.file_relocate fr
+		where not exists
+		(select 1 from library.directory d where d.path = fr.path);
+
+	update library.file f set directory_id = dt.id
+	from library.file_relocate fr
+	inner join library.directory df on df.path = fr.from_path
+	inner join library.directory dt on dt.path = fr.path
+	where f.directory_id = df.id and f.filename = fr.filename
+		and f.modified = fr.modified and f.size = fr.size;
+
+	truncate library.file_relocate;
+
+	with recursive deleted_directories (id) as (
+		select id from library.directory
+		where path in (select path from library.directory_delete)
+			union all
+		select d.id from
+		deleted_directories dd, library.directory d
+		where d.parent_id = dd.id
+	)
+	update library.directory set deleted = true where id in (
+		select id from deleted_directories
+	);
+
+	update library.file f set deleted = true from library.directory d
+	where f.directory_id = d.id and d.deleted and not f.deleted;
+
+	-- only delete the version of the file that was found missing, as a new
+	-- version might have been added already during an incremental scan
+	update library.file f set deleted = true from library.file_delete fd 
+	inner join library.directory d on d.path = fd.path
+	where f.directory_id = d.id and f.filename = fd.filename
+		and (fd.modified is null or (f.modified = fd.modified and f.size = fd.size));
+
+	truncate library.file_delete;
+
+	return (select count(1) from library.file where deleted);
+
+end;
+$$ language plpgsql;
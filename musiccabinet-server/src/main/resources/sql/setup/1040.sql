@@ -0,0 +1 @@
+alter table library.file_delete add column modified timestamp, add column size integer;
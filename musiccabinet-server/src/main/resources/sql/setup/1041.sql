@@ -0,0 +1,3 @@
+create table library.file_relocate (from_path text not null, path text not null, filename varchar(256) not null, modified timestamp not null, size integer not null);
+
+create index file_filename on library.file (filename);
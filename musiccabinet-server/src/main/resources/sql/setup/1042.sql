@@ -0,0 +1,6 @@
+drop index library.filetag_fileid;
+create index filetag_fileid on library.filetag (file_id);
+
+create index artisttoptrackplaycount_trackid on library.artisttoptrackplaycount (track_id);
+
+create index file_deleted on library.file (id) where deleted;
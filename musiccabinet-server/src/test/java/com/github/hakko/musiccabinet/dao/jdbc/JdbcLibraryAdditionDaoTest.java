@@ -7,6 +7,7 @@ import static org.joda.time.DateTime.parse;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 
 import junit.framework.Assert;
 
@@ -14,6 +15,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
@@ -71,5 +73,65 @@ public class JdbcLibraryAdditionDaoTest {
 		Assert.assertEquals(2001, albums.get(3).getYear());
 		Assert.assertEquals(2000, albums.get(4).getYear());
 	}
+
+	@Test
+	public void updatesModifiedFileInPlace() {
+		JdbcTemplate jdbcTemplate = libraryAdditionDao.getJdbcTemplate();
+		String sql = "select f.id as file_id, lt.id as track_id from library.file f"
+				+ " inner join library.track lt on lt.file_id = f.id where f.filename = 'file1'";
+		Map<String, Object> ids = jdbcTemplate.queryForMap(sql);
+
+		File file = new File("/dir", "file1", parse("2012-01-01"), 1);
+		MetaData md = new MetaData();
+		md.setArtist("artist");
+		md.setTitle("retagged title");
+		md.setAlbum("album 1");
+		md.setMediaType(Mediatype.OGG);
+		file.setMetaData(md);
+		libraryAdditionDao.addFiles("/dir", set(file));
+		libraryAdditionDao.updateLibrary();
+
+		Map<String, Object> updatedIds = jdbcTemplate.queryForMap(sql);
+		Assert.assertEquals(ids.get("file_id"), updatedIds.get("file_id"));
+		Assert.assertEquals(ids.get("track_id"), updatedIds.get("track_id"));
+		Assert.assertEquals(5, jdbcTemplate.queryForInt("select count(1) from library.file"));
+		Assert.assertEquals("retagged title", jdbcTemplate.queryForObject(
+				"select mt.track_name_capitalization from library.track lt"
+				+ " inner join music.track mt on lt.track_id = mt.id"
+				+ " inner join library.file f on lt.file_id = f.id where f.filename = 'file1'", String.class));
+	}
+
+	@Test
+	public void removesWarningOfRetaggedFile() {
+		JdbcTemplate jdbcTemplate = libraryAdditionDao.getJdbcTemplate();
+		String sql = "select count(1) from library.filewarning";
+
+		File file = new File("/dir", "file1", parse("2012-01-01"), 1);
+		MetaData md = new MetaData();
+		md.setTitle("untagged title");
+		md.setMediaType(Mediatype.OGG);
+		file.setMetaData(md);
+		libraryAdditionDao.addFiles("/dir", set(file));
+		libraryAdditionDao.updateLibrary();
+
+		Assert.assertEquals(1, jdbcTemplate.queryForInt(sql));
+
+		file = new File("/dir", "file1", parse("2012-01-02"), 1);
+		md.setArtist("artist");
+		file.setMetaData(md);
+		libraryAdditionDao.addFiles("/dir", set(file));
+		libraryAdditionDao.updateLibrary();
+
+		Assert.assertEquals(0, jdbcTemplate.queryForInt(sql));
+	}
+
+	@Test
+	public void escapesValuesInCopyTextFormat() {
+		StringBuilder sb = new StringBuilder();
+		JdbcLibraryAdditionDao.appendCopyRow(sb, new Object[]{
+				"a\\b\tc\nd", null, true, (short) 128, parse("2012-03-04T05:06:07").toDate()});
+		
+		Assert.assertEquals("a\\\\b\\tc\\nd\t\\N\tt\t128\t2012-03-04 05:06:07.0\n", sb.toString());
+	}
 		
 }
\ No newline at end of file
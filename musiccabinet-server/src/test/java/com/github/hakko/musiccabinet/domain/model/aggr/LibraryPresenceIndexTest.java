@@ -0,0 +1,98 @@
+package com.github.hakko.musiccabinet.domain.model.aggr;
+
+import static com.github.hakko.musiccabinet.service.library.LibraryUtil.set;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import com.github.hakko.musiccabinet.domain.model.library.File;
+
+public class LibraryPresenceIndexTest {
+
+	private DateTime modified = new DateTime(1330000000000L);
+
+	@Test
+	public void findsFilesAndSubdirectoriesPerDirectory() {
+		// deliberately underestimate sizes, to make the index grow.
+		LibraryPresenceIndex index = new LibraryPresenceIndex(1, 1);
+		index.addDirectory(1, "/m", 0);
+		index.addDirectory(2, "/m/a", 1);
+		index.addDirectory(4, "/m/a/cd1", 2);
+		index.addDirectory(7, "/m/b", 1);
+		index.addDirectory(9, "/m/a/cd2", 2);
+		index.addFile(2, "cover.jpg", modified.getMillis(), 30);
+		index.addFile(4, "01.mp3", modified.getMillis(), 100);
+		index.addFile(4, "02.mp3", modified.getMillis(), 200);
+		index.addFile(9, "01.mp3", modified.getMillis(), 300);
+		index.complete();
+
+		assertEquals(5, index.getNumberOfDirectories());
+		assertEquals(4, index.getNumberOfFiles());
+
+		assertTrue(index.exists("/m/b"));
+		assertFalse(index.exists("/m/c"));
+		assertFalse(index.exists(null));
+
+		assertEquals(set("/m/a", "/m/b"), index.getSubdirectories("/m"));
+		assertEquals(set("/m/a/cd1", "/m/a/cd2"), index.getSubdirectories("/m/a"));
+		assertEquals(new HashSet<String>(), index.getSubdirectories("/m/b"));
+		assertEquals(new HashSet<String>(), index.getSubdirectories(null));
+
+		assertEquals(new HashSet<File>(), index.getFiles("/m"));
+		assertEquals(set(new File("/m/a", "cover.jpg", modified, 30)), index.getFiles("/m/a"));
+		assertEquals(set(new File("/m/a/cd1", "01.mp3", modified, 100),
+				new File("/m/a/cd1", "02.mp3", modified, 200)), index.getFiles("/m/a/cd1"));
+		assertEquals(new HashSet<File>(), index.getFiles("/m/b"));
+		assertEquals(set(new File("/m/a/cd2", "01.mp3", modified, 300)), index.getFiles("/m/a/cd2"));
+		assertEquals(new HashSet<File>(), index.getFiles("/m/c"));
+	}
+
+	@Test
+	public void findsFilesByName() {
+		LibraryPresenceIndex index = new LibraryPresenceIndex(4, 4);
+		index.addDirectory(1, "/m", 0);
+		index.addDirectory(2, "/m/a", 1);
+		index.addDirectory(3, "/m/b", 1);
+		index.addDirectory(4, "/m/c", 1);
+		index.addFile(2, "01.mp3", modified.getMillis(), 100);
+		index.addFile(2, "02.mp3", modified.getMillis(), 200);
+		index.addFile(4, "01.mp3", modified.getMillis(), 300);
+		index.complete();
+
+		assertEquals(set(new File("/m/a", "01.mp3", modified, 100), new File("/m/c", "01.mp3", modified, 300)),
+				index.getFilesNamed(set("01.mp3")));
+		assertEquals(set(new File("/m/a", "02.mp3", modified, 200)), index.getFilesNamed(set("02.mp3", "03.mp3")));
+		assertEquals(new HashSet<File>(), index.getFilesNamed(set("03.mp3")));
+	}
+
+	@Test
+	public void findsEveryFileByName() {
+		LibraryPresenceIndex index = new LibraryPresenceIndex(10, 1000);
+		for (int d = 1; d <= 10; d++) {
+			index.addDirectory(d, "/m/" + d, 0);
+		}
+		for (int d = 1; d <= 10; d++) {
+			for (int f = 0; f < 100; f++) {
+				index.addFile(d, ((f * 37 + d) % 100) + ".mp3", modified.getMillis(), d);
+			}
+		}
+		index.complete();
+
+		for (int f = 0; f < 100; f++) {
+			assertEquals(10, index.getFilesNamed(set(f + ".mp3")).size());
+		}
+	}
+
+	@Test
+	public void estimatesMemoryFootprint() {
+		assertEquals(LibraryPresenceIndex.BYTES_PER_DIRECTORY * 10L
+				+ LibraryPresenceIndex.BYTES_PER_FILE * 100L,
+				LibraryPresenceIndex.estimateBytes(10, 100));
+	}
+
+}
@@ -0,0 +1,152 @@
+package com.github.hakko.musiccabinet.domain.model.library;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.lang.builder.EqualsBuilder;
+import org.apache.commons.lang.builder.HashCodeBuilder;
+import org.joda.time.DateTime;
+
+import com.github.hakko.musiccabinet.domain.model.aggr.DirectoryContent;
+
+/*
+ * Compares heap usage of a synthetic scan of 1M files (50.000 directories of
+ * 20 files each, as DirectoryContents), between File and its former layout
+ * (own directory String per file, DateTime and HashCodeBuilder hashing).
+ * Also compares bytes allocated while comparing all directories to a copy,
+ * like LibraryPresenceService does.
+ *
+ * Run with a heap of at least 2g, like -Xmx2g.
+ */
+public class FileMemoryBenchmark {
+
+	private static final int DIRECTORIES = 50000;
+	private static final int FILES_PER_DIRECTORY = 20;
+
+	public static void main(String[] args) {
+		for (int i = 0; i < 2; i++) {
+			long before = usedHeap();
+			List<Set<File>> files = createFiles();
+			long compactBytes = usedHeap() - before;
+			long compactAllocated = allocatedComparing(files, createFiles());
+			files = null;
+
+			before = usedHeap();
+			List<Set<LegacyFile>> legacyFiles = createLegacyFiles();
+			long legacyBytes = usedHeap() - before;
+			long legacyAllocated = allocatedComparing(legacyFiles, createLegacyFiles());
+			legacyFiles = null;
+
+			int total = DIRECTORIES * FILES_PER_DIRECTORY;
+			System.out.println("File:        " + compactBytes / total + " bytes/file on heap, "
+					+ compactAllocated / total + " bytes/file allocated comparing");
+			System.out.println("Former File: " + legacyBytes / total + " bytes/file on heap, "
+					+ legacyAllocated / total + " bytes/file allocated comparing");
+		}
+	}
+
+	private static List<Set<File>> createFiles() {
+		List<Set<File>> directories = new ArrayList<>();
+		for (int d = 0; d < DIRECTORIES; d++) {
+			DirectoryContent content = new DirectoryContent(getDirectory(d));
+			for (int f = 0; f < FILES_PER_DIRECTORY; f++) {
+				content.getFiles().add(new File(content.getDirectory(),
+						getFilename(f), getModified(d, f), getSize(d, f)));
+			}
+			directories.add(content.getFiles());
+		}
+		return directories;
+	}
+
+	private static List<Set<LegacyFile>> createLegacyFiles() {
+		List<Set<LegacyFile>> directories = new ArrayList<>();
+		for (int d = 0; d < DIRECTORIES; d++) {
+			String directory = getDirectory(d);
+			Set<LegacyFile> files = new HashSet<>();
+			for (int f = 0; f < FILES_PER_DIRECTORY; f++) {
+				// Path.getParent().toString() gave every file a directory String of its own
+				files.add(new LegacyFile(new String(directory), getFilename(f),
+						new DateTime(getModified(d, f)), getSize(d, f)));
+			}
+			directories.add(files);
+		}
+		return directories;
+	}
+
+	private static <T> long allocatedComparing(List<Set<T>> directories, List<Set<T>> copies) {
+		long before = allocatedBytes();
+		int equal = 0;
+		for (int d = 0; d < directories.size(); d++) {
+			if (directories.get(d).equals(copies.get(d))) {
+				equal++;
+			}
+		}
+		if (equal != directories.size()) {
+			throw new IllegalStateException("Copies differ!");
+		}
+		return allocatedBytes() - before;
+	}
+
+	private static String getDirectory(int d) {
+		return "/music/Artist " + (d / 10) + "/Album " + d;
+	}
+
+	private static String getFilename(int f) {
+		return String.format("%02d - Track title %d.mp3", f + 1, f + 1);
+	}
+
+	private static long getModified(int d, int f) {
+		return 1300000000000L + d * 1000L + f;
+	}
+
+	private static int getSize(int d, int f) {
+		return 4000000 + d + f;
+	}
+
+	private static long usedHeap() {
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	private static long allocatedBytes() {
+		return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+				.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	private static class LegacyFile {
+
+		private String directory;
+		private String filename;
+		private DateTime modified;
+		private int size;
+
+		private LegacyFile(String directory, String filename, DateTime modified, int size) {
+			this.directory = directory;
+			this.filename = filename;
+			this.modified = modified;
+			this.size = size;
+		}
+
+		@Override
+		public int hashCode() {
+			return new HashCodeBuilder().append(directory).append(filename)
+					.append(modified).append(size).toHashCode();
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof LegacyFile)) return false;
+			LegacyFile f = (LegacyFile) o;
+			return new EqualsBuilder().append(directory, f.directory).append(filename, f.filename)
+					.append(modified, f.modified).append(size, f.size).isEquals();
+		}
+
+	}
+
+}
@@ -0,0 +1,42 @@
+package com.github.hakko.musiccabinet.domain.model.library;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+public class FileTest {
+
+	private DateTime modified = new DateTime(2012, 3, 4, 5, 6, 7, 890);
+
+	@Test
+	public void filesWithSameAttributesAreEqual() {
+		File file = new File("/dir", "file.mp3", modified, 100);
+		File sameFile = new File(new String("/dir"), "file.mp3", modified.getMillis(), 100);
+
+		assertEquals(file, sameFile);
+		assertEquals(file.hashCode(), sameFile.hashCode());
+		assertEquals(modified, sameFile.getModified());
+	}
+
+	@Test
+	public void filesWithOtherAttributesDiffer() {
+		File file = new File("/dir", "file.mp3", modified, 100);
+
+		assertFalse(file.equals(new File("/dir2", "file.mp3", modified, 100)));
+		assertFalse(file.equals(new File("/dir", "file2.mp3", modified, 100)));
+		assertFalse(file.equals(new File("/dir", "file.mp3", modified.plusMillis(1), 100)));
+		assertFalse(file.equals(new File("/dir", "file.mp3", modified, 101)));
+	}
+
+	@Test
+	public void keepsUnknownModificationTime() {
+		File file = new File("/dir", "file.mp3", null, 100);
+
+		assertNull(file.getModified());
+		assertEquals(file, new File("/dir", "file.mp3", null, 100));
+	}
+
+}
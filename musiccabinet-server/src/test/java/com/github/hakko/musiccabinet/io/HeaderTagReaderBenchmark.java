@@ -0,0 +1,44 @@
+package com.github.hakko.musiccabinet.io;
+
+import java.util.List;
+
+import org.joda.time.DateTime;
+
+import com.github.hakko.musiccabinet.domain.model.library.File;
+import com.github.hakko.musiccabinet.service.library.AudioTagService;
+
+/*
+ * Compares how many files per second AudioTagService reads, with and without
+ * HeaderTagReader. Takes a music directory as argument (defaults to the test
+ * library), which should be on a cold cache for numbers that resemble a scan.
+ */
+public class HeaderTagReaderBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		java.io.File directory = args.length > 0 ? new java.io.File(args[0])
+			: HeaderTagReaderTest.getFile("library");
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+		List<java.io.File> files = HeaderTagReaderTest.getMusicFiles(directory);
+
+		AudioTagService headerTagService = new AudioTagService();
+		AudioTagService jaudioTaggerService = new AudioTagService();
+		jaudioTaggerService.setUseHeaderTagReader(false);
+
+		for (int i = 0; i < 3; i++) {
+			System.out.println("JAudioTagger:    " + filesPerSecond(jaudioTaggerService, files, rounds) + " files/s");
+			System.out.println("HeaderTagReader: " + filesPerSecond(headerTagService, files, rounds) + " files/s");
+		}
+	}
+
+	private static long filesPerSecond(AudioTagService audioTagService, List<java.io.File> files, int rounds) {
+		long start = System.nanoTime();
+		for (int i = 0; i < rounds; i++) {
+			for (java.io.File file : files) {
+				audioTagService.updateMetadata(new File(file.getParent(),
+						file.getName(), new DateTime(file.lastModified()), (int) file.length()));
+			}
+		}
+		return (long) files.size() * rounds * 1000000000L / Math.max(1, System.nanoTime() - start);
+	}
+
+}
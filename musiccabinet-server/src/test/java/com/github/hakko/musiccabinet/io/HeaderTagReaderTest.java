@@ -0,0 +1,128 @@
+package com.github.hakko.musiccabinet.io;
+
+import static org.jaudiotagger.tag.FieldKey.ARTIST;
+import static org.jaudiotagger.tag.FieldKey.TITLE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import com.github.hakko.musiccabinet.domain.model.library.File;
+import com.github.hakko.musiccabinet.domain.model.library.MetaData;
+import com.github.hakko.musiccabinet.service.library.AudioTagService;
+
+public class HeaderTagReaderTest {
+
+	private HeaderTagReader reader = new HeaderTagReader();
+
+	/*
+	 * Every music file in the test library must give the same meta data,
+	 * whether it's read by HeaderTagReader or by JAudioTagger.
+	 */
+	@Test
+	public void readsSameMetaDataAsJAudioTagger() throws Exception {
+		AudioTagService headerTagService = new AudioTagService();
+		AudioTagService jaudioTaggerService = new AudioTagService();
+		jaudioTaggerService.setUseHeaderTagReader(false);
+
+		int headerTagFiles = 0;
+		List<java.io.File> files = getMusicFiles(getFile("library"));
+		for (java.io.File file : files) {
+			if (reader.read(file) != null) {
+				headerTagFiles++;
+			}
+			MetaData expected = readMetaData(jaudioTaggerService, file);
+			MetaData actual = readMetaData(headerTagService, file);
+			assertNotNull(file.getPath(), actual);
+			assertEquals(file.getPath(), toString(expected), toString(actual));
+		}
+		assertTrue(headerTagFiles > files.size() / 2);
+	}
+
+	@Test
+	public void readsMp3HeaderTag() throws Exception {
+		HeaderTag tag = reader.read(getFile("library/media7/lyrics.mp3"));
+
+		assertNotNull(tag);
+		assertTrue(tag.isVbr());
+		assertEquals(35, tag.getBitrate());
+		assertEquals(0, tag.getDuration());
+		assertFalse(tag.hasArtwork());
+	}
+
+	@Test
+	public void readsFlacHeaderTag() throws Exception {
+		HeaderTag tag = reader.read(getFile("library/media0/aa.flac"));
+
+		assertNotNull(tag);
+		assertEquals("Artist", tag.getFirst(ARTIST));
+		assertEquals("Title", tag.getFirst(TITLE));
+		assertEquals(1, tag.getDuration());
+	}
+
+	@Test
+	public void countsBytesReadFromStartOfFile() throws Exception {
+		java.io.File file = getFile("library/media0/aa.flac");
+		HeaderTag tag = reader.read(file);
+
+		assertTrue(tag.getBytesRead() > 0);
+		assertTrue(tag.getBytesRead() < file.length());
+	}
+
+	@Test
+	public void leavesUnusualFilesToJAudioTagger() throws Exception {
+		// no ID3v2 tag
+		assertNull(reader.read(getFile("library/id3v1.mp3")));
+		// unsynchronised ID3v2 tag
+		assertNull(reader.read(getFile("library/media3/Artist/Embedded artwork/Embedded artwork.mp3")));
+	}
+
+	private MetaData readMetaData(AudioTagService audioTagService, java.io.File file) {
+		File fileHandle = new File(file.getParent(), file.getName(), new DateTime(), (int) file.length());
+		audioTagService.updateMetadata(fileHandle);
+		return fileHandle.getMetadata();
+	}
+
+	private String toString(MetaData md) {
+		return md == null ? null : md.getMediaType() + "|" + md.getArtist() + "|" + md.getArtistSort()
+				+ "|" + md.getAlbumArtist() + "|" + md.getAlbumArtistSort() + "|" + md.getAlbum()
+				+ "|" + md.getTitle() + "|" + md.getYear() + "|" + md.getGenre() + "|" + md.getLyrics()
+				+ "|" + md.getComposer() + "|" + md.getDiscNr() + "/" + md.getDiscNrs()
+				+ "|" + md.getTrackNr() + "/" + md.getTrackNrs() + "|" + md.isCoverArtEmbedded()
+				+ "|" + md.isVbr() + "|" + md.getBitrate() + "|" + md.getDuration();
+	}
+
+	static java.io.File getFile(String resource) throws Exception {
+		return new java.io.File(Thread.currentThread().getContextClassLoader()
+				.getResource(resource).toURI());
+	}
+
+	static List<java.io.File> getMusicFiles(java.io.File directory) throws IOException {
+		final List<java.io.File> files = new ArrayList<>();
+		Files.walkFileTree(directory.toPath(), new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+				String name = file.getFileName().toString().toLowerCase();
+				if (name.endsWith(".mp3") || name.endsWith(".flac")) {
+					files.add(file.toFile());
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		return files;
+	}
+
+}
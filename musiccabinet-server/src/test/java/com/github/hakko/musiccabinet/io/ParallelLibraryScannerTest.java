@@ -0,0 +1,122 @@
+package com.github.hakko.musiccabinet.io;
+
+import static com.github.hakko.musiccabinet.service.library.LibraryUtil.set;
+import static java.io.File.separatorChar;
+import static java.lang.Thread.currentThread;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.joda.time.DateTime;
+import org.junit.Test;
+import org.springframework.integration.Message;
+import org.springframework.integration.channel.QueueChannel;
+
+import com.github.hakko.musiccabinet.domain.model.aggr.DirectoryContent;
+
+public class ParallelLibraryScannerTest {
+
+	@Test
+	public void findsSameContentAsSequentialScanner() throws Exception {
+		String library = new File(currentThread().getContextClassLoader()
+				.getResource("library").toURI()).getAbsolutePath();
+
+		QueueChannel sequentialChannel = new QueueChannel();
+		Files.walkFileTree(Paths.get(library), new LibraryScanner(sequentialChannel));
+
+		QueueChannel parallelChannel = new QueueChannel();
+		new ParallelLibraryScanner(parallelChannel, 4).scan(set(library));
+
+		Map<String, DirectoryContent> sequential = drain(sequentialChannel);
+		Map<String, DirectoryContent> parallel = drain(parallelChannel);
+
+		assertEquals(sequential.keySet(), parallel.keySet());
+		for (String directory : sequential.keySet()) {
+			assertEquals(sequential.get(directory).getSubDirectories(),
+					parallel.get(directory).getSubDirectories());
+			assertEquals(sequential.get(directory).getFiles(),
+					parallel.get(directory).getFiles());
+		}
+	}
+
+	@Test
+	public void sendsSubdirectoriesBeforeParent() throws Exception {
+		String library = new File(currentThread().getContextClassLoader()
+				.getResource("library").toURI()).getAbsolutePath();
+		String media1 = library + separatorChar + "media1";
+		String album = media1 + separatorChar + "The Beatles" + separatorChar + "1962-1966";
+
+		QueueChannel channel = new QueueChannel();
+		new ParallelLibraryScanner(channel, 2).scan(set(media1));
+
+		Map<String, Integer> order = new HashMap<>();
+		Message<?> message;
+		for (int i = 0; (message = channel.receive(0)) != null; i++) {
+			order.put(((DirectoryContent) message.getPayload()).getDirectory(), i);
+		}
+
+		assertNotNull(order.get(album));
+		assertEquals(order.size() - 1, (int) order.get(media1));
+		assertEquals(true, order.get(album + separatorChar + "cd1") < order.get(album));
+		assertEquals(true, order.get(album + separatorChar + "cd2") < order.get(album));
+	}
+
+	@Test
+	public void skipsDirectoriesWithUnchangedModificationTime() throws Exception {
+		String library = new File(currentThread().getContextClassLoader()
+				.getResource("library").toURI()).getAbsolutePath();
+		String media1 = library + separatorChar + "media1";
+		String album = media1 + separatorChar + "The Beatles" + separatorChar + "1962-1966";
+		String cd1 = album + separatorChar + "cd1";
+
+		Map<String, DateTime> modifications = new HashMap<>();
+		modifications.put(cd1, new DateTime(Files.readAttributes(Paths.get(cd1),
+				BasicFileAttributes.class).lastModifiedTime().toMillis()));
+		modifications.put(album, new DateTime(0));
+
+		QueueChannel sequentialChannel = new QueueChannel();
+		Files.walkFileTree(Paths.get(media1), new LibraryScanner(sequentialChannel, modifications, true));
+		QueueChannel parallelChannel = new QueueChannel();
+		new ParallelLibraryScanner(parallelChannel, 2, modifications, true).scan(set(media1));
+
+		for (Map<String, DirectoryContent> contents : 
+			asList(drain(sequentialChannel), drain(parallelChannel))) {
+			assertFalse(contents.containsKey(cd1));
+			assertTrue(contents.containsKey(album + separatorChar + "cd2"));
+			assertFalse(contents.get(album).isUnchanged());
+			assertTrue(contents.get(album).getSubDirectories().contains(cd1));
+			assertNotNull(contents.get(album).getModified());
+		}
+
+		QueueChannel verifyChannel = new QueueChannel();
+		new ParallelLibraryScanner(verifyChannel, 2, modifications, false).scan(set(media1));
+		DirectoryContent verified = drain(verifyChannel).get(cd1);
+		assertTrue(verified.isUnchanged());
+		assertFalse(verified.getFiles().isEmpty());
+	}
+
+	@Test (expected = IllegalArgumentException.class)
+	public void rejectsNonPositiveParallelism() {
+		new ParallelLibraryScanner(new QueueChannel(), 0);
+	}
+
+	private Map<String, DirectoryContent> drain(QueueChannel channel) {
+		Map<String, DirectoryContent> contents = new HashMap<>();
+		Message<?> message;
+		while ((message = channel.receive(0)) != null) {
+			DirectoryContent content = (DirectoryContent) message.getPayload();
+			contents.put(content.getDirectory(), content);
+		}
+		return contents;
+	}
+
+}
@@ -0,0 +1,65 @@
+package com.github.hakko.musiccabinet.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ScanThrottleTest {
+
+	@Test
+	public void doesntLimitReadsWhenInactive() {
+		ScanThrottle throttle = new ScanThrottle();
+		throttle.setFilesPerSecond(1);
+
+		long ms = -System.currentTimeMillis();
+		for (int i = 0; i < 10; i++) {
+			throttle.acquire(1, 0);
+		}
+		ms += System.currentTimeMillis();
+
+		assertTrue(ms < 500);
+	}
+
+	@Test
+	public void limitsFilesAndBytesPerSecond() {
+		ScanThrottle throttle = new ScanThrottle();
+		throttle.setFilesPerSecond(100);
+		throttle.setBytesPerSecond(1000);
+		throttle.setActive(true);
+
+		assertTrue(timeToAcquire(throttle, 21, 1, 0) >= 190);
+		throttle.setActive(true);
+		assertTrue(timeToAcquire(throttle, 3, 0, 100) >= 190);
+	}
+
+	@Test
+	public void backsOffWhileForegroundLatencyIsHigh() {
+		ScanThrottle throttle = new ScanThrottle();
+		throttle.setFilesPerSecond(100);
+		throttle.setLatencyThresholdMillis(100);
+		throttle.setActive(true);
+
+		throttle.reportForegroundLatency(50);
+		assertEquals(1, throttle.getSlowdown());
+
+		throttle.reportForegroundLatency(1000);
+		throttle.reportForegroundLatency(1000);
+		assertEquals(4, throttle.getSlowdown());
+		assertTrue(timeToAcquire(throttle, 6, 1, 0) >= 190);
+
+		for (int i = 0; i < 20; i++) {
+			throttle.reportForegroundLatency(10);
+		}
+		assertEquals(1, throttle.getSlowdown());
+	}
+
+	private long timeToAcquire(ScanThrottle throttle, int times, int files, long bytes) {
+		long ms = -System.currentTimeMillis();
+		for (int i = 0; i < times; i++) {
+			throttle.acquire(files, bytes);
+		}
+		return ms + System.currentTimeMillis();
+	}
+
+}
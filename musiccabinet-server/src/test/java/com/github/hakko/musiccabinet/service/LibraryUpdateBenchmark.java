@@ -0,0 +1,75 @@
+package com.github.hakko.musiccabinet.service;
+
+import java.io.File;
+import java.util.Collections;
+
+import org.apache.commons.io.FileUtils;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+
+import com.github.hakko.musiccabinet.dao.jdbc.JdbcTemplateDao;
+import com.github.hakko.musiccabinet.dao.util.PostgreSQLUtil;
+import com.github.hakko.musiccabinet.service.lastfm.ThrottleService;
+import com.github.hakko.musiccabinet.service.lastfm.ThrottleService.Priority;
+import com.github.hakko.musiccabinet.util.SyntheticLibraryUtil;
+import com.github.hakko.musiccabinet.ws.StandInWebserviceServer;
+
+/*
+ * Runs a full library update (scan and last.fm update) of a synthetic library,
+ * against StandInWebserviceServer instead of last.fm, and reports throughput.
+ *
+ * Arguments (all optional): number of artists (100), albums per artist (2),
+ * tracks per album (10), latency in ms (50), error rate (0.01) and last.fm
+ * calls per second (5, enforced by the server as well).
+ *
+ * Uses the test database (see local.jdbc.properties), which is emptied first.
+ */
+public class LibraryUpdateBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int artists = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+		int albums = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+		int tracks = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+		long latencyMillis = args.length > 3 ? Long.parseLong(args[3]) : 50;
+		double errorRate = args.length > 4 ? Double.parseDouble(args[4]) : 0.01;
+		int callsPerSecond = args.length > 5 ? Integer.parseInt(args[5]) : 5;
+
+		StandInWebserviceServer server = new StandInWebserviceServer();
+		server.setLatencyMillis(latencyMillis);
+		server.setErrorRate(errorRate);
+		server.setCallsPerSecond(callsPerSecond, 20);
+		server.start(0);
+		System.setProperty("musiccabinet.ws.proxy", server.getProxy());
+
+		File library = new File(System.getProperty("java.io.tmpdir"), "musiccabinet-benchmark");
+		FileUtils.deleteDirectory(library);
+		int files = SyntheticLibraryUtil.createLibrary(library, artists, albums, tracks);
+
+		ClassPathXmlApplicationContext context = new ClassPathXmlApplicationContext("applicationContext.xml");
+		try {
+			PostgreSQLUtil.truncateTables(context.getBean("libraryAdditionDao", JdbcTemplateDao.class));
+			ThrottleService throttleService = context.getBean(ThrottleService.class);
+			throttleService.setCallsPerSecond(callsPerSecond);
+			LibraryUpdateService libraryUpdateService = context.getBean(LibraryUpdateService.class);
+			libraryUpdateService.setConnectionCheckHost("localhost");
+
+			long ms = -System.currentTimeMillis();
+			libraryUpdateService.createSearchIndex(
+					Collections.singleton(library.getPath()), true, false, false);
+			ms += System.currentTimeMillis();
+
+			System.out.println(files + " files, " + artists + " artists updated in " + ms / 1000 + " s.");
+			System.out.println(server.getCalls() + " calls, " + server.getCalls() * 1000 / Math.max(ms, 1)
+					+ " calls/s, " + server.getInjectedErrors() + " injected errors, "
+					+ server.getRateLimitViolations() + " rate limit violations.");
+			for (Priority priority : Priority.values()) {
+				System.out.println("Average throttle wait, " + priority + ": "
+						+ throttleService.getAverageWaitMillis(priority) + " ms");
+			}
+		} finally {
+			context.close();
+			server.stop();
+			FileUtils.deleteDirectory(library);
+		}
+	}
+
+}
@@ -0,0 +1,71 @@
+package com.github.hakko.musiccabinet.service.lastfm;
+
+import static com.github.hakko.musiccabinet.service.lastfm.CircuitBreaker.State.CLOSED;
+import static com.github.hakko.musiccabinet.service.lastfm.CircuitBreaker.State.HALF_OPEN;
+import static com.github.hakko.musiccabinet.service.lastfm.CircuitBreaker.State.OPEN;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+
+	private CircuitBreaker circuitBreaker;
+
+	@Before
+	public void createCircuitBreaker() {
+		circuitBreaker = new CircuitBreaker();
+		circuitBreaker.setWindowSize(10);
+		circuitBreaker.setFailureThreshold(0.5);
+		circuitBreaker.setOpenMillis(100);
+	}
+
+	@Test
+	public void staysClosedBelowFailureThreshold() {
+		for (int i = 0; i < 20; i++) {
+			assertEquals(0, circuitBreaker.acquirePermission());
+			if (i % 3 == 0) {
+				circuitBreaker.onFailure();
+			} else {
+				circuitBreaker.onSuccess();
+			}
+		}
+		assertEquals(CLOSED, circuitBreaker.getState());
+	}
+
+	@Test
+	public void opensAtFailureThresholdAndProbesForRecovery() throws InterruptedException {
+		for (int i = 0; i < 5; i++) {
+			circuitBreaker.onSuccess();
+			circuitBreaker.onFailure();
+		}
+		assertEquals(OPEN, circuitBreaker.getState());
+		assertTrue(circuitBreaker.acquirePermission() > 0);
+
+		Thread.sleep(150);
+		assertEquals(0, circuitBreaker.acquirePermission());
+		assertEquals(HALF_OPEN, circuitBreaker.getState());
+		assertTrue(circuitBreaker.acquirePermission() > 0); // one probe at a time
+
+		circuitBreaker.onSuccess();
+		assertEquals(CLOSED, circuitBreaker.getState());
+		assertEquals(0, circuitBreaker.acquirePermission());
+		assertEquals(0, circuitBreaker.getFailureRate(), 0);
+	}
+
+	@Test
+	public void failedProbeDoublesPause() throws InterruptedException {
+		for (int i = 0; i < 10; i++) {
+			circuitBreaker.onFailure();
+		}
+		Thread.sleep(150);
+		assertEquals(0, circuitBreaker.acquirePermission());
+		circuitBreaker.onFailure();
+
+		assertEquals(OPEN, circuitBreaker.getState());
+		long wait = circuitBreaker.acquirePermission();
+		assertTrue(wait > 150 && wait <= 200);
+	}
+
+}
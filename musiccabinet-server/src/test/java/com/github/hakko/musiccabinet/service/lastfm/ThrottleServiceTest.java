@@ -0,0 +1,91 @@
+package com.github.hakko.musiccabinet.service.lastfm;
+
+import static com.github.hakko.musiccabinet.service.lastfm.ThrottleService.Priority.INTERACTIVE;
+import static com.github.hakko.musiccabinet.service.lastfm.ThrottleService.Priority.NEW;
+import static com.github.hakko.musiccabinet.service.lastfm.ThrottleService.Priority.REFRESH;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ThrottleServiceTest {
+
+	@Test
+	public void allowsBurstThenSmoothRate() {
+		ThrottleService throttleService = new ThrottleService();
+		throttleService.setCallsPerSecond(50);
+		throttleService.setBurst(5);
+		throttleService.setWindowSeconds(10);
+
+		assertTrue(timeToAwait(throttleService, 5) < 50);
+		long ms = timeToAwait(throttleService, 10); // 10 calls, 20 ms apart
+		assertTrue(ms >= 180 && ms < 400);
+		assertEquals(15, throttleService.getCurrentRate() * 10, 0.01);
+	}
+
+	@Test
+	public void windowLimitsCallsAfterBurst() {
+		ThrottleService throttleService = new ThrottleService();
+		throttleService.setCallsPerSecond(10);
+		throttleService.setBurst(10);
+		throttleService.setWindowSeconds(1);
+
+		assertTrue(timeToAwait(throttleService, 10) < 50);
+		// the bucket would allow next call after 100 ms, but the window is full for a second
+		assertTrue(throttleService.getWaitMillis() > 800);
+		assertTrue(timeToAwait(throttleService, 1) >= 900);
+	}
+
+	@Test
+	public void interactiveCallersDontQueueBeyondMaxWait() {
+		ThrottleService throttleService = new ThrottleService();
+		throttleService.setCallsPerSecond(1);
+		throttleService.setBurst(1);
+
+		assertTrue(throttleService.awaitAllowance(0));
+		assertFalse(throttleService.awaitAllowance(100));
+		assertEquals(0, throttleService.getQueueLength());
+	}
+
+	@Test
+	public void lowerPrioritiesLeaveReservedCalls() {
+		ThrottleService throttleService = new ThrottleService();
+		throttleService.setCallsPerSecond(1);
+		throttleService.setBurst(10);
+		throttleService.setInteractiveReserve(4);
+		throttleService.setNewReserve(2);
+
+		assertEquals(4, callsAllowedNow(throttleService, REFRESH));
+		assertEquals(2, callsAllowedNow(throttleService, NEW));
+		assertTrue(throttleService.getWaitMillis(REFRESH) > 1000);
+		assertEquals(0, throttleService.getWaitMillis(INTERACTIVE));
+		assertEquals(4, callsAllowedNow(throttleService, INTERACTIVE));
+	}
+
+	@Test
+	public void callPriorityIsInteractiveUnlessSet() {
+		assertEquals(INTERACTIVE, ThrottleService.getCallPriority());
+		ThrottleService.setCallPriority(NEW);
+		assertEquals(NEW, ThrottleService.getCallPriority());
+		ThrottleService.setCallPriority(null);
+		assertEquals(INTERACTIVE, ThrottleService.getCallPriority());
+	}
+
+	private int callsAllowedNow(ThrottleService throttleService, ThrottleService.Priority priority) {
+		int calls = 0;
+		while (throttleService.tryAcquireAllowance(priority, System.nanoTime()) == 0) {
+			calls++;
+		}
+		return calls;
+	}
+
+	private long timeToAwait(ThrottleService throttleService, int calls) {
+		long ms = -System.currentTimeMillis();
+		for (int i = 0; i < calls; i++) {
+			throttleService.awaitAllowance();
+		}
+		return ms + System.currentTimeMillis();
+	}
+
+}
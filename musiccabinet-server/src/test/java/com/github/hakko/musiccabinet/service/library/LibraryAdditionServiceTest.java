@@ -5,6 +5,12 @@ import static com.github.hakko.musiccabinet.service.library.LibraryUtil.msg;
 import static com.github.hakko.musiccabinet.service.library.LibraryUtil.set;
 import static com.github.hakko.musiccabinet.util.UnittestLibraryUtil.getFile;
 import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 import java.util.HashSet;
 
@@ -12,11 +18,14 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.integration.channel.QueueChannel;
 import org.springframework.integration.core.PollableChannel;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
+import com.github.hakko.musiccabinet.dao.LibraryAdditionDao;
 import com.github.hakko.musiccabinet.dao.jdbc.JdbcLibraryPresenceDao;
+import com.github.hakko.musiccabinet.domain.model.aggr.DirectoryContent;
 import com.github.hakko.musiccabinet.domain.model.library.File;
 
 @RunWith(SpringJUnit4ClassRunner.class)
@@ -28,11 +37,15 @@ public class LibraryAdditionServiceTest {
 
 	@Autowired
 	private JdbcLibraryPresenceDao presenceDao;
+
+	@Autowired
+	private LibraryAdditionDao additionDao;
 	
-	private String dir1 = "/dir1", dir2 = "/dir1/dir2";
+	private String dir1 = "/dir1", dir2 = "/dir1/dir2", dir3 = "/dir3", dir4 = "/dir3/dir4";
 	private File file1a = getFile(dir1, "file1a");
 	private File file1b = getFile(dir1, "file1b");
 	private File file2a = getFile(dir2, "file2a");
+	private File file4a = getFile(dir4, "file4a");
 	
 	@Before
 	public void clearLibrary() {
@@ -55,5 +68,126 @@ public class LibraryAdditionServiceTest {
 		assertEquals(set(file1a, file1b), presenceDao.getFiles(dir1));
 		assertEquals(set(file2a), presenceDao.getFiles(dir2));
 	}
+
+	@Test
+	public void addsDirectoriesInBatchesBoundedByRows() {
+		LibraryAdditionService batchingService = new LibraryAdditionService();
+		LibraryAdditionDao additionDao = mock(LibraryAdditionDao.class);
+		batchingService.setLibraryAdditionDao(additionDao);
+		batchingService.setLibraryAdditionChannel(new QueueChannel());
+		batchingService.setBatchRows(4);
+		batchingService.setBatchMillis(60000);
+
+		PollableChannel additionChannel = batchingService.libraryAdditionChannel;
+		additionChannel.send(msg(dir2, new HashSet<String>(), set(file2a)));
+		additionChannel.send(msg(dir1, set(dir2), set(file1a, file1b)));
+		additionChannel.send(msg(null, set(dir1), new HashSet<File>()));
+		additionChannel.send(FINISHED_MESSAGE);
+
+		batchingService.receive();
+
+		// first two directories reach 4 rows, last one is flushed when finished
+		verify(additionDao, times(2)).addDirectoryContents(anyListOf(DirectoryContent.class));
+		assertEquals(3, batchingService.getUpdateProgress().getFinishedOperations());
+	}
+
+	@Test
+	public void mergesChunksIntoLibraryWhileReceiving() {
+		LibraryAdditionService chunkingService = new LibraryAdditionService();
+		LibraryAdditionDao additionDao = mock(LibraryAdditionDao.class);
+		chunkingService.setLibraryAdditionDao(additionDao);
+		chunkingService.setLibraryAdditionChannel(new QueueChannel());
+		chunkingService.setChunkDirectories(2);
+
+		PollableChannel additionChannel = chunkingService.libraryAdditionChannel;
+		additionChannel.send(msg(dir2, new HashSet<String>(), set(file2a)));
+		additionChannel.send(msg(dir1, set(dir2), set(file1a, file1b)));
+		additionChannel.send(msg(null, set(dir1), new HashSet<File>()));
+		additionChannel.send(FINISHED_MESSAGE);
+
+		chunkingService.receive();
+
+		// third directory is left for updateLibrary()
+		verify(additionDao, times(3)).addDirectoryContents(anyListOf(DirectoryContent.class));
+		verify(additionDao, times(1)).updateLibraryChunk();
+	}
+
+	@Test
+	public void leavesDirectoriesWithoutParentForLaterChunk() {
+		additionService.clearImport();
+		LibraryAdditionService chunkingService = new LibraryAdditionService();
+		chunkingService.setLibraryAdditionDao(additionDao);
+		chunkingService.setLibraryAdditionChannel(new QueueChannel());
+		chunkingService.setChunkDirectories(1);
+
+		// dir4 can't be merged until its parent dir3 is scanned
+		PollableChannel additionChannel = chunkingService.libraryAdditionChannel;
+		additionChannel.send(msg(dir4, new HashSet<String>(), set(file4a)));
+		additionChannel.send(msg(dir2, new HashSet<String>(), set(file2a)));
+		additionChannel.send(msg(dir1, set(dir2), set(file1a, file1b)));
+		additionChannel.send(FINISHED_MESSAGE);
+		chunkingService.receive();
+
+		assertEquals(set(file1a, file1b), presenceDao.getFiles(dir1));
+		assertEquals(set(file2a), presenceDao.getFiles(dir2));
+		assertEquals(1, additionDao.getImportedFiles());
+
+		additionChannel.send(msg(dir3, set(dir4), new HashSet<File>()));
+		additionChannel.send(msg(null, set(dir1, dir3), new HashSet<File>()));
+		additionChannel.send(FINISHED_MESSAGE);
+		chunkingService.receive();
+
+		assertEquals(set(file4a), presenceDao.getFiles(dir4));
+		assertEquals(0, additionDao.getImportedFiles());
+	}
+
+	@Test
+	public void resumesFilesLeftByInterruptedScan() {
+		additionService.clearImport();
+
+		PollableChannel additionChannel = additionService.libraryAdditionChannel;
+		additionChannel.send(msg(dir2, new HashSet<String>(), set(file2a)));
+		additionChannel.send(msg(dir1, set(dir2), set(file1a, file1b)));
+		additionChannel.send(msg(null, set(dir1), new HashSet<File>()));
+		additionChannel.send(FINISHED_MESSAGE);
+		additionService.receive();
+
+		// scan is interrupted here, before updateLibrary()
+		assertEquals(3, additionService.resumeImport());
+		assertEquals(set(file1a, file1b), presenceDao.getFiles(dir1));
+		assertEquals(set(file2a), presenceDao.getFiles(dir2));
+		assertEquals(0, additionService.resumeImport());
+	}
+
+	@Test
+	public void resumesFilesOfDirectoriesReachedByInterruptedScan() {
+		additionService.clearImport();
+
+		PollableChannel additionChannel = additionService.libraryAdditionChannel;
+		additionChannel.send(msg(dir4, new HashSet<String>(), set(file4a)));
+		additionChannel.send(msg(dir2, new HashSet<String>(), set(file2a)));
+		additionChannel.send(msg(dir1, set(dir2), set(file1a, file1b)));
+		additionChannel.send(FINISHED_MESSAGE);
+		additionService.receive();
+
+		// scan is interrupted here, before parent directory of dir4 is read
+		assertEquals(3, additionService.resumeImport());
+		assertEquals(set(file1a, file1b), presenceDao.getFiles(dir1));
+		assertEquals(set(file2a), presenceDao.getFiles(dir2));
+		assertEquals(new HashSet<File>(), presenceDao.getFiles(dir4));
+		assertEquals(0, additionDao.getImportedFiles());
+	}
+
+	@Test
+	public void startsOverIfInterruptedScanCantBeResumed() {
+		LibraryAdditionService resumingService = new LibraryAdditionService();
+		LibraryAdditionDao additionDao = mock(LibraryAdditionDao.class);
+		when(additionDao.getImportedFiles()).thenReturn(3);
+		doThrow(new RuntimeException()).when(additionDao).updateLibraryChunk();
+		resumingService.setLibraryAdditionDao(additionDao);
+
+		assertEquals(0, resumingService.resumeImport());
+		verify(additionDao).clearImport();
+	}
 	
 }
\ No newline at end of file
@@ -4,19 +4,25 @@ import static com.github.hakko.musiccabinet.service.library.LibraryUtil.FINISHED
 import static com.github.hakko.musiccabinet.service.library.LibraryUtil.msg;
 import static com.github.hakko.musiccabinet.service.library.LibraryUtil.set;
 import static com.github.hakko.musiccabinet.util.UnittestLibraryUtil.getFile;
+import static java.util.Arrays.asList;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 
+import java.util.HashSet;
+import java.util.List;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.integration.core.PollableChannel;
+import org.springframework.integration.message.GenericMessage;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
 import com.github.hakko.musiccabinet.dao.jdbc.JdbcLibraryAdditionDao;
 import com.github.hakko.musiccabinet.dao.jdbc.JdbcLibraryPresenceDao;
+import com.github.hakko.musiccabinet.domain.model.aggr.FileRelocation;
 import com.github.hakko.musiccabinet.domain.model.library.File;
 
 @RunWith(SpringJUnit4ClassRunner.class)
@@ -63,5 +69,44 @@ public class LibraryDeletionServiceTest {
 		assertEquals(set(file1b), presenceDao.getFiles(dir1));
 		assertFalse(presenceDao.exists(dir2));
 	}
+
+	@Test
+	public void deletesFilesInChunksReportingProgress() {
+		deletionService.setChunkFiles(1);
+		try {
+			deletionService.delete(set(dir1));
+		} finally {
+			deletionService.setChunkFiles(10000);
+		}
+
+		assertFalse(presenceDao.exists(dir1));
+		assertFalse(presenceDao.exists(dir2));
+		assertEquals(3, deletionService.getUpdateProgress().getTotalOperations());
+		assertEquals(3, deletionService.getUpdateProgress().getFinishedOperations());
+	}
+
+	@Test
+	public void relocatesMovedFilesKeepingTheirIds() {
+		String dir3 = "/dir3";
+		File file3a = getFile(dir3, file2a.getFilename());
+		file3a.setModified(file2a.getModified());
+		file3a.setSize(file2a.getSize());
+		String sql = "select f.id from library.file f inner join library.directory d"
+				+ " on f.directory_id = d.id where d.path = ? and f.filename = ?";
+		int fileId = presenceDao.getJdbcTemplate().queryForInt(sql, dir2, file2a.getFilename());
+
+		PollableChannel deletionChannel = deletionService.libraryDeletionChannel;
+		deletionChannel.send(msg(dir1, set(dir2), new HashSet<File>()));
+		deletionChannel.send(new GenericMessage<List<FileRelocation>>(
+				asList(new FileRelocation(file2a, file3a))));
+		deletionChannel.send(FINISHED_MESSAGE);
+		
+		deletionService.receive();
+		deletionService.updateLibrary();
+
+		assertFalse(presenceDao.exists(dir2));
+		assertEquals(set(file3a), presenceDao.getFiles(dir3));
+		assertEquals(fileId, presenceDao.getJdbcTemplate().queryForInt(sql, dir3, file3a.getFilename()));
+	}
 	
 }
\ No newline at end of file
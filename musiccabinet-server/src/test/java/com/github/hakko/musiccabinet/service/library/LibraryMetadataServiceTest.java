@@ -0,0 +1,235 @@
+package com.github.hakko.musiccabinet.service.library;
+
+import static com.github.hakko.musiccabinet.service.library.LibraryUtil.FINISHED_MESSAGE;
+import static com.github.hakko.musiccabinet.service.library.LibraryUtil.msg;
+import static com.github.hakko.musiccabinet.util.UnittestLibraryUtil.getFile;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.springframework.integration.Message;
+import org.springframework.integration.channel.QueueChannel;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import com.github.hakko.musiccabinet.domain.model.aggr.DirectoryContent;
+import com.github.hakko.musiccabinet.domain.model.library.File;
+import com.github.hakko.musiccabinet.domain.model.library.MetaData;
+
+public class LibraryMetadataServiceTest {
+
+	@Test
+	public void readsAllFilesBeforeFinishingWithOneWorker() {
+		verifyAllFilesRead(1);
+	}
+
+	@Test
+	public void readsAllFilesBeforeFinishingWithSeveralWorkers() {
+		verifyAllFilesRead(4);
+	}
+
+	@Test
+	public void passesOnFinishingMessageWhenInterrupted() throws InterruptedException {
+		final LibraryMetadataService metadataService = new LibraryMetadataService();
+		metadataService.setLibraryMetadataChannel(new QueueChannel());
+		metadataService.setLibraryAdditionChannel(new QueueChannel());
+		metadataService.setAudioTagService(new AudioTagService());
+		metadataService.setMetadataWorkers(4);
+
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				metadataService.receive();
+			}
+		});
+		thread.start();
+		thread.interrupt();
+
+		assertEquals(FINISHED_MESSAGE, metadataService.libraryAdditionChannel.receive(5000));
+		thread.join(5000);
+		assertFalse(thread.isAlive());
+	}
+
+	@Test
+	public void requiresThreadPerWorker() throws Exception {
+		ThreadPoolTaskExecutor taskExecutor = new ThreadPoolTaskExecutor();
+		taskExecutor.setCorePoolSize(4);
+		taskExecutor.setMaxPoolSize(4);
+		LibraryMetadataService metadataService = new LibraryMetadataService();
+		metadataService.setTaskExecutor(taskExecutor);
+		metadataService.setMetadataWorkers(4);
+		metadataService.afterPropertiesSet();
+
+		metadataService.setMetadataWorkers(5);
+		try {
+			metadataService.afterPropertiesSet();
+			fail("Expected too small thread pool to fail.");
+		} catch (IllegalStateException e) {
+		}
+	}
+
+	@Test
+	public void passesOnFilesThatTimeOutWithoutTags() {
+		verifySlowFileTimesOut(1);
+		verifySlowFileTimesOut(2);
+	}
+
+	@Test
+	public void skipsFilesWhileTooManyReadersAreStuck() throws InterruptedException {
+		final CountDownLatch stuck = new CountDownLatch(1);
+		final AtomicInteger reads = new AtomicInteger();
+		LibraryMetadataService metadataService = new LibraryMetadataService();
+		metadataService.setLibraryMetadataChannel(new QueueChannel());
+		metadataService.setLibraryAdditionChannel(new QueueChannel());
+		metadataService.setAudioTagService(new AudioTagService() {
+			@Override
+			public long updateMetadata(File file) {
+				reads.incrementAndGet();
+				// like JAudioTagger, ignores being interrupted
+				while (stuck.getCount() > 0) {
+					try {
+						stuck.await();
+					} catch (InterruptedException e) {
+					}
+				}
+				return 0;
+			}
+		});
+		metadataService.setMetadataTimeoutMillis(100);
+		metadataService.setMaxAbandonedReaders(1);
+
+		Set<File> files = new HashSet<>();
+		for (int i = 0; i < 3; i++) {
+			File file = getFile("/dir", "file" + i + ".mp3");
+			file.setMetaData(null);
+			files.add(file);
+		}
+		metadataService.libraryMetadataChannel.send(msg("/dir", new HashSet<String>(), files));
+		metadataService.libraryMetadataChannel.send(FINISHED_MESSAGE);
+
+		metadataService.receive();
+
+		assertNotNull(metadataService.libraryAdditionChannel.receive(0));
+		assertEquals(FINISHED_MESSAGE, metadataService.libraryAdditionChannel.receive(0));
+		for (File file : files) {
+			assertEquals(MetaData.Mediatype.MP3, file.getMetadata().getMediaType());
+		}
+		assertEquals(1, reads.get());
+		assertEquals(3, metadataService.getTimeouts());
+		assertEquals(1, metadataService.getAbandonedReaders());
+		assertTrue(metadataService.getUpdateProgress().getUpdateDescription().contains("1 reader threads stuck"));
+
+		stuck.countDown();
+		long deadline = System.currentTimeMillis() + 5000;
+		while (metadataService.getAbandonedReaders() > 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(0, metadataService.getAbandonedReaders());
+	}
+
+	private void verifySlowFileTimesOut(int workers) {
+		LibraryMetadataService metadataService = new LibraryMetadataService();
+		metadataService.setLibraryMetadataChannel(new QueueChannel());
+		metadataService.setLibraryAdditionChannel(new QueueChannel());
+		metadataService.setAudioTagService(new AudioTagService() {
+			@Override
+			public long updateMetadata(File file) {
+				if (file.getFilename().startsWith("slow")) {
+					try {
+						Thread.sleep(10000);
+					} catch (InterruptedException e) {
+						return 0;
+					}
+				}
+				MetaData metaData = new MetaData();
+				metaData.setArtist("artist");
+				metaData.setTitle("title");
+				file.setMetaData(metaData);
+				return 0;
+			}
+		});
+		metadataService.setMetadataWorkers(workers);
+		metadataService.setMetadataTimeoutMillis(200);
+
+		Set<File> files = new HashSet<>();
+		File fastFile = getFile("/dir", "fast.mp3");
+		File slowFile = getFile("/dir", "slow.mp3");
+		fastFile.setMetaData(null);
+		slowFile.setMetaData(null);
+		files.add(fastFile);
+		files.add(slowFile);
+		metadataService.libraryMetadataChannel.send(msg("/dir", new HashSet<String>(), files));
+		metadataService.libraryMetadataChannel.send(FINISHED_MESSAGE);
+
+		metadataService.receive();
+
+		assertNotNull(metadataService.libraryAdditionChannel.receive(0));
+		assertEquals(FINISHED_MESSAGE, metadataService.libraryAdditionChannel.receive(0));
+		assertEquals("artist", fastFile.getMetadata().getArtist());
+		assertEquals(MetaData.Mediatype.MP3, slowFile.getMetadata().getMediaType());
+		assertNull(slowFile.getMetadata().getArtist());
+		assertNull(slowFile.getMetadata().getTitle());
+		assertEquals(1, metadataService.getTimeouts());
+		assertEquals(2, metadataService.getUpdateProgress().getFinishedOperations());
+		assertTrue(metadataService.getUpdateProgress().getUpdateDescription().contains("1 timed out"));
+		assertEquals(slowFile.getDirectory() + java.io.File.separator + slowFile.getFilename(),
+				metadataService.getSlowestFiles().keySet().iterator().next());
+	}
+
+	private void verifyAllFilesRead(int workers) {
+		LibraryMetadataService metadataService = new LibraryMetadataService();
+		metadataService.setLibraryMetadataChannel(new QueueChannel());
+		metadataService.setLibraryAdditionChannel(new QueueChannel());
+		metadataService.setAudioTagService(new AudioTagService() {
+			@Override
+			public long updateMetadata(File file) {
+				file.setMetaData(new MetaData());
+				return 0;
+			}
+		});
+		metadataService.setMetadataWorkers(workers);
+
+		Set<String> directories = new HashSet<>();
+		for (int d = 0; d < 20; d++) {
+			String dir = "/dir" + d;
+			Set<File> files = new HashSet<>();
+			for (int f = 0; f < d; f++) {
+				File file = getFile(dir, "file" + f);
+				file.setMetaData(null);
+				files.add(file);
+			}
+			metadataService.libraryMetadataChannel.send(msg(dir, new HashSet<String>(), files));
+			directories.add(dir);
+		}
+		metadataService.libraryMetadataChannel.send(FINISHED_MESSAGE);
+
+		metadataService.receive();
+
+		Set<String> receivedDirectories = new HashSet<>();
+		for (int d = 0; d < 20; d++) {
+			Message<?> message = metadataService.libraryAdditionChannel.receive(0);
+			assertNotNull(message);
+			DirectoryContent content = (DirectoryContent) message.getPayload();
+			for (File file : content.getFiles()) {
+				assertNotNull(file.getMetadata());
+			}
+			receivedDirectories.add(content.getDirectory());
+		}
+		assertEquals(directories, receivedDirectories);
+		assertEquals(FINISHED_MESSAGE, metadataService.libraryAdditionChannel.receive(0));
+		assertEquals(190, metadataService.getUpdateProgress().getFinishedOperations());
+		if (workers > 1) {
+			assertEquals(workers, metadataService.getWorkerProgress().size());
+		}
+		assertNull(metadataService.libraryAdditionChannel.receive(0));
+	}
+
+}
@@ -8,6 +8,8 @@ import static org.junit.Assert.assertNotNull;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
+import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import org.junit.Test;
@@ -20,6 +22,7 @@ import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
 import com.github.hakko.musiccabinet.dao.LibraryPresenceDao;
 import com.github.hakko.musiccabinet.domain.model.aggr.DirectoryContent;
+import com.github.hakko.musiccabinet.domain.model.aggr.FileRelocation;
 import com.github.hakko.musiccabinet.domain.model.library.File;
 
 @RunWith(SpringJUnit4ClassRunner.class)
@@ -66,5 +69,76 @@ public class LibraryPresenceServiceTest {
 		assertEquals(set(file2b), addedFiles);
 		assertEquals(set(file2, file3), deletedFiles);
 	}
+
+	@Test
+	public void updatesModifiedFilesInsteadOfDeletingThem() {
+		LibraryPresenceDao presenceDao = mock(LibraryPresenceDao.class);
+		when(presenceDao.getFiles(dir1)).thenReturn(set(file1, file2));
+		when(presenceDao.getSubdirectories(dir1)).thenReturn(set(dir2));
+		presenceService.setLibraryPresenceDao(presenceDao);
+
+		File modifiedFile2 = getFile(dir1, "f2");
+		modifiedFile2.setModified(file2.getModified().plusMinutes(1));
+
+		PollableChannel presenceChannel = presenceService.libraryPresenceChannel;
+		presenceChannel.send(LibraryUtil.msg(dir1, set(dir2), set(file1, modifiedFile2)));
+		presenceChannel.send(FINISHED_MESSAGE);
+
+		presenceService.receive();
+
+		Message<?> additionMessage = presenceService.libraryMetadataChannel.receive();
+		assertEquals(set(modifiedFile2), ((DirectoryContent) additionMessage.getPayload()).getFiles());
+		assertEquals(FINISHED_MESSAGE, presenceService.libraryMetadataChannel.receive());
+		assertEquals(FINISHED_MESSAGE, presenceService.libraryDeletionChannel.receive());
+	}
+
+	/*
+	 * dir2 is moved to dir3, while file1 is also copied to dir4.
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void relocatesMovedFilesInsteadOfAddingThem() {
+		String dir3 = "/d3", dir4 = "/d4";
+		File movedFile = getFile(dir2, "f1"), copiedFile = getFile(dir1, "f1");
+		File relocatedFile = getFile(dir3, "f1"), copyFile = getFile(dir4, "f1");
+		relocatedFile.setModified(movedFile.getModified());
+		relocatedFile.setSize(movedFile.getSize());
+		for (File file : set(copiedFile, copyFile)) {
+			file.setModified(movedFile.getModified());
+			file.setSize(movedFile.getSize() + 1);
+		}
+
+		LibraryPresenceDao presenceDao = mock(LibraryPresenceDao.class);
+		when(presenceDao.getSubdirectories(null)).thenReturn(set(dir1));
+		when(presenceDao.getSubdirectories(dir1)).thenReturn(set(dir2));
+		when(presenceDao.getFiles(dir1)).thenReturn(set(copiedFile));
+		when(presenceDao.getFilesNamed(set("f1"))).thenReturn(set(movedFile, copiedFile));
+		presenceService.setLibraryPresenceDao(presenceDao);
+
+		PollableChannel presenceChannel = presenceService.libraryPresenceChannel;
+		presenceChannel.send(LibraryUtil.msg(null, set(dir1, dir3, dir4), new HashSet<File>()));
+		presenceChannel.send(LibraryUtil.msg(dir1, new HashSet<String>(), set(copiedFile)));
+		presenceChannel.send(LibraryUtil.msg(dir3, new HashSet<String>(), set(relocatedFile)));
+		presenceChannel.send(LibraryUtil.msg(dir4, new HashSet<String>(), set(copyFile)));
+		presenceChannel.send(FINISHED_MESSAGE);
+
+		presenceService.receive();
+
+		Set<File> addedFiles = new HashSet<>();
+		Message<?> message;
+		while (!FINISHED_MESSAGE.equals(message = presenceService.libraryMetadataChannel.receive())) {
+			addedFiles.addAll(((DirectoryContent) message.getPayload()).getFiles());
+		}
+		assertEquals(set(copyFile), addedFiles);
+
+		assertEquals(set(dir2), ((DirectoryContent) presenceService.libraryDeletionChannel
+				.receive().getPayload()).getSubDirectories());
+		List<FileRelocation> relocations = (List<FileRelocation>)
+				presenceService.libraryDeletionChannel.receive().getPayload();
+		assertEquals(1, relocations.size());
+		assertEquals(movedFile, relocations.get(0).getFrom());
+		assertEquals(relocatedFile, relocations.get(0).getTo());
+		assertEquals(FINISHED_MESSAGE, presenceService.libraryDeletionChannel.receive());
+	}
 	
 }
\ No newline at end of file
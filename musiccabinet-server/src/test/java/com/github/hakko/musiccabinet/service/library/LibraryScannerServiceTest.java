@@ -4,6 +4,10 @@ import static com.github.hakko.musiccabinet.service.library.LibraryUtil.set;
 import static java.io.File.separatorChar;
 import static java.lang.Thread.currentThread;
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 import java.io.File;
 import java.util.List;
@@ -95,5 +99,20 @@ public class LibraryScannerServiceTest {
 		
 		scannerService.setFileSeparator(previousFileSeparator);
 	}
+
+	@Test
+	public void allowsNewScanAfterFailedScan() throws ApplicationException {
+		LibraryScannerService failingService = new LibraryScannerService();
+		LibraryAdditionService additionService = mock(LibraryAdditionService.class);
+		when(additionService.resumeImport()).thenThrow(new RuntimeException());
+		failingService.setLibraryAdditionService(additionService);
+
+		try {
+			failingService.update(set("/a"), true);
+			fail();
+		} catch (RuntimeException e) {
+		}
+		assertFalse(failingService.isLibraryBeingScanned());
+	}
 	
 }
\ No newline at end of file
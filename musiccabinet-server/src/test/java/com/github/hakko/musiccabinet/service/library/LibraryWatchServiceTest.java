@@ -0,0 +1,136 @@
+package com.github.hakko.musiccabinet.service.library;
+
+import static com.github.hakko.musiccabinet.service.library.LibraryUtil.set;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.hakko.musiccabinet.exception.ApplicationException;
+
+public class LibraryWatchServiceTest {
+
+	private Path root;
+	private LibraryWatchService watchService;
+	private BlockingQueue<Set<String>> updates = new LinkedBlockingQueue<>();
+	private Set<String> updated = new HashSet<>();
+
+	@Before
+	public void setUp() throws Exception {
+		root = Files.createTempDirectory("watch");
+		watchService = new LibraryWatchService();
+		watchService.setDebounceMillis(100);
+		watchService.setPollMillis(200);
+		watchService.setLibraryScannerService(new LibraryScannerService() {
+			@Override
+			public void updateDirectories(Set<String> directories) {
+				updates.add(directories);
+			}
+		});
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		watchService.stop();
+		deleteTree(root);
+	}
+
+	@Test
+	public void updatesDirectoriesWithChangedContent() throws Exception {
+		Path album = Files.createDirectory(root.resolve("album"));
+		watchService.start(set(root.toString()));
+
+		Files.createFile(album.resolve("track.mp3"));
+		assertTrue(awaitUpdateOf(album));
+
+		Path newAlbum = Files.createDirectory(root.resolve("new album"));
+		assertTrue(awaitUpdateOf(newAlbum));
+		assertTrue(awaitUpdateOf(root));
+	}
+
+	@Test
+	public void pollsFileStoresWithoutReliableEvents() throws Exception {
+		Path album = Files.createDirectory(root.resolve("album"));
+		watchService.setPollingFileStoreTypes(set(Files.getFileStore(root).type()));
+		watchService.start(set(root.toString()));
+
+		// make sure modification time differs, even with coarse timestamps.
+		Thread.sleep(1100);
+		Files.createFile(album.resolve("track.mp3"));
+		assertTrue(awaitUpdateOf(album));
+	}
+
+	@Test
+	public void updatesNewDirectoriesAfterTheirParent() {
+		watchService.setDebounceMillis(0);
+		watchService.setMaxDirectoriesPerUpdate(1);
+		Path artist = root.resolve("artist"), album = artist.resolve("album");
+		watchService.directoryChanged(album);
+		watchService.directoryChanged(artist);
+		watchService.directoryChanged(root);
+
+		for (Path dir : Arrays.asList(root, artist, album)) {
+			watchService.updateChangedDirectories();
+			assertEquals(set(dir.toString()), updates.poll());
+		}
+	}
+
+	@Test
+	public void retriesDirectoriesThatCouldNotBeUpdated() {
+		final AtomicInteger attempts = new AtomicInteger();
+		watchService.setDebounceMillis(0);
+		watchService.setLibraryScannerService(new LibraryScannerService() {
+			@Override
+			public void updateDirectories(Set<String> directories) throws ApplicationException {
+				if (attempts.incrementAndGet() == 1) {
+					throw new ApplicationException("Library is already being scanned!");
+				}
+				updates.add(directories);
+			}
+		});
+		watchService.directoryChanged(root);
+
+		watchService.updateChangedDirectories();
+		watchService.updateChangedDirectories();
+		assertEquals(2, attempts.get());
+		assertEquals(set(root.toString()), updates.poll());
+	}
+
+	private boolean awaitUpdateOf(Path dir) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10000;
+		while (!updated.contains(dir.toString()) && System.currentTimeMillis() < deadline) {
+			Set<String> directories = updates.poll(100, TimeUnit.MILLISECONDS);
+			if (directories != null) {
+				updated.addAll(directories);
+			}
+		}
+		return updated.contains(dir.toString());
+	}
+
+	private void deleteTree(Path dir) throws Exception {
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+			for (Path path : stream) {
+				if (Files.isDirectory(path)) {
+					deleteTree(path);
+				} else {
+					Files.delete(path);
+				}
+			}
+		}
+		Files.delete(dir);
+	}
+
+}
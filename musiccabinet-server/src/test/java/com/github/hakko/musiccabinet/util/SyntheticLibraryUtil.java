@@ -0,0 +1,96 @@
+package com.github.hakko.musiccabinet.util;
+
+import static java.lang.Thread.currentThread;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import org.apache.commons.io.IOUtils;
+
+/*
+ * Creates a synthetic music library on disk, of any size, for load testing
+ * the library scan and the last.fm update against StandInWebserviceServer.
+ *
+ * Every track is a small mp3 file (the audio of library/id3v1.mp3), tagged
+ * with artist, album, title and track number. The first artists are ones
+ * with recorded last.fm responses, the rest are named Artist 00001 and so on.
+ */
+public class SyntheticLibraryUtil {
+
+	private static final String[] RECORDED_ARTISTS = {
+		"Cher", "ABBA", "Tina Turner", "Rihanna", "Paul Kelly", "Nirvana", "Hurts"};
+
+	private static final String AUDIO = "library/id3v1.mp3";
+	private static final int ID3V1_SIZE = 128;
+
+	public static String getArtistName(int artist) {
+		return artist < RECORDED_ARTISTS.length ? RECORDED_ARTISTS[artist] :
+			String.format("Artist %05d", artist - RECORDED_ARTISTS.length + 1);
+	}
+
+	/*
+	 * Creates artists * albums * tracks files in directory/artist/album, and
+	 * returns the number of files created.
+	 */
+	public static int createLibrary(File directory, int artists, int albums, int tracks) throws IOException {
+		byte[] audio;
+		try (InputStream is = currentThread().getContextClassLoader().getResourceAsStream(AUDIO)) {
+			audio = IOUtils.toByteArray(is);
+		}
+		audio = Arrays.copyOf(audio, audio.length - ID3V1_SIZE);
+
+		int files = 0;
+		for (int i = 0; i < artists; i++) {
+			String artist = getArtistName(i);
+			for (int j = 1; j <= albums; j++) {
+				String album = "Album " + j;
+				File albumDirectory = new File(new File(directory, artist), album);
+				albumDirectory.mkdirs();
+				for (int k = 1; k <= tracks; k++) {
+					String title = "Track " + k;
+					try (OutputStream os = new FileOutputStream(new File(albumDirectory,
+							String.format("%02d %s.mp3", k, title)))) {
+						os.write(getTag(artist, album, title, k));
+						os.write(audio);
+					}
+					files++;
+				}
+			}
+		}
+		return files;
+	}
+
+	/*
+	 * Returns an ID3v2.3 tag, with ISO-8859-1 text frames.
+	 */
+	private static byte[] getTag(String artist, String album, String title, int track) throws IOException {
+		ByteArrayOutputStream frames = new ByteArrayOutputStream();
+		DataOutputStream dos = new DataOutputStream(frames);
+		String[][] textFrames = {{"TPE1", artist}, {"TALB", album}, {"TIT2", title}, {"TRCK", "" + track}};
+		for (String[] textFrame : textFrames) {
+			byte[] text = textFrame[1].getBytes("ISO-8859-1");
+			dos.writeBytes(textFrame[0]);
+			dos.writeInt(text.length + 1);
+			dos.writeShort(0);
+			dos.writeByte(0);
+			dos.write(text);
+		}
+		int size = frames.size();
+
+		ByteArrayOutputStream tag = new ByteArrayOutputStream();
+		dos = new DataOutputStream(tag);
+		dos.writeBytes("ID3");
+		dos.writeByte(3);
+		dos.writeShort(0);
+		dos.writeInt((size & 0x7f) | ((size << 1) & 0x7f00) | ((size << 2) & 0x7f0000) | ((size << 3) & 0x7f000000));
+		frames.writeTo(dos);
+		return tag.toByteArray();
+	}
+
+}
@@ -0,0 +1,99 @@
+package com.github.hakko.musiccabinet.ws;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.BasicResponseHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.hakko.musiccabinet.ws.lastfm.AbstractWSGetClient;
+import com.github.hakko.musiccabinet.ws.musicbrainz.AbstractMusicBrainzClient;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class PooledHttpClientTest {
+
+	private HttpServer server;
+	private String url;
+	private volatile boolean gzipped;
+
+	private static final String RESPONSE = "<lfm status=\"ok\"></lfm>";
+
+	@Before
+	public void startServer() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+				boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+				exchange.getResponseHeaders().add("Content-Type", "text/xml; charset=UTF-8");
+				gzipped = gzip;
+				if (gzip) {
+					exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+				}
+				exchange.sendResponseHeaders(200, 0);
+				OutputStream os = exchange.getResponseBody();
+				if (gzip) {
+					os = new GZIPOutputStream(os);
+				}
+				os.write(RESPONSE.getBytes("UTF-8"));
+				os.close();
+			}
+		});
+		server.start();
+		url = "http://localhost:" + server.getAddress().getPort() + "/2.0";
+	}
+
+	@After
+	public void stopServer() {
+		server.stop(0);
+	}
+
+	@Test
+	public void clientsShareDefaultClient() {
+		assertSame(PooledHttpClient.getDefault(), new AbstractWSGetClient() {}.getHttpClient());
+		assertSame(PooledHttpClient.getDefault(), new AbstractMusicBrainzClient() {}.getHttpClient());
+	}
+
+	@Test
+	public void closingWSClientKeepsSharedClientOpen() throws IOException {
+		PooledHttpClient httpClient = PooledHttpClient.getDefault();
+		new AbstractWSGetClient() {}.close();
+
+		assertEquals(RESPONSE, httpClient.execute(new HttpGet(url), new BasicResponseHandler()));
+	}
+
+	@Test
+	public void decompressesGzippedResponses() throws IOException {
+		PooledHttpClient httpClient = PooledHttpClient.getDefault();
+
+		for (int i = 0; i < 3; i++) {
+			assertEquals(RESPONSE, httpClient.execute(new HttpGet(url), new BasicResponseHandler()));
+		}
+		assertTrue(gzipped);
+	}
+
+	@Test
+	public void routesCallsThroughProxy() throws IOException {
+		PooledHttpClient httpClient = PooledHttpClient.getDefault();
+		httpClient.setProxy("localhost:" + server.getAddress().getPort());
+		try {
+			assertEquals(RESPONSE, httpClient.execute(new HttpGet("http://"
+					+ AbstractWSGetClient.HOST + "/2.0/"), new BasicResponseHandler()));
+		} finally {
+			httpClient.setProxy("");
+		}
+	}
+
+}
@@ -0,0 +1,101 @@
+package com.github.hakko.musiccabinet.ws;
+
+import static com.github.hakko.musiccabinet.domain.model.library.WebserviceInvocation.Calltype.ARTIST_GET_INFO;
+import static com.github.hakko.musiccabinet.domain.model.library.WebserviceInvocation.Calltype.ARTIST_GET_SIMILAR;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.NameValuePair;
+import org.apache.http.message.BasicNameValuePair;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ResponseCacheTest {
+
+	private File directory;
+	private ResponseCache cache;
+
+	private static final String PATH = "ws.audioscrobbler.com/2.0";
+	private static final String RESPONSE = "<lfm status=\"ok\"><artist><name>Cher</name></artist></lfm>";
+
+	@Before
+	public void createCache() throws IOException {
+		directory = File.createTempFile("responsecache", "");
+		directory.delete();
+		cache = new ResponseCache();
+		cache.setDirectory(directory.getPath());
+	}
+
+	@After
+	public void deleteCache() {
+		delete(directory);
+	}
+
+	@Test
+	public void returnsCachedResponse() {
+		assertNull(cache.get(ARTIST_GET_INFO, PATH, params("artist", "Cher")));
+
+		cache.put(ARTIST_GET_INFO, PATH, params("artist", "Cher"), RESPONSE);
+
+		assertEquals(RESPONSE, cache.get(ARTIST_GET_INFO, PATH, params("artist", "Cher")));
+		assertNull(cache.get(ARTIST_GET_INFO, PATH, params("artist", "Madonna")));
+		assertNull(cache.get(ARTIST_GET_SIMILAR, PATH, params("artist", "Cher")));
+	}
+
+	@Test
+	public void keyIgnoresParameterOrderAndApiKey() {
+		cache.put(ARTIST_GET_INFO, PATH, Arrays.<NameValuePair>asList(
+				new BasicNameValuePair("api_key", "1"),
+				new BasicNameValuePair("method", "artist.getinfo"),
+				new BasicNameValuePair("artist", "Cher")), RESPONSE);
+
+		assertEquals(RESPONSE, cache.get(ARTIST_GET_INFO, PATH, Arrays.<NameValuePair>asList(
+				new BasicNameValuePair("artist", "Cher"),
+				new BasicNameValuePair("method", "artist.getinfo"),
+				new BasicNameValuePair("api_key", "2"))));
+	}
+
+	@Test
+	public void ignoresResponsesOlderThanDaysToCache() {
+		cache.put(ARTIST_GET_INFO, PATH, params("artist", "Cher"), RESPONSE);
+		File file = cache.getFile(ARTIST_GET_INFO, PATH, params("artist", "Cher"));
+		assertTrue(file.setLastModified(System.currentTimeMillis()
+				- TimeUnit.DAYS.toMillis(ARTIST_GET_INFO.getDaysToCache() + 1)));
+
+		assertNull(cache.get(ARTIST_GET_INFO, PATH, params("artist", "Cher")));
+	}
+
+	@Test
+	public void isDisabledWithoutDirectory() {
+		cache.setDirectory("");
+		cache.put(ARTIST_GET_INFO, PATH, params("artist", "Cher"), RESPONSE);
+
+		assertFalse(cache.isEnabled());
+		assertNull(cache.get(ARTIST_GET_INFO, PATH, params("artist", "Cher")));
+		assertFalse(directory.exists());
+	}
+
+	private List<NameValuePair> params(String name, String value) {
+		return Arrays.<NameValuePair>asList(new BasicNameValuePair(name, value));
+	}
+
+	private void delete(File file) {
+		File[] files = file.listFiles();
+		if (files != null) {
+			for (File child : files) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+}
@@ -0,0 +1,358 @@
+package com.github.hakko.musiccabinet.ws;
+
+import static com.github.hakko.musiccabinet.configuration.CharSet.UTF8;
+import static java.lang.Thread.currentThread;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringEscapeUtils;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.utils.URLEncodedUtils;
+
+import com.github.hakko.musiccabinet.util.ResourceUtil;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/*
+ * Local stand-in for last.fm and MusicBrainz, meant for load and regression
+ * testing of the update pipeline without network access.
+ *
+ * Web service clients reach it by using it as HTTP proxy (see
+ * PooledHttpClient.setProxy), so requests keep their real host and path.
+ *
+ * Last.fm calls are answered with the recorded response of
+ * src/test/resources/last.fm/xml, if there is one for the requested
+ * artist/album/tag/user (artistinfo.cher.xml for artist.getinfo of Cher, etc).
+ * For any other artist, a response is generated from a recorded one, with the
+ * names replaced. This way, a library of arbitrarily many artists and tracks
+ * can be updated. MusicBrainz calls are answered the same way, with ids
+ * derived from the requested artist.
+ *
+ * On top of that, every call can be delayed latencyMillis, a share of calls
+ * can fail (errorRate, alternating HTTP 503 and last.fm error 16), and the
+ * last.fm terms are enforced: calls above callsPerSecond (with a burst of
+ * burst calls, 20 by default as calls are delayed unevenly on their way) are
+ * answered by error 29, rate limit exceeded. MusicBrainz
+ * calls above one per second are answered by HTTP 503.
+ */
+public class StandInWebserviceServer {
+
+	private HttpServer server;
+	private ExecutorService executor;
+
+	private volatile long latencyMillis = 0;
+	private volatile double errorRate = 0;
+	private RateLimit lastFmRateLimit = new RateLimit(5, 20);
+	private RateLimit musicBrainzRateLimit = new RateLimit(1, 2);
+
+	private final AtomicInteger calls = new AtomicInteger();
+	private final AtomicInteger injectedErrors = new AtomicInteger();
+	private final AtomicInteger rateLimitViolations = new AtomicInteger();
+
+	private final Map<String, String> fixtures = new HashMap<>();
+
+	private static final String LASTFM_XML = "last.fm/xml/";
+	private static final String MUSICBRAINZ_XML = "musicbrainz/xml/";
+	private static final String MUSICBRAINZ_PATH = "/ws/2/";
+
+	private static final String RESPONSE_OK = "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n<lfm status=\"ok\">\n</lfm>";
+	private static final String RESPONSE_FAILED = "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n"
+			+ "<lfm status=\"failed\">\n<error code=\"%d\">%s</error></lfm>";
+
+	private static final Pattern UUID_PATTERN = Pattern.compile(
+			"[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}");
+
+	/*
+	 * Recorded responses used per last.fm method: name of recorded file, the
+	 * parameters that make up the rest of the file name of other recorded
+	 * responses, and their values in the recorded file (replaced by requested
+	 * values when generating a response).
+	 */
+	private static final Object[][] LASTFM_METHODS = {
+		{"artist.getinfo", "artistinfo.cher.xml", new String[] {"artist"}, new String[] {"Cher"}},
+		{"artist.getsimilar", "similarartists.cher.xml", new String[] {"artist"}, new String[] {"Cher"}},
+		{"artist.gettoptags", "toptags.cher.xml", new String[] {"artist"}, new String[] {"Cher"}},
+		{"artist.gettoptracks", "toptracks.cher.xml", new String[] {"artist"}, new String[] {"Cher"}},
+		{"album.getinfo", "albuminfo.nirvana.nevermind.xml",
+			new String[] {"artist", "album"}, new String[] {"Nirvana", "Nevermind"}},
+		{"track.getsimilar", "similartracks.cher.believe.xml",
+			new String[] {"artist", "track"}, new String[] {"Cher", "Believe"}},
+		{"tag.getinfo", "taginfo.pop.xml", new String[] {"tag"}, new String[] {"pop"}},
+		{"tag.gettopartists", "tagtopartists.disco.xml", new String[] {"tag"}, new String[] {"disco"}},
+		{"group.getweeklyartistchart", "group.weeklyartistchart.xml", new String[0], new String[0]},
+		{"user.gettopartists", "usertopartists.arnathalon.overall.xml",
+			new String[] {"user", "period"}, new String[] {"arnathalon", "overall"}},
+		{"user.getrecommendedartists", "userrecommendedartists.rj.xml", new String[] {"user"}, new String[] {"rj"}},
+		{"user.getlovedtracks", "userlovedtracks.rj.xml", new String[] {"user"}, new String[] {"rj"}},
+		{"library.gettracks", "scrobbledtracks.xml", new String[0], new String[0]},
+		{"auth.getsession", "auth.getSession.xml", new String[0], new String[0]}
+	};
+
+	/*
+	 * Starts server on given port, 0 picks a free one.
+	 */
+	public void start(int port) throws IOException {
+		server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+		server.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					StandInWebserviceServer.this.handle(exchange);
+				} catch (RuntimeException e) {
+					respond(exchange, 500, e.toString());
+				}
+			}
+		});
+		executor = Executors.newCachedThreadPool();
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	public void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/*
+	 * Returns host:port, as expected by PooledHttpClient.setProxy().
+	 */
+	public String getProxy() {
+		return "localhost:" + getPort();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		calls.incrementAndGet();
+		sleep(latencyMillis);
+		String path = exchange.getRequestURI().getPath();
+		List<NameValuePair> params = URLEncodedUtils.parse(exchange.getRequestURI(), UTF8);
+		if ("POST".equals(exchange.getRequestMethod())) {
+			params.addAll(URLEncodedUtils.parse(
+					IOUtils.toString(exchange.getRequestBody(), UTF8), Charset.forName(UTF8)));
+		}
+		boolean musicBrainz = path.startsWith(MUSICBRAINZ_PATH);
+
+		if (!(musicBrainz ? musicBrainzRateLimit : lastFmRateLimit).tryAcquire()) {
+			rateLimitViolations.incrementAndGet();
+			if (musicBrainz) {
+				respond(exchange, 503, "Rate limit exceeded");
+			} else {
+				respond(exchange, 200, String.format(RESPONSE_FAILED, 29, "Rate limit exceeded"));
+			}
+		} else if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+			if (injectedErrors.incrementAndGet() % 2 == 0 && !musicBrainz) {
+				respond(exchange, 200, String.format(RESPONSE_FAILED, 16,
+						"There was a temporary error processing your request"));
+			} else {
+				respond(exchange, 503, "Service temporarily unavailable");
+			}
+		} else if (musicBrainz) {
+			respond(exchange, 200, getMusicBrainzResponse(path, params));
+		} else {
+			respond(exchange, 200, getLastFmResponse(params));
+		}
+	}
+
+	private String getLastFmResponse(List<NameValuePair> params) {
+		String method = getParameter(params, "method");
+		for (Object[] lastFmMethod : LASTFM_METHODS) {
+			if (lastFmMethod[0].equals(method == null ? null : method.toLowerCase())) {
+				return getLastFmResponse(params, (String) lastFmMethod[1],
+						(String[]) lastFmMethod[2], (String[]) lastFmMethod[3]);
+			}
+		}
+		return RESPONSE_OK; // scrobbles, loves etc
+	}
+
+	private String getLastFmResponse(List<NameValuePair> params, String template,
+			String[] names, String[] templateValues) {
+		StringBuilder recorded = new StringBuilder(template.substring(0, template.indexOf('.')));
+		String[] values = new String[names.length];
+		for (int i = 0; i < names.length; i++) {
+			values[i] = getParameter(params, names[i]);
+			recorded.append('.').append(values[i] == null ? "" :
+				values[i].toLowerCase().replaceAll("[^\\p{L}\\p{N}]", ""));
+		}
+		String response = getFixture(LASTFM_XML + recorded + ".xml");
+		if (response == null) {
+			response = getFixture(LASTFM_XML + template);
+			for (int i = 0; i < names.length; i++) {
+				if (values[i] != null) {
+					response = replaceWord(response, templateValues[i], values[i]);
+				}
+			}
+		}
+		return response;
+	}
+
+	/*
+	 * Artist queries are answered by artistQuery.xml, with the requested name and
+	 * an id derived from it. Release (group) queries by artist id are answered
+	 * by release(Group).xml, with all ids but the artist's derived from it.
+	 */
+	private String getMusicBrainzResponse(String path, List<NameValuePair> params) {
+		String query = getParameter(params, "query");
+		if (path.startsWith(MUSICBRAINZ_PATH + "artist")) {
+			String name = query.replaceFirst("^artist:\"(.*)\"$", "$1").replaceAll("\\\\(.)", "$1");
+			String response = replaceWord(getFixture(MUSICBRAINZ_XML + "artistQuery.xml"),
+					"Cult of Luna", name);
+			return replaceIds(response, "d347406f-839d-4423-9a28-188939282afa", getId(name));
+		}
+		Matcher arid = UUID_PATTERN.matcher(query);
+		if (!arid.find()) {
+			return getFixture(MUSICBRAINZ_XML + "release-empty.xml");
+		}
+		if (path.startsWith(MUSICBRAINZ_PATH + "release-group")) {
+			return replaceIds(getFixture(MUSICBRAINZ_XML + "releaseGroup.xml"), null, arid.group());
+		}
+		return replaceIds(getFixture(MUSICBRAINZ_XML + "release.xml"),
+				"d13f0f47-36f9-4661-87fe-2de56f45c649", arid.group());
+	}
+
+	/*
+	 * Replaces whole word occurrences of a recorded name by a requested one.
+	 */
+	private String replaceWord(String response, String recordedName, String name) {
+		return Pattern.compile("(?<![\\p{L}\\p{N}])" + Pattern.quote(recordedName) + "(?![\\p{L}\\p{N}])")
+				.matcher(response).replaceAll(Matcher.quoteReplacement(StringEscapeUtils.escapeXml(name)));
+	}
+
+	/*
+	 * Replaces ownId by id, and all other ids by ones derived from id.
+	 */
+	private String replaceIds(String response, String ownId, String id) {
+		Matcher matcher = UUID_PATTERN.matcher(response);
+		StringBuffer sb = new StringBuffer(response.length());
+		while (matcher.find()) {
+			matcher.appendReplacement(sb, matcher.group().equals(ownId) ?
+					id : getId(matcher.group() + id));
+		}
+		return matcher.appendTail(sb).toString();
+	}
+
+	private String getId(String name) {
+		return UUID.nameUUIDFromBytes(name.getBytes(Charset.forName(UTF8))).toString();
+	}
+
+	private String getParameter(List<NameValuePair> params, String name) {
+		for (NameValuePair param : params) {
+			if (param.getName().equals(name)) {
+				return param.getValue();
+			}
+		}
+		return null;
+	}
+
+	/*
+	 * Returns content of a recorded response, or null if there is none.
+	 */
+	private String getFixture(String resource) {
+		synchronized (fixtures) {
+			if (!fixtures.containsKey(resource)) {
+				fixtures.put(resource, currentThread().getContextClassLoader().getResource(resource)
+						== null ? null : new ResourceUtil(resource).getContent());
+			}
+			return fixtures.get(resource);
+		}
+	}
+
+	private void respond(HttpExchange exchange, int status, String body) throws IOException {
+		String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+		boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+		exchange.getResponseHeaders().add("Content-Type", "text/xml; charset=UTF-8");
+		if (gzip) {
+			exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+		}
+		exchange.sendResponseHeaders(status, 0);
+		OutputStream os = exchange.getResponseBody();
+		if (gzip) {
+			os = new GZIPOutputStream(os);
+		}
+		os.write(body.getBytes(UTF8));
+		os.close();
+	}
+
+	private void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			currentThread().interrupt();
+		}
+	}
+
+	/*
+	 * Token bucket, refilled at callsPerSecond and holding at most burst calls.
+	 */
+	private static class RateLimit {
+
+		private final long intervalNanos;
+		private final int burst;
+		private long nextNanos = System.nanoTime();
+
+		private RateLimit(int callsPerSecond, int burst) {
+			this.intervalNanos = callsPerSecond <= 0 ? 0 : TimeUnit.SECONDS.toNanos(1) / callsPerSecond;
+			this.burst = burst;
+		}
+
+		private synchronized boolean tryAcquire() {
+			long now = System.nanoTime();
+			if (nextNanos - now > (burst - 1) * intervalNanos) {
+				return false;
+			}
+			nextNanos = Math.max(nextNanos, now) + intervalNanos;
+			return true;
+		}
+
+	}
+
+	public int getCalls() {
+		return calls.get();
+	}
+
+	public int getInjectedErrors() {
+		return injectedErrors.get();
+	}
+
+	public int getRateLimitViolations() {
+		return rateLimitViolations.get();
+	}
+
+	public void setLatencyMillis(long latencyMillis) {
+		this.latencyMillis = latencyMillis;
+	}
+
+	/*
+	 * Sets share of calls (0 - 1) that fail with a recoverable error.
+	 */
+	public void setErrorRate(double errorRate) {
+		this.errorRate = errorRate;
+	}
+
+	/*
+	 * Sets enforced last.fm rate, 0 means no limit.
+	 */
+	public void setCallsPerSecond(int callsPerSecond, int burst) {
+		lastFmRateLimit = new RateLimit(callsPerSecond, burst);
+	}
+
+}
@@ -0,0 +1,136 @@
+package com.github.hakko.musiccabinet.ws;
+
+import static com.github.hakko.musiccabinet.configuration.CharSet.UTF8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.util.UUID;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.conn.params.ConnRoutePNames;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.hakko.musiccabinet.domain.model.library.WebserviceInvocation;
+import com.github.hakko.musiccabinet.domain.model.music.Artist;
+import com.github.hakko.musiccabinet.domain.model.music.MBArtist;
+import com.github.hakko.musiccabinet.exception.ApplicationException;
+import com.github.hakko.musiccabinet.parser.lastfm.ArtistInfoParserImpl;
+import com.github.hakko.musiccabinet.parser.musicbrainz.ArtistQueryParserImpl;
+import com.github.hakko.musiccabinet.service.lastfm.WebserviceHistoryService;
+import com.github.hakko.musiccabinet.util.StringUtil;
+import com.github.hakko.musiccabinet.ws.lastfm.ArtistInfoClient;
+import com.github.hakko.musiccabinet.ws.lastfm.WSResponse;
+
+public class StandInWebserviceServerTest {
+
+	private StandInWebserviceServer server;
+	private DefaultHttpClient httpClient;
+
+	private static final String LASTFM_URL = "http://ws.audioscrobbler.com/2.0/?method=artist.getinfo&artist=Cher";
+
+	@Before
+	public void startServer() throws IOException {
+		server = new StandInWebserviceServer();
+		server.start(0);
+		httpClient = new DefaultHttpClient();
+		httpClient.getParams().setParameter(ConnRoutePNames.DEFAULT_PROXY,
+				new HttpHost("localhost", server.getPort()));
+	}
+
+	@After
+	public void stopServer() {
+		httpClient.getConnectionManager().shutdown();
+		server.stop();
+	}
+
+	@Test
+	public void servesRecordedResponse() throws ApplicationException {
+		assertEquals("Tina Turner", getArtistInfo("Tina Turner").getName());
+		assertEquals(1, server.getCalls());
+	}
+
+	@Test
+	public void generatesResponseForUnknownArtist() throws ApplicationException {
+		assertEquals("Synthetic Artist & Co", getArtistInfo("Synthetic Artist & Co").getName());
+	}
+
+	@Test
+	public void generatesMusicBrainzArtistWithDerivedId() throws IOException, ApplicationException {
+		String query = URLEncoder.encode("artist:\"Synthetic Artist\"", UTF8);
+		String response = get("http://musicbrainz.org/ws/2/artist/?limit=1&query=" + query);
+		MBArtist artist = new ArtistQueryParserImpl(new StringUtil(response).getInputStream()).getArtist();
+
+		assertEquals("Synthetic Artist", artist.getName());
+		assertEquals(UUID.nameUUIDFromBytes("Synthetic Artist".getBytes(UTF8)).toString(), artist.getMbid());
+	}
+
+	@Test
+	public void injectsRecoverableErrors() throws IOException, ApplicationException {
+		server.setErrorRate(1);
+
+		assertEquals(503, getStatusCode(LASTFM_URL));
+		WSResponse wsResponse = new WSResponse(get(LASTFM_URL));
+		assertFalse(wsResponse.wasCallSuccessful());
+		assertTrue(wsResponse.isErrorRecoverable());
+		assertEquals(2, server.getInjectedErrors());
+	}
+
+	@Test
+	public void enforcesRateLimit() throws IOException, ApplicationException {
+		server.setCallsPerSecond(1, 1);
+
+		assertTrue(new WSResponse(get(LASTFM_URL)).wasCallSuccessful());
+		WSResponse wsResponse = new WSResponse(get(LASTFM_URL));
+		assertEquals(29, wsResponse.getErrorCode());
+		assertEquals(1, server.getRateLimitViolations());
+	}
+
+	@Test
+	public void delaysResponses() throws IOException {
+		server.setLatencyMillis(200);
+
+		long ms = -System.currentTimeMillis();
+		get(LASTFM_URL);
+		assertTrue(ms + System.currentTimeMillis() >= 200);
+	}
+
+	private Artist getArtistInfo(String artistName) throws ApplicationException {
+		ArtistInfoClient client = new ArtistInfoClient();
+		client.setHttpClient(httpClient);
+		client.setWebserviceHistoryService(new WebserviceHistoryService() {
+			@Override
+			public boolean isWebserviceInvocationAllowed(WebserviceInvocation invocation) {
+				return true;
+			}
+
+			@Override
+			public void logWebserviceInvocation(WebserviceInvocation invocation) {
+			}
+		});
+		WSResponse wsResponse = client.getArtistInfo(new Artist(artistName), "en");
+		assertTrue(wsResponse.wasCallSuccessful());
+		return new ArtistInfoParserImpl(new StringUtil(
+				wsResponse.getResponseBody()).getInputStream()).getArtistInfo().getArtist();
+	}
+
+	private String get(String url) throws IOException {
+		HttpResponse response = httpClient.execute(new HttpGet(url));
+		return EntityUtils.toString(response.getEntity(), UTF8);
+	}
+
+	private int getStatusCode(String url) throws IOException {
+		HttpResponse response = httpClient.execute(new HttpGet(url));
+		EntityUtils.consume(response.getEntity());
+		return response.getStatusLine().getStatusCode();
+	}
+
+}
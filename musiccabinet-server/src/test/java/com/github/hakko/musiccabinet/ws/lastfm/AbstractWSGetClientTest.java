@@ -9,6 +9,9 @@ import static com.github.hakko.musiccabinet.ws.lastfm.AbstractWSGetClient.PARAM_
 import static com.github.hakko.musiccabinet.ws.lastfm.AbstractWSGetClient.PARAM_TRACK;
 import static com.github.hakko.musiccabinet.ws.lastfm.AbstractWSGetClient.PATH;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.IOException;
@@ -18,6 +21,10 @@ import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.http.NameValuePair;
 import org.apache.http.client.ClientProtocolException;
@@ -30,12 +37,15 @@ import org.apache.http.message.BasicNameValuePair;
 import org.junit.Assert;
 import org.junit.Test;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import com.github.hakko.musiccabinet.domain.model.library.WebserviceInvocation;
 import com.github.hakko.musiccabinet.exception.ApplicationException;
 import com.github.hakko.musiccabinet.service.lastfm.ThrottleService;
 import com.github.hakko.musiccabinet.service.lastfm.WebserviceHistoryService;
 import com.github.hakko.musiccabinet.util.ResourceUtil;
+import com.github.hakko.musiccabinet.ws.ResponseCache;
 
 public class AbstractWSGetClientTest {
 	
@@ -164,6 +174,101 @@ public class AbstractWSGetClientTest {
 		Assert.assertTrue(response.isErrorRecoverable());
 	}
 
+	@Test
+	public void asyncCallNotifiesCallback() throws Exception {
+		TestWSGetClient testWSClient = getTestWSClient(true, SIMILAR_TRACKS_RESOURCE);
+		final WSResponse[] callbackResponse = new WSResponse[1];
+		final CountDownLatch callbackDone = new CountDownLatch(1);
+		Future<WSResponse> future = testWSClient.testCallAsync(new WSResponseCallback() {
+			@Override
+			public void completed(WSResponse wsResponse) {
+				callbackResponse[0] = wsResponse;
+				callbackDone.countDown();
+			}
+
+			@Override
+			public void failed(Throwable t) {
+				callbackDone.countDown();
+			}
+		});
+
+		WSResponse wsResponse = future.get(5, TimeUnit.SECONDS);
+		Assert.assertTrue(callbackDone.await(5, TimeUnit.SECONDS));
+		Assert.assertSame(wsResponse, callbackResponse[0]);
+		Assert.assertTrue(wsResponse.wasCallSuccessful());
+	}
+
+	@Test
+	public void asyncCallRetriesRecoverableErrors() 
+			throws ApplicationException, IOException, InterruptedException, ExecutionException {
+		HttpResponseException hpe = new HttpResponseException(503, "Service temporary unavailable");
+		TestWSGetClient testWSClient = getTestWSClient(hpe);
+		WSResponse response = testWSClient.testCallAsync(null).get();
+
+		Assert.assertTrue(response.isErrorRecoverable());
+		verify(testWSClient.getHttpClient(), times(3)).execute(
+				Mockito.any(HttpUriRequest.class), Mockito.any(ResponseHandler.class));
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void identicalCallsInFlightShareResponse() throws Exception {
+		TestWSGetClient testWSClient = getTestWSClient(true);
+		final String httpResponse = new ResourceUtil(SIMILAR_TRACKS_RESOURCE).getContent();
+		final CountDownLatch called = new CountDownLatch(1), respond = new CountDownLatch(1);
+		when(testWSClient.getHttpClient().execute(Mockito.any(HttpUriRequest.class), 
+				Mockito.any(ResponseHandler.class))).thenAnswer(new Answer<String>() {
+			@Override
+			public String answer(InvocationOnMock invocation) throws Throwable {
+				called.countDown();
+				respond.await(5, TimeUnit.SECONDS);
+				return httpResponse;
+			}
+		});
+
+		Future<WSResponse> first = testWSClient.testCallAsync(null);
+		Assert.assertTrue(called.await(5, TimeUnit.SECONDS));
+		Future<WSResponse> second = testWSClient.testCallAsync(null);
+		respond.countDown();
+
+		Assert.assertSame(first.get(5, TimeUnit.SECONDS), second.get(5, TimeUnit.SECONDS));
+		Assert.assertTrue(second.get().wasCallSuccessful());
+		verify(testWSClient.getHttpClient(), times(1)).execute(
+				Mockito.any(HttpUriRequest.class), Mockito.any(ResponseHandler.class));
+
+		testWSClient.testCallAsync(null).get(5, TimeUnit.SECONDS);
+		verify(testWSClient.getHttpClient(), times(2)).execute(
+				Mockito.any(HttpUriRequest.class), Mockito.any(ResponseHandler.class));
+	}
+
+	@Test
+	public void backoffGrowsUpToSleepTime() {
+		AbstractWSGetClient client = new AbstractWSGetClient(
+				new WSConfiguration(false, false, 10, 60 * 1000)) {};
+
+		long first = client.getBackoffMillis(1), third = client.getBackoffMillis(3);
+		Assert.assertTrue(first >= 2500 && first <= 5000);
+		Assert.assertTrue(third >= 10000 && third <= 20000);
+		Assert.assertTrue(client.getBackoffMillis(9) >= 30000);
+		Assert.assertTrue(client.getBackoffMillis(9) <= 60000);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void cachedResponseIsUsedInsteadOfCall() throws ApplicationException, IOException {
+		TestWSGetClient testWSClient = getTestWSClient(true, FAILED_KEY_RESOURCE);
+		ResponseCache responseCache = mock(ResponseCache.class);
+		when(responseCache.get(Mockito.any(WebserviceInvocation.Calltype.class), 
+				Mockito.anyString(), Mockito.anyList())).thenReturn(
+						new ResourceUtil(SIMILAR_TRACKS_RESOURCE).getContent());
+		testWSClient.setResponseCache(responseCache);
+		WSResponse wsResponse = testWSClient.testCall();
+
+		Assert.assertTrue(wsResponse.wasCallSuccessful());
+		verify(testWSClient.getHttpClient(), never()).execute(
+				Mockito.any(HttpUriRequest.class), Mockito.any(ResponseHandler.class));
+	}
+
 	/*
 	 * Creates and returns a TestWSClient that returns a mocked response body.
 	 */
@@ -0,0 +1,94 @@
+package com.github.hakko.musiccabinet.ws.lastfm;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.BasicResponseHandler;
+import org.apache.http.message.BasicHttpResponse;
+
+import com.github.hakko.musiccabinet.exception.ApplicationException;
+import com.github.hakko.musiccabinet.parser.lastfm.ArtistSimilarityParserImpl;
+import com.github.hakko.musiccabinet.parser.lastfm.UserRecommendedArtistsParserImpl;
+import com.github.hakko.musiccabinet.util.ResourceUtil;
+import com.github.hakko.musiccabinet.util.StringUtil;
+
+/*
+ * Compares bytes allocated per response, from HTTP entity to parsed result,
+ * between WSResponseHandler and the former path (BasicResponseHandler,
+ * control characters replaced in a copy, envelope found by indexOf, and
+ * body copied into a byte array for the parser).
+ */
+public class ResponseParsingBenchmark {
+
+	private static final String SIMILAR_ARTISTS = "last.fm/xml/similarartists.cher.xml";
+	private static final String RECOMMENDED_ARTISTS = "last.fm/xml/userrecommendedartists.ftparea.xml";
+
+	private static final int CALLS = 200;
+
+	public static void main(String[] args) throws Exception {
+		for (int i = 0; i < 3; i++) {
+			for (String resource : new String[] {SIMILAR_ARTISTS, RECOMMENDED_ARTISTS}) {
+				byte[] body = new ResourceUtil(resource).getContent().getBytes("UTF-8");
+				long streaming = allocated(resource, body, false);
+				long former = allocated(resource, body, true);
+				System.out.println(resource + " (" + body.length / 1024 + " kB): "
+						+ streaming / CALLS / 1024 + " kB/call allocated, formerly "
+						+ former / CALLS / 1024 + " kB/call");
+			}
+		}
+	}
+
+	private static long allocated(String resource, byte[] body, boolean former)
+			throws IOException, ApplicationException {
+		long before = allocatedBytes();
+		for (int i = 0; i < CALLS; i++) {
+			HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+			response.setEntity(new ByteArrayEntity(body, ContentType.create("text/xml", "UTF-8")));
+			if (former) {
+				String responseBody = new BasicResponseHandler().handleResponse(response);
+				responseBody = removeISOControlChars(responseBody);
+				if (responseBody.indexOf(WSResponse.RESPONSE_OK) == -1) {
+					throw new IllegalStateException();
+				}
+				parse(resource, new ByteArrayInputStream(responseBody.getBytes("UTF-8")));
+			} else {
+				WSResponse wsResponse = new WSResponse(new WSResponseHandler().handleResponse(response));
+				parse(resource, new StringUtil(wsResponse.getResponseBody()).getInputStream());
+			}
+		}
+		return allocatedBytes() - before;
+	}
+
+	private static void parse(String resource, InputStream is) throws ApplicationException {
+		if (SIMILAR_ARTISTS.equals(resource)) {
+			new ArtistSimilarityParserImpl(is);
+		} else {
+			new UserRecommendedArtistsParserImpl(is);
+		}
+	}
+
+	// XMLUtil.removeISOControlChars, as it used to copy every response
+	private static String removeISOControlChars(String input) {
+		char[] chars = input.toCharArray();
+		for (int i = 0; i < chars.length; i++) {
+			char c = chars[i];
+			if (Character.isISOControl(c) && c != 0x09
+					&& c != 0x0A && c != 0x0D) {
+				chars[i] = ' ';
+			}
+		}
+		return new String(chars);
+	}
+
+	private static long allocatedBytes() {
+		return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+				.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+}
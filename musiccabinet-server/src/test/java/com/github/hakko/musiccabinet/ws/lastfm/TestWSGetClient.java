@@ -1,6 +1,7 @@
 package com.github.hakko.musiccabinet.ws.lastfm;
 
 import java.util.List;
+import java.util.concurrent.Future;
 
 import org.apache.http.NameValuePair;
 
@@ -22,4 +23,8 @@ public class TestWSGetClient extends AbstractWSGetClient {
 		return executeWSRequest(invocation, params);
 	}
 
+	public Future<WSResponse> testCallAsync(WSResponseCallback callback) throws ApplicationException {
+		return executeWSRequestAsync(invocation, params, callback);
+	}
+
 }
\ No newline at end of file
@@ -0,0 +1,58 @@
+package com.github.hakko.musiccabinet.ws.lastfm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.Test;
+
+import com.github.hakko.musiccabinet.exception.ApplicationException;
+import com.github.hakko.musiccabinet.parser.lastfm.ArtistInfoParserImpl;
+import com.github.hakko.musiccabinet.util.ResourceUtil;
+import com.github.hakko.musiccabinet.util.StringUtil;
+
+public class WSResponseHandlerTest {
+
+	private static final String CTRL_CHAR_RESPONSE = "last.fm/xml/artistinfo.bachelorette.xml";
+
+	@Test
+	public void readsBodyAndReplacesControlCharacters() throws IOException, ApplicationException {
+		String body = "<lfm status=\"ok\">\u0001åäö\t\n</lfm>";
+		HttpResponse response = getResponse(200, body.getBytes("UTF-8"));
+
+		assertEquals("<lfm status=\"ok\"> åäö\t\n</lfm>", new WSResponseHandler().handleResponse(response));
+	}
+
+	@Test
+	public void responseWithControlCharactersCanBeParsed() throws IOException, ApplicationException {
+		byte[] body = new ResourceUtil(CTRL_CHAR_RESPONSE).getContent().getBytes("UTF-8");
+		String responseBody = new WSResponseHandler().handleResponse(getResponse(200, body));
+		WSResponse wsResponse = new WSResponse(responseBody);
+
+		new ArtistInfoParserImpl(new StringUtil(wsResponse.getResponseBody()).getInputStream());
+	}
+
+	@Test
+	public void httpErrorThrowsException() throws IOException {
+		try {
+			new WSResponseHandler().handleResponse(getResponse(503, new byte[0]));
+			fail();
+		} catch (HttpResponseException e) {
+			assertEquals(503, e.getStatusCode());
+		}
+	}
+
+	private HttpResponse getResponse(int statusCode, byte[] body) {
+		HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, statusCode, "reason");
+		response.setEntity(new ByteArrayEntity(body, ContentType.create("text/xml", "UTF-8")));
+		return response;
+	}
+
+}